@@ -1,6 +1,7 @@
 package fr.ans.psc.pscload.component;
 
 import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
 import fr.ans.psc.pscload.model.*;
 import fr.ans.psc.pscload.model.response.PsListResponse;
 import fr.ans.psc.pscload.model.response.PsRefResponse;
@@ -8,6 +9,9 @@ import fr.ans.psc.pscload.model.response.PsResponse;
 import fr.ans.psc.pscload.service.task.Task;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.reflect.Type;
 import java.util.List;
 
@@ -33,6 +37,7 @@ public class JsonFormatter {
      */
     public JsonFormatter() {
         this.gson = new GsonBuilder().disableHtmlEscaping()
+                .registerTypeAdapterFactory(new ModelJsonAdapters())
                 .registerTypeHierarchyAdapter(List.class, new CollectionAdapter()).create();
     }
 
@@ -94,6 +99,16 @@ public class JsonFormatter {
         return gson.toJson(o);
     }
 
+    /**
+     * Write the json of an object.
+     *
+     * @param o      the object
+     * @param writer the writer
+     */
+    public void writeJson(Object o, Writer writer) {
+        gson.toJson(o, writer);
+    }
+
     public PsRef psRefFromJson(String json) {
         PsRefResponse response = gson.fromJson(json, PsRefResponse.class);
         return response.getPsRef();
@@ -118,7 +133,25 @@ public class JsonFormatter {
      * @return the string
      */
     public String nakedPsFromObject(Professionnel ps) {
-        return gson.toJson(new Professionnel(ps));
+        StringWriter json = new StringWriter();
+        writeNakedPs(ps, json);
+        return json.toString();
+    }
+
+    /**
+     * Write the naked json of a ps, without its professions.
+     *
+     * @param ps     the ps
+     * @param writer the writer
+     */
+    public void writeNakedPs(Professionnel ps, Writer writer) {
+        try {
+            JsonWriter out = gson.newJsonWriter(writer);
+            ModelJsonAdapters.writeProfessionnel(out, ps, true);
+            out.flush();
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
     }
 
     /**
@@ -129,8 +162,7 @@ public class JsonFormatter {
      */
     public String nakedPsFromMessage(String message) {
         String[] items = message.split("\\|", -1);
-        Professionnel ps = new Professionnel(items);
-        return gson.toJson(new Professionnel(ps));
+        return nakedPsFromObject(new Professionnel(items));
     }
 
     /**
@@ -140,6 +172,24 @@ public class JsonFormatter {
      * @return the string
      */
     public String nakedExProFromObject(ExerciceProfessionnel exPro) {
-        return gson.toJson(new ExerciceProfessionnel(exPro));
+        StringWriter json = new StringWriter();
+        writeNakedExPro(exPro, json);
+        return json.toString();
+    }
+
+    /**
+     * Write the naked json of an ex pro, without its expertises and work situations.
+     *
+     * @param exPro  the ex pro
+     * @param writer the writer
+     */
+    public void writeNakedExPro(ExerciceProfessionnel exPro, Writer writer) {
+        try {
+            JsonWriter out = gson.newJsonWriter(writer);
+            ModelJsonAdapters.writeExPro(out, exPro, true);
+            out.flush();
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
     }
 }
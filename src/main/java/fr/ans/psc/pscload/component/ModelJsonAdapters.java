@@ -0,0 +1,193 @@
+package fr.ans.psc.pscload.component;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import fr.ans.psc.pscload.model.*;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The type Model json adapters.
+ * Writes the model classes field by field with a JsonWriter, without reflection nor intermediate copies,
+ * in the same form as the reflective Gson adapters and the CollectionAdapter : null fields and empty lists are omitted,
+ * expertises and situations without id are skipped. Reading still goes through the reflective adapters.
+ */
+public class ModelJsonAdapters implements TypeAdapterFactory {
+
+    private static final int ROW_LENGTH = 50;
+
+    private static final String[] PS_FIELDS = {"idType", "id", "nationalId", "lastName", "firstName", "dateOfBirth",
+            "birthAddressCode", "birthCountryCode", "birthAddress", "genderCode", "phone", "email", "salutationCode"};
+
+    private static final String[] EX_PRO_FIELDS = {"code", "categoryCode", "salutationCode", "lastName", "firstName"};
+
+    private static final String[] EXPERTISE_FIELDS = {"typeCode", "code"};
+
+    private static final String[] SITUATION_FIELDS = {"modeCode", "activitySectorCode", "pharmacistTableSectionCode", "roleCode"};
+
+    private static final String[] STRUCTURE_FIELDS = {"siteSIRET", "siteSIREN", "siteFINESS", "legalEstablishmentFINESS",
+            "structureTechnicalId", "legalCommercialName", "publicCommercialName", "recipientAdditionalInfo",
+            "geoLocationAdditionalInfo", "streetNumber", "streetNumberRepetitionIndex", "streetCategoryCode", "streetLabel",
+            "distributionMention", "cedexOffice", "postalCode", "communeCode", "countryCode", "phone", "phone2", "fax",
+            "email", "departmentCode", "oldStructureId", "registrationAuthority"};
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+        if (rawType != Professionnel.class && rawType != ExerciceProfessionnel.class && rawType != SavoirFaire.class
+                && rawType != SituationExercice.class && rawType != StructureRef.class && rawType != Structure.class) {
+            return null;
+        }
+        TypeAdapter<T> reflective = gson.getDelegateAdapter(this, type);
+        return new TypeAdapter<T>() {
+            @Override
+            public void write(JsonWriter out, T value) throws IOException {
+                writeObject(out, value);
+            }
+
+            @Override
+            public T read(JsonReader in) throws IOException {
+                return reflective.read(in);
+            }
+        };
+    }
+
+    /**
+     * Write a model object.
+     *
+     * @param out   the writer
+     * @param value the model object, or null
+     * @throws IOException the io exception
+     */
+    public static void writeObject(JsonWriter out, Object value) throws IOException {
+        if (value instanceof Professionnel) {
+            writeProfessionnel(out, (Professionnel) value, false);
+        } else if (value instanceof ExerciceProfessionnel) {
+            writeExPro(out, (ExerciceProfessionnel) value, false);
+        } else if (value instanceof SavoirFaire) {
+            writeExpertise(out, (SavoirFaire) value);
+        } else if (value instanceof SituationExercice) {
+            writeSituation(out, (SituationExercice) value);
+        } else if (value instanceof StructureRef) {
+            out.beginObject();
+            writeField(out, "structureId", ((StructureRef) value).getStructureId());
+            out.endObject();
+        } else if (value instanceof Structure) {
+            writeStructure(out, (Structure) value);
+        } else {
+            out.nullValue();
+        }
+    }
+
+    /**
+     * Write a ps.
+     *
+     * @param out   the writer
+     * @param ps    the ps
+     * @param naked true to leave out the professions
+     * @throws IOException the io exception
+     */
+    public static void writeProfessionnel(JsonWriter out, Professionnel ps, boolean naked) throws IOException {
+        String[] items = new String[ROW_LENGTH];
+        ps.fillItems(items);
+        out.beginObject();
+        writeFields(out, PS_FIELDS, items, 0);
+        if (!naked && !ps.getProfessions().isEmpty()) {
+            out.name("professions").beginArray();
+            for (ExerciceProfessionnel exPro : ps.getProfessions()) {
+                writeExPro(out, exPro, false);
+            }
+            out.endArray();
+        }
+        out.endObject();
+    }
+
+    /**
+     * Write an exercice professionnel.
+     *
+     * @param out   the writer
+     * @param exPro the exercice professionnel
+     * @param naked true to leave out the expertises and work situations
+     * @throws IOException the io exception
+     */
+    public static void writeExPro(JsonWriter out, ExerciceProfessionnel exPro, boolean naked) throws IOException {
+        String[] items = new String[ROW_LENGTH];
+        exPro.fillItems(items);
+        out.beginObject();
+        writeFields(out, EX_PRO_FIELDS, items, 13);
+        if (!naked) {
+            List<SavoirFaire> expertises = exPro.getExpertises();
+            if (!expertises.isEmpty()) {
+                out.name("expertises").beginArray();
+                for (SavoirFaire expertise : expertises) {
+                    if (!expertise.getExpertiseId().equals("")) {
+                        writeExpertise(out, expertise);
+                    }
+                }
+                out.endArray();
+            }
+            List<SituationExercice> situations = exPro.getWorkSituations();
+            if (!situations.isEmpty()) {
+                out.name("workSituations").beginArray();
+                for (SituationExercice situation : situations) {
+                    if (!situation.getSituationId().equals("")) {
+                        writeSituation(out, situation);
+                    }
+                }
+                out.endArray();
+            }
+        }
+        out.endObject();
+    }
+
+    private static void writeExpertise(JsonWriter out, SavoirFaire expertise) throws IOException {
+        String[] items = new String[ROW_LENGTH];
+        expertise.fillItems(items);
+        out.beginObject();
+        writeFields(out, EXPERTISE_FIELDS, items, 18);
+        out.endObject();
+    }
+
+    private static void writeSituation(JsonWriter out, SituationExercice situation) throws IOException {
+        String[] items = new String[ROW_LENGTH];
+        situation.fillItems(items);
+        out.beginObject();
+        writeFields(out, SITUATION_FIELDS, items, 20);
+        if (!situation.getStructures().isEmpty()) {
+            out.name("structures").beginArray();
+            for (StructureRef structureRef : situation.getStructures()) {
+                out.beginObject();
+                writeField(out, "structureId", structureRef.getStructureId());
+                out.endObject();
+            }
+            out.endArray();
+        }
+        out.endObject();
+    }
+
+    private static void writeStructure(JsonWriter out, Structure structure) throws IOException {
+        String[] items = new String[ROW_LENGTH];
+        structure.fillItems(items);
+        out.beginObject();
+        writeFields(out, STRUCTURE_FIELDS, items, 24);
+        out.endObject();
+    }
+
+    private static void writeFields(JsonWriter out, String[] names, String[] items, int firstItem) throws IOException {
+        for (int field = 0; field < names.length; field++) {
+            writeField(out, names[field], items[firstItem + field]);
+        }
+    }
+
+    private static void writeField(JsonWriter out, String name, String value) throws IOException {
+        if (value != null) {
+            out.name(name).value(value);
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package fr.ans.psc.pscload.component;
 
+import com.esotericsoftware.kryo.KryoException;
 import com.google.common.collect.MapDifference;
 import fr.ans.psc.pscload.component.utils.FilesUtils;
 import fr.ans.psc.pscload.component.utils.SSLUtils;
 import fr.ans.psc.pscload.exceptions.ConcurrentProcessCallException;
+import fr.ans.psc.pscload.mapper.ChangeSetFile;
+import fr.ans.psc.pscload.mapper.ExtractSorter;
 import fr.ans.psc.pscload.mapper.Loader;
+import fr.ans.psc.pscload.mapper.SortedExtractReader;
 import fr.ans.psc.pscload.mapper.Serializer;
 import fr.ans.psc.pscload.metrics.CustomMetrics;
 import fr.ans.psc.pscload.model.Professionnel;
@@ -12,7 +16,10 @@ import fr.ans.psc.pscload.model.PsRef;
 import fr.ans.psc.pscload.model.Structure;
 import fr.ans.psc.pscload.service.emailing.EmailService;
 import fr.ans.psc.pscload.service.PscRestApi;
+import fr.ans.psc.pscload.service.StreamingDiff;
+import fr.ans.psc.pscload.service.UploadJournal;
 import fr.ans.psc.pscload.service.emailing.EmailNature;
+import fr.ans.psc.pscload.snapshot.SnapshotCompression;
 import io.micrometer.core.instrument.Metrics;
 import okhttp3.*;
 import org.slf4j.Logger;
@@ -22,9 +29,16 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.annotation.PostConstruct;
+
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
@@ -48,12 +62,21 @@ public class Process {
     @Autowired
     private Loader loader;
 
+    @Autowired
+    private ExtractSorter extractSorter;
+
+    @Autowired
+    private UploadJournal uploadJournal;
+
     @Autowired
     private EmailService emailService;
 
     @Autowired
     private CustomMetrics customMetrics;
 
+    @Autowired
+    private OkHttpClient httpClient;
+
     @Value("${cert.path}")
     private String cert;
 
@@ -69,17 +92,68 @@ public class Process {
     @Value("${use.ssl}")
     private boolean useCustomSSLContext;
 
+    @Value("${diff.streaming.enabled:false}")
+    private boolean streamingDiffEnabled;
+
+    @Value("${diff.changeset.enabled:false}")
+    private boolean changeSetEnabled;
+
+    @Value("${diff.changeset.compression:none}")
+    private String changeSetCompression;
+
+    @Value("${upload.pipelined.enabled:false}")
+    private boolean pipelinedEnabled;
+
     private final String TOGGLE_FILE_NAME = "Table_de_Correspondance_bascule";
 
+    private static final String SORTED_EXTENSION = ".sorted";
+
+    private static final String PARTIAL_EXTENSION = ".part";
+
     private File latestExtract;
 
     private MapDifference<String, Professionnel> psDiff;
 
     private MapDifference<String, Structure> structureDiff;
 
+    // change set file : the diff written to disk, the maps are released until the upload reads it back
+    private File changeSet;
+
+    // streaming diff : both sides are read from files sorted by key instead of maps
+    private boolean streamingDiff;
+
+    private File sortedSnapshot;
+
+    private File sortedSnapshotStructures;
+
+    private File sortedExtract;
+
+    private File sortedExtractStructures;
+
     @Value("${pscextract.base.url}")
     private String pscextractBaseUrl;
 
+    /**
+     * Delete the sorted and chunk files of a run interrupted by a crash, no run is in progress at startup.
+     * The change set of the latest extract is kept : the next run uploads it instead of computing the diff again.
+     */
+    @PostConstruct
+    void recoverFiles() {
+        File[] leftovers = new File(filesDirectory).listFiles((dir, name) -> name.startsWith(ExtractSorter.CHUNK_PREFIX)
+                && (name.endsWith(SORTED_EXTENSION) || name.endsWith(ExtractSorter.CHUNK_EXTENSION))
+                || name.endsWith(ChangeSetFile.EXTENSION + PARTIAL_EXTENSION));
+        if (leftovers != null && leftovers.length > 0) {
+            log.info("deleting {} temporary files left by a previous run", leftovers.length);
+            Arrays.stream(leftovers).forEach(File::delete);
+        }
+
+        File latestTxt = FilesUtils.getLatestExtAndSer(filesDirectory).get("txt");
+        if (changeSetEnabled && latestTxt != null && changeSetFile(latestTxt).exists()) {
+            changeSet = changeSetFile(latestTxt);
+            log.info("change set {} left by a previous run will be uploaded by the next run", changeSet.getName());
+        }
+    }
+
     /**
      * Download and parse.
      *
@@ -126,14 +200,25 @@ public class Process {
         latestExtract = latestFiles.get("txt");
         if (latestExtract != null) {
             log.info("loading file: {}", latestExtract.getName());
+            // the streaming diff needs the sorted snapshot of the previous run, otherwise maps are used
+            streamingDiff = streamingDiffEnabled && isSortedSnapshotUsable(latestFiles);
 
             try {
-                loader.loadMapsFromFile(latestExtract);
+                if (streamingDiff) {
+                    deleteSortedFiles();
+                    sortedExtract = createSortedFile();
+                    extractSorter.sortExtract(latestExtract, ExtractSorter.NATIONAL_ID_COLUMN, sortedExtract);
+                    sortedExtractStructures = createSortedFile();
+                    extractSorter.sortExtract(latestExtract, ExtractSorter.STRUCTURE_ID_COLUMN, sortedExtractStructures);
+                } else {
+                    loader.loadMapsFromFile(latestExtract);
+                }
                 setCurrentStage(ProcessStep.CURRENT_MAP_LOADED);
                 status = ProcessStepStatus.CONTINUE;
 
             } catch (IOException e) {
                 log.error("error during file reading", e);
+                deleteSortedFiles();
                 status = ProcessStepStatus.FILE_READING_ERROR;
             }
         } else {
@@ -152,13 +237,42 @@ public class Process {
         }
         Map<String, File> latestFiles = FilesUtils.getLatestExtAndSer(filesDirectory);
 
+        if (streamingDiff) {
+            sortedSnapshot = latestFiles.get("srt");
+            try {
+                sortedSnapshotStructures = createSortedFile();
+                extractSorter.resort(sortedSnapshot, ExtractSorter.STRUCTURE_ID_COLUMN, sortedSnapshotStructures);
+                setCurrentStage(ProcessStep.PREVIOUS_MAP_LOADED);
+                status = ProcessStepStatus.CONTINUE;
+            } catch (IOException e) {
+                log.error("Error during sorted snapshot reading", e);
+                deleteSortedFiles();
+                status = ProcessStepStatus.FILE_READING_ERROR;
+            }
+            return status;
+        }
+
         File ogFile = latestFiles.get("ser");
+        List<File> deltas = FilesUtils.getDeltasAfter(filesDirectory, ogFile);
+        File latestState = deltas.isEmpty() ? ogFile : deltas.get(deltas.size() - 1);
+        File latestSrt = latestFiles.get("srt");
 
         try {
-            serializer.deserialiseFileToMaps(ogFile);
+            if (latestSrt != null && (latestState == null || FilesUtils.compare(latestSrt, latestState) > 0)) {
+                // a streaming diff run left no ser file, its sorted snapshot holds the latest state
+                File sortedStructures = createSortedFile();
+                try {
+                    extractSorter.resort(latestSrt, ExtractSorter.STRUCTURE_ID_COLUMN, sortedStructures);
+                    serializer.deserialiseSortedSnapshot(latestSrt, sortedStructures);
+                } finally {
+                    sortedStructures.delete();
+                }
+            } else {
+                serializer.deserialiseFileToMaps(ogFile, deltas);
+            }
             setCurrentStage(ProcessStep.PREVIOUS_MAP_LOADED);
             status = ProcessStepStatus.CONTINUE;
-        } catch (FileNotFoundException e) {
+        } catch (IOException | KryoException e) {
             log.error("Error during deserialization", e);
             status = ProcessStepStatus.INVALID_SER_FILE_PATH;
         }
@@ -176,8 +290,34 @@ public class Process {
         log.info("starting diff");
 
         setCurrentStage(ProcessStep.COMPUTE_DIFF_STARTED);
-        psDiff = pscRestApi.diffPsMaps(serializer.getPsMap(), loader.getPsMap());
+        if (streamingDiff) {
+            try (SortedExtractReader originalPs = new SortedExtractReader(sortedSnapshot, ExtractSorter.NATIONAL_ID_COLUMN);
+                 SortedExtractReader revisedPs = new SortedExtractReader(sortedExtract, ExtractSorter.NATIONAL_ID_COLUMN);
+                 SortedExtractReader originalStructures = new SortedExtractReader(sortedSnapshotStructures, ExtractSorter.STRUCTURE_ID_COLUMN);
+                 SortedExtractReader revisedStructures = new SortedExtractReader(sortedExtractStructures, ExtractSorter.STRUCTURE_ID_COLUMN)) {
+                pscRestApi.diffPsStreams(originalPs::nextProfessionnel, revisedPs::nextProfessionnel);
+                pscRestApi.diffStructureStreams(originalStructures::nextStructure, revisedStructures::nextStructure);
+                setCurrentStage(ProcessStep.COMPUTE_DIFF_FINISHED);
+            } catch (IOException e) {
+                log.error("Error during streaming diff", e);
+                setCurrentStage(ProcessStep.PREVIOUS_MAP_LOADED);
+            }
+            return;
+        }
+        if (changeSetEnabled && changeSetFile(latestExtract).equals(changeSet)) {
+            // the snapshot is only replaced once the upload is over, the change set still holds the diff of this extract
+            log.info("uploading the changes of {} left by a previous run", changeSet.getName());
+            useChangeSet(changeSet);
+            setCurrentStage(ProcessStep.COMPUTE_DIFF_FINISHED);
+            return;
+        }
+        deleteChangeSet();
+        psDiff = pscRestApi.diffPsMaps(serializer.getPsMap(), serializer.getFingerprintIndex(),
+                loader.getPsMap(), loader.getFingerprintIndex());
         structureDiff = pscRestApi.diffStructureMaps(serializer.getStructureMap(), loader.getStructureMap());
+        if (changeSetEnabled) {
+            writeChangeSet();
+        }
 
         setCurrentStage(ProcessStep.COMPUTE_DIFF_FINISHED);
     }
@@ -190,17 +330,102 @@ public class Process {
             throw new ConcurrentProcessCallException("Cancel new upload changes : previous upload changes process still running...");
         }
 
-        if (psDiff == null || structureDiff == null || !isAtStage(ProcessStep.COMPUTE_DIFF_FINISHED)) {
+        if ((!streamingDiff && changeSet == null && (psDiff == null || structureDiff == null)) || !isAtStage(ProcessStep.COMPUTE_DIFF_FINISHED)) {
            return ProcessStepStatus.DIFF_NOT_COMPUTED;
         }
 
         setCurrentStage(ProcessStep.UPLOAD_CHANGES_STARTED);
-        pscRestApi.uploadChanges(psDiff, structureDiff);
-        setCurrentStage(ProcessStep.UPLOAD_CHANGES_FINISHED);
+        openUploadJournal();
+        // the diff is kept for the next upload unless this one completes
+        ProcessStep stage = ProcessStep.COMPUTE_DIFF_FINISHED;
+        try {
+            if (streamingDiff) {
+                try (SortedExtractReader originalPs = new SortedExtractReader(sortedSnapshot, ExtractSorter.NATIONAL_ID_COLUMN);
+                     SortedExtractReader revisedPs = new SortedExtractReader(sortedExtract, ExtractSorter.NATIONAL_ID_COLUMN);
+                     SortedExtractReader originalStructures = new SortedExtractReader(sortedSnapshotStructures, ExtractSorter.STRUCTURE_ID_COLUMN);
+                     SortedExtractReader revisedStructures = new SortedExtractReader(sortedExtractStructures, ExtractSorter.STRUCTURE_ID_COLUMN)) {
+                    pscRestApi.uploadStreamedChanges(originalPs::nextProfessionnel, revisedPs::nextProfessionnel,
+                            originalStructures::nextStructure, revisedStructures::nextStructure);
+                } catch (IOException e) {
+                    log.error("Error during streamed upload", e);
+                    return ProcessStepStatus.FILE_READING_ERROR;
+                }
+            } else if (changeSet != null) {
+                try (ChangeSetFile changes = ChangeSetFile.open(changeSet)) {
+                    pscRestApi.uploadChangeSet(changes);
+                } catch (IOException | RuntimeException e) {
+                    log.error("Error during change set upload", e);
+                    return ProcessStepStatus.FILE_READING_ERROR;
+                }
+            } else {
+                pscRestApi.uploadChanges(psDiff, structureDiff, serializer.getFingerprintIndex());
+            }
+            stage = ProcessStep.UPLOAD_CHANGES_FINISHED;
+        } catch (InterruptedException e) {
+            log.error("Upload changes interrupted", e);
+            Thread.currentThread().interrupt();
+            return ProcessStepStatus.UPLOAD_CHANGES_ABORTED;
+        } catch (RuntimeException e) {
+            log.error("Error during upload changes", e);
+            return ProcessStepStatus.UPLOAD_CHANGES_ABORTED;
+        } finally {
+            uploadJournal.close();
+            setCurrentStage(stage);
+        }
 
         return ProcessStepStatus.CONTINUE;
     }
 
+    /**
+     * Compute the diff and upload the changes at the same time, the upload starts with the first change found.
+     * The streamed diff has no maps to diff : it is computed then uploaded.
+     */
+    public ProcessStepStatus diffAndUploadChanges() throws ConcurrentProcessCallException {
+        if (isAtStage(ProcessStep.UPLOAD_CHANGES_STARTED) || isAtStage(ProcessStep.COMPUTE_DIFF_STARTED)) {
+            throw new ConcurrentProcessCallException("Cancel pipelined upload : upload changes process still running...");
+        }
+        if (streamingDiff) {
+            computeDiff();
+            return uploadChanges();
+        }
+        log.info("starting pipelined diff and upload");
+
+        setCurrentStage(ProcessStep.UPLOAD_CHANGES_STARTED);
+        deleteChangeSet();
+        openUploadJournal();
+        // the maps are kept : a failed upload is resumed by diffing them again
+        ProcessStep stage = ProcessStep.PREVIOUS_MAP_LOADED;
+        try {
+            PscRestApi.PipelinedChanges changes = pscRestApi.diffAndUploadChanges(
+                    serializer.getPsMap(), serializer.getFingerprintIndex(), loader.getPsMap(), loader.getFingerprintIndex(),
+                    serializer.getStructureMap(), loader.getStructureMap());
+            psDiff = changes.getPsDiff();
+            structureDiff = changes.getStructureDiff();
+            stage = ProcessStep.UPLOAD_CHANGES_FINISHED;
+        } catch (InterruptedException e) {
+            log.error("Pipelined diff and upload interrupted", e);
+            Thread.currentThread().interrupt();
+            return ProcessStepStatus.UPLOAD_CHANGES_ABORTED;
+        } catch (RuntimeException e) {
+            log.error("Error during pipelined diff and upload", e);
+            return ProcessStepStatus.UPLOAD_CHANGES_ABORTED;
+        } finally {
+            uploadJournal.close();
+            setCurrentStage(stage);
+        }
+
+        return ProcessStepStatus.CONTINUE;
+    }
+
+    /**
+     * Tells if the diff and the upload run together.
+     *
+     * @return true if pipelined
+     */
+    public boolean isPipelined() {
+        return pipelinedEnabled;
+    }
+
     /**
      * Serialize maps to file.
      */
@@ -211,14 +436,40 @@ public class Process {
             status = ProcessStepStatus.TXT_FILE_ABSENT;
         } else {
             String latestExtractDate = FilesUtils.getDateStringFromFileName(latestExtract);
+            File sortedSnapshotFile = new File(filesDirectory, latestExtractDate.concat(".srt"));
             try {
-                serializer.serialiseMapsToFile(loader.getPsMap(), loader.getStructureMap(),
-                        filesDirectory + "/" + latestExtractDate.concat(".ser"));
+                if (streamingDiff) {
+                    // the extract sorted by nationalId becomes the snapshot of the next streaming diff
+                    Files.move(sortedExtract.toPath(), sortedSnapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    sortedExtract = null;
+                    deleteSortedFiles();
+                } else if (changeSet != null && serializer.isDeltaAppendable()) {
+                    // the maps were released after the diff, the delta is read back from the change set
+                    serialiseChangeSetDelta(filesDirectory + "/" + latestExtractDate.concat(".dlt"));
+                    if (streamingDiffEnabled) {
+                        extractSorter.sortExtract(latestExtract, ExtractSorter.NATIONAL_ID_COLUMN, sortedSnapshotFile);
+                    }
+                } else if (psDiff != null && structureDiff != null && serializer.isDeltaAppendable()) {
+                    // only the changes of the run are written, on top of the previous ser file and deltas
+                    serializer.serialiseDeltaToFile(psDiff, structureDiff, filesDirectory + "/" + latestExtractDate.concat(".dlt"));
+                    if (streamingDiffEnabled) {
+                        extractSorter.sortExtract(latestExtract, ExtractSorter.NATIONAL_ID_COLUMN, sortedSnapshotFile);
+                    }
+                } else {
+                    serializer.serialiseMapsToFile(loader.getPsMap(), loader.getStructureMap(), loader.getFingerprintIndex(),
+                            filesDirectory + "/" + latestExtractDate.concat(".ser"));
+                    if (streamingDiffEnabled) {
+                        extractSorter.sortExtract(latestExtract, ExtractSorter.NATIONAL_ID_COLUMN, sortedSnapshotFile);
+                    }
+                }
 
+                // the snapshot now holds the uploaded state, a restart no longer needs the journal
+                uploadJournal.delete();
+                deleteChangeSet();
                 Metrics.counter(CustomMetrics.SER_FILE_TAG, CustomMetrics.TIMESTAMP_TAG, latestExtractDate).increment();
                 setCurrentStage(ProcessStep.IDLE);
 
-            } catch (FileNotFoundException e) {
+            } catch (IOException e) {
                 log.error("Invalid path", e);
                 return ProcessStepStatus.INVALID_SER_FILE_PATH;
             }
@@ -231,19 +482,15 @@ public class Process {
     public ProcessStepStatus triggerExtract() {
         ProcessStepStatus processStepStatus;
         log.info("prepare trigger RASS extract");
-        OkHttpClient client = new OkHttpClient();
         Request.Builder requestBuilder = new Request.Builder();
         RequestBody body = RequestBody.create("{}", MediaType.parse("application/json"));
         Request request = requestBuilder.url(pscextractBaseUrl + "/generate-extract")
                 .post(body).build();
 
-        Call call = client.newCall(request);
-        try {
-            Response response = call.execute();
+        try (Response response = httpClient.newCall(request).execute()) {
             log.info("extract response : " + response);
             String responseBody = Objects.requireNonNull(response.body()).string();
             log.info("response body: {}", responseBody);
-            response.close();
             processStepStatus = ProcessStepStatus.CONTINUE;
         } catch (IOException e) {
             log.error("Error during pscextract endpoint call", e);
@@ -314,19 +561,47 @@ public class Process {
         ProcessStepStatus currentStepStatus;
 
         try {
+            if (!isAtStage(ProcessStep.COMPUTE_DIFF_FINISHED) && (hasInterruptedUpload() || changeSet != null)) {
+                // the diff was lost with the previous instance : it is read back from its change set or computed again,
+                // journaled operations are skipped
+                // a change set may outlive its extract, a journal may not
+                File interrupted = changeSet != null ? changeSet : FilesUtils.getLatestExtAndSer(filesDirectory).get("txt");
+                log.info("resuming the upload interrupted for {}", interrupted.getName());
+                currentStepStatus = runFirst();
+                if (currentStepStatus != ProcessStepStatus.CONTINUE) {
+                    return currentStepStatus;
+                }
+            }
             currentStepStatus = uploadChanges();
 
             if (currentStepStatus == ProcessStepStatus.CONTINUE) {
-                currentStepStatus = serializeMapsToFile();
+                currentStepStatus = finishRun();
+            }
+        } catch (ConcurrentProcessCallException e) {
+            log.warn(e.getMessage(), e);
+            currentStepStatus = ProcessStepStatus.ABORT;
+        }
+        return currentStepStatus;
+    }
 
-                if (currentStepStatus == ProcessStepStatus.CONTINUE) {
-                    emailService.sendMail(EmailNature.PROCESS_FINISHED, FilesUtils.getLatestExtAndSer(filesDirectory));
-                    currentStepStatus = triggerExtract();
-                }
-                if (currentStepStatus == ProcessStepStatus.CONTINUE) {
-                    FilesUtils.cleanup(filesDirectory);
-                    log.info("full upload finished");
-                }
+    /**
+     * Run the whole process in one go, the upload running along the diff.
+     * An interrupted upload is resumed the same way : the diff is computed again and journaled operations are skipped.
+     */
+    public ProcessStepStatus runPipelined() {
+        ProcessStepStatus currentStepStatus;
+
+        try {
+            currentStepStatus = loadLatestFile();
+
+            if (currentStepStatus == ProcessStepStatus.CONTINUE) {
+                currentStepStatus = deserializeFileToMaps();
+            }
+            if (currentStepStatus == ProcessStepStatus.CONTINUE) {
+                currentStepStatus = diffAndUploadChanges();
+            }
+            if (currentStepStatus == ProcessStepStatus.CONTINUE) {
+                currentStepStatus = finishRun();
             }
         } catch (ConcurrentProcessCallException e) {
             log.warn(e.getMessage(), e);
@@ -335,6 +610,158 @@ public class Process {
         return currentStepStatus;
     }
 
+    private ProcessStepStatus finishRun() {
+        ProcessStepStatus currentStepStatus = serializeMapsToFile();
+
+        if (currentStepStatus == ProcessStepStatus.CONTINUE) {
+            emailService.sendMail(EmailNature.PROCESS_FINISHED, FilesUtils.getLatestExtAndSer(filesDirectory));
+            currentStepStatus = triggerExtract();
+        }
+        if (currentStepStatus == ProcessStepStatus.CONTINUE) {
+            FilesUtils.cleanup(filesDirectory);
+            log.info("full upload finished");
+        }
+        return currentStepStatus;
+    }
+
+    /**
+     * Tells if an upload of the latest extract was interrupted, its journal is then still in the files directory.
+     *
+     * @return true if the upload of the latest extract can be resumed
+     */
+    public boolean hasInterruptedUpload() {
+        File latestTxt = FilesUtils.getLatestExtAndSer(filesDirectory).get("txt");
+        return uploadJournal.isEnabled() && latestTxt != null && journalFile(latestTxt).exists();
+    }
+
+    private File journalFile(File extract) {
+        return new File(filesDirectory, FilesUtils.getDateStringFromFileName(extract) + UploadJournal.EXTENSION);
+    }
+
+    private void openUploadJournal() {
+        if (!uploadJournal.isEnabled()) {
+            return;
+        }
+        File journal = journalFile(latestExtract);
+        // journals of older extracts can not be resumed anymore
+        File[] staleJournals = new File(filesDirectory).listFiles((dir, name) -> name.endsWith(UploadJournal.EXTENSION)
+                && !name.equals(journal.getName()));
+        if (staleJournals != null) {
+            Arrays.stream(staleJournals).forEach(File::delete);
+        }
+        try {
+            uploadJournal.open(journal);
+        } catch (IOException e) {
+            log.error("could not open upload journal {}, uploading without it", journal, e);
+        }
+    }
+
+    /**
+     * Writes the diff to a change set file and releases the diff and the snapshot maps it pins.
+     * The loaded maps are kept only when the next snapshot is a full ser file.
+     */
+    private void writeChangeSet() {
+        File file = changeSetFile(latestExtract);
+        // a change set found at startup is complete : it is only renamed once written
+        File partialFile = new File(filesDirectory, file.getName() + PARTIAL_EXTENSION);
+        try {
+            ChangeSetFile.write(psDiff, structureDiff, SnapshotCompression.fromValue(changeSetCompression), 1, partialFile);
+            Files.move(partialFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            log.error("could not write change set {}, changes are kept in memory", file, e);
+            partialFile.delete();
+            return;
+        }
+        log.info("changes written to {}", file.getName());
+        useChangeSet(file);
+    }
+
+    private void useChangeSet(File file) {
+        changeSet = file;
+        psDiff = null;
+        structureDiff = null;
+        serializer.releaseMaps();
+        if (serializer.isDeltaAppendable()) {
+            loader.releaseMaps();
+        }
+    }
+
+    private void serialiseChangeSetDelta(String fileName) throws IOException {
+        HashMap<String, Professionnel> psUpserts = new HashMap<>();
+        ArrayList<String> psDeletes = new ArrayList<>();
+        HashMap<String, Structure> structureUpserts = new HashMap<>();
+        ArrayList<String> structureDeletes = new ArrayList<>();
+        try (ChangeSetFile changes = ChangeSetFile.open(changeSet)) {
+            changes.readPs(new StreamingDiff.Handler<>() {
+                @Override
+                public void onDelete(Professionnel ps) {
+                    psDeletes.add(ps.getNationalId());
+                }
+
+                @Override
+                public void onCreate(Professionnel ps) {
+                    psUpserts.put(ps.getNationalId(), ps);
+                }
+
+                @Override
+                public void onUpdate(Professionnel left, Professionnel right) {
+                    psUpserts.put(right.getNationalId(), right);
+                }
+            });
+            changes.readStructures(new StreamingDiff.Handler<>() {
+                @Override
+                public void onDelete(Structure structure) {
+                    structureDeletes.add(structure.getStructureId());
+                }
+
+                @Override
+                public void onCreate(Structure structure) {
+                    structureUpserts.put(structure.getStructureId(), structure);
+                }
+
+                @Override
+                public void onUpdate(Structure left, Structure right) {
+                    structureUpserts.put(right.getStructureId(), right);
+                }
+            });
+        }
+        serializer.serialiseDeltaToFile(psUpserts, psDeletes, structureUpserts, structureDeletes, fileName);
+    }
+
+    private File changeSetFile(File extract) {
+        return new File(filesDirectory, FilesUtils.getDateStringFromFileName(extract) + ChangeSetFile.EXTENSION);
+    }
+
+    private void deleteChangeSet() {
+        // change sets of older runs are stale as well
+        File[] changeSets = new File(filesDirectory).listFiles((dir, name) -> name.endsWith(ChangeSetFile.EXTENSION));
+        if (changeSets != null) {
+            Arrays.stream(changeSets).forEach(File::delete);
+        }
+        changeSet = null;
+    }
+
+    private boolean isSortedSnapshotUsable(Map<String, File> latestFiles) {
+        File latestSrt = latestFiles.get("srt");
+        File latestSer = latestFiles.get("ser");
+        return latestSrt != null && (latestSer == null || FilesUtils.compare(latestSrt, latestSer) >= 0);
+    }
+
+    private File createSortedFile() throws IOException {
+        return File.createTempFile(ExtractSorter.CHUNK_PREFIX, SORTED_EXTENSION, new File(filesDirectory));
+    }
+
+    private void deleteSortedFiles() {
+        for (File file : Arrays.asList(sortedExtract, sortedExtractStructures, sortedSnapshotStructures)) {
+            if (file != null) {
+                file.delete();
+            }
+        }
+        sortedExtract = null;
+        sortedExtractStructures = null;
+        sortedSnapshotStructures = null;
+    }
+
     private boolean isAtStage(ProcessStep stage) {
         return customMetrics.getAppMiscGauges().get(CustomMetrics.MiscCustomMetric.STAGE).get() == stage.value;
     }
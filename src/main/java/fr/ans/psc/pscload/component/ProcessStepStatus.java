@@ -12,6 +12,7 @@ public enum ProcessStepStatus {
     PSCEXTRACT_ENDPOINT_FAILURE("Error during pscextract endpoint call"),
     FILE_READING_ERROR("Error during file reading"),
     ABORT("Upload changes process still running, launch aborted"),
+    UPLOAD_CHANGES_ABORTED("Upload changes failed, the next run resumes it"),
     DELAYED("Toggle running... Operation delayed and rescheduled");
 
     public String message;
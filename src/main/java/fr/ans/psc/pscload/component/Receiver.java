@@ -2,6 +2,7 @@ package fr.ans.psc.pscload.component;
 
 import fr.ans.psc.pscload.service.PscRestApi;
 import fr.ans.psc.pscload.service.task.Update;
+import okhttp3.OkHttpClient;
 import org.springframework.amqp.rabbit.annotation.RabbitHandler;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -19,12 +20,15 @@ public class Receiver {
     @Autowired
     private JsonFormatter jsonFormatter;
 
+    @Autowired
+    private OkHttpClient httpClient;
+
     private final CountDownLatch latch = new CountDownLatch(1);
 
     @RabbitHandler
     public void receiveMessage(String message) {
-        new Update(pscRestApi.getPsUrl(), jsonFormatter.psFromMessage(message)).send();
-        new Update(pscRestApi.getStructureUrl(), jsonFormatter.structureFromMessage(message)).send();
+        new Update(httpClient, pscRestApi.getPsUrl(), jsonFormatter.psFromMessage(message)).send();
+        new Update(httpClient, pscRestApi.getStructureUrl(), jsonFormatter.structureFromMessage(message)).send();
         latch.countDown();
     }
 
@@ -57,9 +57,13 @@ public class Scheduler {
                     log.info("Relaunching process after previous unexpected interruption");
                     emailService.sendMail(EmailNature.PROCESS_RELAUNCHED, FilesUtils.getLatestExtAndSer(filesDirectory));
                 }
+                if (autoContinue && process.isPipelined()) {
+                    return process.runPipelined();
+                }
                 currentStep = process.runFirst();
 
-                if (autoContinue && currentStep == ProcessStepStatus.CONTINUE) {
+                // an upload interrupted midway had already been let through, it is resumed without waiting for a continue
+                if ((autoContinue || process.hasInterruptedUpload()) && currentStep == ProcessStepStatus.CONTINUE) {
                     currentStep = process.runContinue();
                 }
             }
@@ -135,12 +135,23 @@ public class FilesUtils {
         List<File> listOfZips = filesMap.get("zips");
         List<File> listOfExtracts = filesMap.get("txts");
         List<File> listOfSers = filesMap.get("sers");
+        List<File> listOfSrts = filesMap.get("srts");
+        List<File> listOfFpis = filesMap.get("fpis");
+        List<File> listOfDlts = filesMap.get("dlts");
 
         // Order files lists from oldest to newest by comparing parsed dates,
         // but honestly same result if we had used file name String to compare
         listOfZips.sort(FilesUtils::compare);
         listOfExtracts.sort(FilesUtils::compare);
         listOfSers.sort(FilesUtils::compare);
+        listOfSrts.sort(FilesUtils::compare);
+        listOfFpis.sort(FilesUtils::compare);
+
+        // deltas newer than the latest ser file are applied on it, older ones were compacted into it
+        if (listOfSers.size() > 0) {
+            File latestSer = listOfSers.get(listOfSers.size() - 1);
+            listOfDlts.removeIf(delta -> compare(delta, latestSer) > 0);
+        }
 
         if (listOfZips.size() > 0) {
             listOfZips.remove(listOfZips.size() -1);
@@ -151,6 +162,12 @@ public class FilesUtils {
         if (listOfSers.size() > 0) {
             listOfSers.remove(listOfSers.size() -1);
         }
+        if (listOfSrts.size() > 0) {
+            listOfSrts.remove(listOfSrts.size() -1);
+        }
+        if (listOfFpis.size() > 0) {
+            listOfFpis.remove(listOfFpis.size() -1);
+        }
 
         for (File file : listOfZips) {
             file.delete();
@@ -161,24 +178,35 @@ public class FilesUtils {
         for (File file : listOfSers) {
             file.delete();
         }
+        for (File file : listOfSrts) {
+            file.delete();
+        }
+        for (File file : listOfFpis) {
+            file.delete();
+        }
+        for (File file : listOfDlts) {
+            file.delete();
+        }
     }
 
     /**
      * Gets latest extract and ser.
      *
      * @param filesDirectory the files directory
-     * @return the latest ext and ser files as map, null value if file doesnt exist
+     * @return the latest ext, ser and sorted snapshot files as map, null value if file doesnt exist
      */
     public static Map<String, File> getLatestExtAndSer(String filesDirectory) {
         Map<String, List<File>> filesMap = zipsTextsNSers(new File(filesDirectory).listFiles());
 
         List<File> listOfExtracts = filesMap.get("txts");
         List<File> listOfSers = filesMap.get("sers");
+        List<File> listOfSrts = filesMap.get("srts");
 
         // Order files lists from oldest to newest by comparing parsed dates,
         // but honestly same result if we had used file name String to compare
         listOfExtracts.sort(FilesUtils::compare);
         listOfSers.sort(FilesUtils::compare);
+        listOfSrts.sort(FilesUtils::compare);
 
         Map<String, File> latestFiles = new HashMap<>();
 
@@ -194,9 +222,32 @@ public class FilesUtils {
             latestFiles.put("ser", listOfSers.get(listOfSers.size() -1));
         }
 
+        if (listOfSrts.isEmpty()) {
+            latestFiles.put("srt", null);
+        } else {
+            latestFiles.put("srt", listOfSrts.get(listOfSrts.size() -1));
+        }
+
         return latestFiles;
     }
 
+    /**
+     * Gets the delta files to apply on a ser file, oldest first.
+     *
+     * @param filesDirectory the files directory
+     * @param serFile        the ser file, null if there is none
+     * @return the deltas newer than the ser file
+     */
+    public static List<File> getDeltasAfter(String filesDirectory, File serFile) {
+        List<File> listOfDlts = zipsTextsNSers(new File(filesDirectory).listFiles()).get("dlts");
+        if (serFile == null) {
+            return new ArrayList<>();
+        }
+        listOfDlts.removeIf(delta -> compare(delta, serFile) <= 0);
+        listOfDlts.sort(FilesUtils::compare);
+        return listOfDlts;
+    }
+
     /**
      * Zips and texts map.
      *
@@ -208,10 +259,19 @@ public class FilesUtils {
         filesMap.put("zips", new ArrayList<>());
         filesMap.put("txts", new ArrayList<>());
         filesMap.put("sers", new ArrayList<>());
+        filesMap.put("srts", new ArrayList<>());
+        filesMap.put("fpis", new ArrayList<>());
+        filesMap.put("dlts", new ArrayList<>());
 
         for (File file : listOfFiles != null ? listOfFiles : new File[0]) {
             if (file.getName().endsWith(".ser")) {
                 filesMap.get("sers").add(file);
+            } else if (file.getName().endsWith(".srt")) {
+                filesMap.get("srts").add(file);
+            } else if (file.getName().endsWith(".fpi")) {
+                filesMap.get("fpis").add(file);
+            } else if (file.getName().endsWith(".dlt")) {
+                filesMap.get("dlts").add(file);
             } else if (file.getName().endsWith(".zip")) {
                 filesMap.get("zips").add(file);
             } else if (file.getName().endsWith(".txt")) {
@@ -221,7 +281,14 @@ public class FilesUtils {
         return filesMap;
     }
 
-    private static int compare(File f1, File f2) {
+    /**
+     * Compare files by the date in their names.
+     *
+     * @param f1 the first file
+     * @param f2 the second file
+     * @return the comparison of their dates
+     */
+    public static int compare(File f1, File f2) {
         try {
             return getDateFromFileName(f1).compareTo(getDateFromFileName(f2));
         } catch (ParseException e) {
@@ -258,7 +325,17 @@ public class FilesUtils {
         Map<String,File> latestTxtAndSer = getLatestExtAndSer(filesDirectory);
         File latestTxt = latestTxtAndSer.get("txt");
         File latestSer = latestTxtAndSer.get("ser");
+        File latestSrt = latestTxtAndSer.get("srt");
+        List<File> deltas = getDeltasAfter(filesDirectory, latestSer);
 
+        // the latest delta holds the state of the latest run
+        if (!deltas.isEmpty()) {
+            latestSer = deltas.get(deltas.size() - 1);
+        }
+        // a streaming diff run only leaves a sorted snapshot behind
+        if (latestSrt != null && (latestSer == null || compare(latestSrt, latestSer) > 0)) {
+            latestSer = latestSrt;
+        }
         return compare(latestTxt, latestSer) == 0;
     }
 
@@ -0,0 +1,56 @@
+package fr.ans.psc.pscload.config;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The type Http client config.
+ * Provides the single OkHttpClient shared by every task and api call, so connections and dispatcher threads are reused.
+ */
+@Configuration
+public class HttpClientConfig {
+
+    @Value("${http.client.max.idle.connections:32}")
+    private int maxIdleConnections;
+
+    @Value("${http.client.keep.alive.duration:300}")
+    private long keepAliveDuration;
+
+    @Value("${http.client.max.requests:64}")
+    private int maxRequests;
+
+    @Value("${http.client.max.requests.per.host:32}")
+    private int maxRequestsPerHost;
+
+    @Value("${http.client.connect.timeout:10}")
+    private long connectTimeout;
+
+    @Value("${http.client.read.timeout:60}")
+    private long readTimeout;
+
+    /**
+     * Http client.
+     *
+     * @return the shared ok http client
+     */
+    @Bean
+    public OkHttpClient httpClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveDuration, TimeUnit.SECONDS))
+                .dispatcher(dispatcher)
+                .connectTimeout(connectTimeout, TimeUnit.SECONDS)
+                .readTimeout(readTimeout, TimeUnit.SECONDS)
+                .writeTimeout(readTimeout, TimeUnit.SECONDS)
+                .build();
+    }
+}
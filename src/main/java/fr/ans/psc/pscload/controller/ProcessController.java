@@ -278,6 +278,11 @@ class ProcessController {
             if (step == ProcessStepStatus.DIFF_NOT_COMPUTED) {
                 return mav;
             }
+            if (step == ProcessStepStatus.UPLOAD_CHANGES_ABORTED) {
+                mav.addObject("message", step.message);
+                mav.setStatus(HttpStatus.INTERNAL_SERVER_ERROR);
+                return mav;
+            }
             FilesUtils.cleanup(filesDirectory);
             log.info("uploading changes finished");
 
@@ -295,9 +300,14 @@ class ProcessController {
     public ModelAndView runFullProcess() {
         log.info("running full process");
         ModelAndView mav = initializeMAV("Le process complet s'est déroulé convenablement. Les changements du jour ont bien été chargés.");
-        ProcessStepStatus currentStepStatus = process.runFirst();
-        if (currentStepStatus != ProcessStepStatus.ABORT) {
-            currentStepStatus = process.runContinue();
+        ProcessStepStatus currentStepStatus;
+        if (process.isPipelined()) {
+            currentStepStatus = process.runPipelined();
+        } else {
+            currentStepStatus = process.runFirst();
+            if (currentStepStatus != ProcessStepStatus.ABORT) {
+                currentStepStatus = process.runContinue();
+            }
         }
         mav.addObject("step", currentStepStatus);
         return mav;
@@ -311,7 +321,10 @@ class ProcessController {
 
         currentStepStatus = process.runContinue();
 
-        if (currentStepStatus != ProcessStepStatus.ABORT) {
+        if (currentStepStatus == ProcessStepStatus.UPLOAD_CHANGES_ABORTED) {
+            mav = initializeMAV(currentStepStatus.message);
+            mav.setStatus(HttpStatus.INTERNAL_SERVER_ERROR);
+        } else if (currentStepStatus != ProcessStepStatus.ABORT) {
             mav = initializeMAV("Les changements du jour ont bien été chargés après reprise du process.");
         } else {
             mav = initializeMAV(currentStepStatus.message);
@@ -0,0 +1,189 @@
+package fr.ans.psc.pscload.mapper;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.google.common.collect.MapDifference;
+import fr.ans.psc.pscload.model.Professionnel;
+import fr.ans.psc.pscload.model.Structure;
+import fr.ans.psc.pscload.service.StreamingDiff;
+import fr.ans.psc.pscload.snapshot.SnapshotCompression;
+
+import java.io.*;
+
+/**
+ * The type Change set file.
+ * The changes of a diff written as a stream of records, read back one record at a time so that the upload
+ * holds neither snapshot in memory.
+ * <pre>
+ * header     : magic, version, then the compressed kryo stream
+ * ps         : ps count, records (kind, original and / or revised ps)
+ * structures : structure count, records (kind, original and / or revised structure)
+ * </pre>
+ * Records are written with the model serializers, an update carries both sides for the sub-entity diff.
+ */
+public class ChangeSetFile implements Closeable {
+
+    /**
+     * The change set file extension.
+     */
+    public static final String EXTENSION = ".chg";
+
+    private static final int MAGIC = 0x50534348;
+
+    private static final int VERSION = 1;
+
+    private static final byte DELETE = 0;
+
+    private static final byte CREATE = 1;
+
+    private static final byte UPDATE = 2;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Kryo kryo = kryo();
+
+    private final Input input;
+
+    private final File file;
+
+    private int psCount = -1;
+
+    private int structureCount = -1;
+
+    private ChangeSetFile(File file, Input input) {
+        this.file = file;
+        this.input = input;
+    }
+
+    /**
+     * Write the changes of a diff.
+     *
+     * @param psDiff           the ps diff
+     * @param structureDiff    the structure diff
+     * @param compression      the compression of the record stream
+     * @param compressionLevel the compression level
+     * @param file             the file
+     * @throws IOException the io exception
+     */
+    public static void write(MapDifference<String, Professionnel> psDiff, MapDifference<String, Structure> structureDiff,
+                             SnapshotCompression compression, int compressionLevel, File file) throws IOException {
+        Kryo kryo = kryo();
+        FileOutputStream fileOut = new FileOutputStream(file);
+        try {
+            DataOutputStream header = new DataOutputStream(fileOut);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+        } catch (IOException e) {
+            fileOut.close();
+            throw e;
+        }
+        try (Output output = new Output(compression.compress(fileOut, compressionLevel), BUFFER_SIZE)) {
+            writeRecords(kryo, output, psDiff);
+            writeRecords(kryo, output, structureDiff);
+        }
+    }
+
+    /**
+     * Open a change set file, the ps records are read first then the structure records.
+     *
+     * @param file the file
+     * @return the change set file
+     * @throws IOException the io exception
+     */
+    public static ChangeSetFile open(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            DataInputStream header = new DataInputStream(in);
+            if (header.readInt() != MAGIC || header.readInt() != VERSION) {
+                throw new IOException("Unsupported change set file " + file.getName());
+            }
+            return new ChangeSetFile(file, new Input(SnapshotCompression.decompress(in), BUFFER_SIZE));
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the ps records.
+     *
+     * @param handler the handler receiving each change
+     * @return the count of ps records
+     */
+    public int readPs(StreamingDiff.Handler<Professionnel> handler) {
+        if (psCount >= 0) {
+            throw new IllegalStateException("ps records of " + file.getName() + " already read");
+        }
+        psCount = readRecords(Professionnel.class, handler);
+        return psCount;
+    }
+
+    /**
+     * Read the structure records, after the ps records.
+     *
+     * @param handler the handler receiving each change
+     * @return the count of structure records
+     */
+    public int readStructures(StreamingDiff.Handler<Structure> handler) {
+        if (psCount < 0) {
+            throw new IllegalStateException("ps records of " + file.getName() + " must be read first");
+        }
+        if (structureCount >= 0) {
+            throw new IllegalStateException("structure records of " + file.getName() + " already read");
+        }
+        structureCount = readRecords(Structure.class, handler);
+        return structureCount;
+    }
+
+    @Override
+    public void close() {
+        input.close();
+    }
+
+    private static <T> void writeRecords(Kryo kryo, Output output, MapDifference<String, T> diff) {
+        output.writeVarInt(diff.entriesOnlyOnLeft().size() + diff.entriesOnlyOnRight().size()
+                + diff.entriesDiffering().size(), true);
+        for (T original : diff.entriesOnlyOnLeft().values()) {
+            output.writeByte(DELETE);
+            kryo.writeObject(output, original);
+        }
+        for (T revised : diff.entriesOnlyOnRight().values()) {
+            output.writeByte(CREATE);
+            kryo.writeObject(output, revised);
+        }
+        for (MapDifference.ValueDifference<T> values : diff.entriesDiffering().values()) {
+            output.writeByte(UPDATE);
+            kryo.writeObject(output, values.leftValue());
+            kryo.writeObject(output, values.rightValue());
+        }
+    }
+
+    private <T> int readRecords(Class<T> type, StreamingDiff.Handler<T> handler) {
+        int count = input.readVarInt(true);
+        for (int record = 0; record < count; record++) {
+            byte kind = input.readByte();
+            switch (kind) {
+                case DELETE:
+                    handler.onDelete(kryo.readObject(input, type));
+                    break;
+                case CREATE:
+                    handler.onCreate(kryo.readObject(input, type));
+                    break;
+                case UPDATE:
+                    T original = kryo.readObject(input, type);
+                    handler.onUpdate(original, kryo.readObject(input, type));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown change record " + kind + " in " + file.getName());
+            }
+        }
+        return count;
+    }
+
+    private static Kryo kryo() {
+        Kryo kryo = new Kryo();
+        ModelSerializers.register(kryo, 11);
+        return kryo;
+    }
+}
@@ -0,0 +1,196 @@
+package fr.ans.psc.pscload.mapper;
+
+import com.univocity.parsers.csv.CsvParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The type Extract sorter.
+ * External merge sort of extract rows by a key column : rows are sorted in chunks of bounded size,
+ * spilled to disk, then merged into a single UTF-8 file without header.
+ * The sort is stable, rows sharing a key keep their order from the source file.
+ * Chunks are temporary files of length-prefixed UTF-8 rows, deleted once merged or when the sort fails.
+ */
+@Component
+public class ExtractSorter {
+
+    private static final Logger log = LoggerFactory.getLogger(ExtractSorter.class);
+
+    public static final int NATIONAL_ID_COLUMN = 2;
+
+    public static final int STRUCTURE_ID_COLUMN = 28;
+
+    /**
+     * The prefix of the chunk files.
+     */
+    public static final String CHUNK_PREFIX = "pscload";
+
+    /**
+     * The chunk file extension.
+     */
+    public static final String CHUNK_EXTENSION = ".chunk";
+
+    @Value("${diff.sort.chunk.size:200000}")
+    private int chunkSize;
+
+    /**
+     * Sort the rows of a raw extract, detecting its charset and skipping its header.
+     *
+     * @param extract   the extract
+     * @param keyColumn the key column
+     * @param target    the sorted file
+     * @throws IOException the io exception
+     */
+    public void sortExtract(File extract, int keyColumn, File target) throws IOException {
+        sort(extract, MappedExtractReader.detectCharset(extract), true, keyColumn, target);
+    }
+
+    /**
+     * Sort the rows of an already sorted file by another key column.
+     *
+     * @param sortedFile the sorted file
+     * @param keyColumn  the key column
+     * @param target     the sorted file
+     * @throws IOException the io exception
+     */
+    public void resort(File sortedFile, int keyColumn, File target) throws IOException {
+        sort(sortedFile, StandardCharsets.UTF_8, false, keyColumn, target);
+    }
+
+    private void sort(File source, Charset charset, boolean skipHeader, int keyColumn, File target) throws IOException {
+        log.info("sorting {} by column {}", source.getName(), keyColumn);
+        CsvParser parser = SortedExtractReader.newRowParser();
+        List<File> chunks = new ArrayList<>();
+        try {
+            try (BufferedReader reader = Files.newBufferedReader(source.toPath(), charset)) {
+                if (skipHeader) {
+                    reader.readLine();
+                }
+                List<String[]> chunk = new ArrayList<>();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    String[] items = parser.parseLine(line);
+                    if (items == null) {
+                        // comment line
+                        continue;
+                    }
+                    String key = items.length > keyColumn && items[keyColumn] != null ? items[keyColumn] : "";
+                    chunk.add(new String[]{key, line});
+                    if (chunk.size() == chunkSize) {
+                        chunks.add(writeChunk(chunk, target.getParentFile()));
+                        chunk.clear();
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    chunks.add(writeChunk(chunk, target.getParentFile()));
+                }
+            }
+            merge(chunks, target);
+        } finally {
+            chunks.forEach(File::delete);
+        }
+        log.info("sorting complete!");
+    }
+
+    private File writeChunk(List<String[]> chunk, File directory) throws IOException {
+        // List.sort is stable : rows sharing a key keep their file order
+        chunk.sort(Comparator.comparing(row -> row[0]));
+        File chunkFile = File.createTempFile(CHUNK_PREFIX, CHUNK_EXTENSION, directory);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(chunkFile)))) {
+            for (String[] row : chunk) {
+                // writeUTF is limited to 64KB per string, rows are written as length-prefixed bytes
+                writeString(out, row[0]);
+                writeString(out, row[1]);
+            }
+        } catch (IOException e) {
+            chunkFile.delete();
+            throw e;
+        }
+        return chunkFile;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void merge(List<File> chunks, File target) throws IOException {
+        // ties are broken by chunk index so that the merge stays stable
+        PriorityQueue<ChunkCursor> cursors = new PriorityQueue<>(
+                Comparator.comparing((ChunkCursor cursor) -> cursor.key).thenComparingInt(cursor -> cursor.index));
+        try (BufferedWriter writer = Files.newBufferedWriter(target.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < chunks.size(); i++) {
+                ChunkCursor cursor = new ChunkCursor(chunks.get(i), i);
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                } else {
+                    cursor.close();
+                }
+            }
+            while (!cursors.isEmpty()) {
+                ChunkCursor cursor = cursors.poll();
+                writer.write(cursor.line);
+                writer.newLine();
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                } else {
+                    cursor.close();
+                }
+            }
+        } finally {
+            for (ChunkCursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+
+    private static class ChunkCursor implements Closeable {
+        private final DataInputStream in;
+        private final int index;
+        private String key;
+        private String line;
+
+        ChunkCursor(File chunk, int index) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(chunk)));
+            this.index = index;
+        }
+
+        boolean advance() throws IOException {
+            int keyLength;
+            try {
+                keyLength = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            key = readString(keyLength);
+            line = readString(in.readInt());
+            return true;
+        }
+
+        private String readString(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package fr.ans.psc.pscload.mapper;
+
+import fr.ans.psc.pscload.model.Professionnel;
+import fr.ans.psc.pscload.model.PsFingerprint;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The type Fingerprint index.
+ * Content fingerprints of a ps map, keyed by nationalId, persisted next to the ser file.
+ */
+public class FingerprintIndex {
+
+    private static final int VERSION = 1;
+
+    private final Map<String, PsFingerprint> fingerprints;
+
+    private final Function<String, PsFingerprint> lookup;
+
+    private final int size;
+
+    private FingerprintIndex(Map<String, PsFingerprint> fingerprints) {
+        this.fingerprints = fingerprints;
+        this.lookup = fingerprints::get;
+        this.size = fingerprints.size();
+    }
+
+    private FingerprintIndex(int size, Function<String, PsFingerprint> lookup) {
+        this.fingerprints = null;
+        this.lookup = lookup;
+        this.size = size;
+    }
+
+    /**
+     * Index over fingerprints stored elsewhere, such an index cannot be written.
+     *
+     * @param size   the number of fingerprints
+     * @param lookup the fingerprint of a nationalId, null if absent
+     * @return the fingerprint index
+     */
+    public static FingerprintIndex view(int size, Function<String, PsFingerprint> lookup) {
+        return new FingerprintIndex(size, lookup);
+    }
+
+    /**
+     * Compute the index of a ps map.
+     *
+     * @param psMap the ps map
+     * @return the fingerprint index
+     */
+    public static FingerprintIndex of(Map<String, Professionnel> psMap) {
+        Map<String, PsFingerprint> fingerprints = new HashMap<>(psMap.size() * 4 / 3 + 1);
+        psMap.forEach((id, ps) -> fingerprints.put(id, PsFingerprint.of(ps)));
+        return new FingerprintIndex(fingerprints);
+    }
+
+    /**
+     * Get the fingerprint of a ps.
+     *
+     * @param nationalId the national id
+     * @return the fingerprint, null if the ps is not indexed
+     */
+    public PsFingerprint get(String nationalId) {
+        return lookup.apply(nationalId);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Tells if a ps has the same content in two indexes.
+     *
+     * @param nationalId the national id
+     * @param other      the other index
+     * @return true if both fingerprints are known and match
+     */
+    public boolean sameContent(String nationalId, FingerprintIndex other) {
+        PsFingerprint fingerprint = get(nationalId);
+        return fingerprint != null && fingerprint.sameContent(other.get(nationalId));
+    }
+
+    /**
+     * Write the index to a file.
+     *
+     * @param file the file
+     * @throws IOException the io exception
+     */
+    public void writeTo(File file) throws IOException {
+        if (fingerprints == null) {
+            throw new IOException("Fingerprint index views cannot be written");
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(VERSION);
+            out.writeInt(fingerprints.size());
+            for (Map.Entry<String, PsFingerprint> entry : fingerprints.entrySet()) {
+                PsFingerprint fingerprint = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(fingerprint.getHigh());
+                out.writeLong(fingerprint.getLow());
+                String[] professionIds = fingerprint.getProfessionIds();
+                long[] professionDigests = fingerprint.getProfessionDigests();
+                out.writeInt(professionIds.length);
+                for (int i = 0; i < professionIds.length; i++) {
+                    out.writeUTF(professionIds[i]);
+                    out.writeLong(professionDigests[2 * i]);
+                    out.writeLong(professionDigests[2 * i + 1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read an index from a file.
+     *
+     * @param file the file
+     * @return the fingerprint index
+     * @throws IOException the io exception, also thrown on unknown versions
+     */
+    public static FingerprintIndex readFrom(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported fingerprint index version " + version);
+            }
+            int size = in.readInt();
+            Map<String, PsFingerprint> fingerprints = new HashMap<>(size * 4 / 3 + 1);
+            for (int n = 0; n < size; n++) {
+                String nationalId = in.readUTF();
+                long high = in.readLong();
+                long low = in.readLong();
+                int professionCount = in.readInt();
+                String[] professionIds = new String[professionCount];
+                long[] professionDigests = new long[professionCount * 2];
+                for (int i = 0; i < professionCount; i++) {
+                    professionIds[i] = in.readUTF();
+                    professionDigests[2 * i] = in.readLong();
+                    professionDigests[2 * i + 1] = in.readLong();
+                }
+                fingerprints.put(nationalId, new PsFingerprint(high, low, professionIds, professionDigests));
+            }
+            return new FingerprintIndex(fingerprints);
+        }
+    }
+
+}
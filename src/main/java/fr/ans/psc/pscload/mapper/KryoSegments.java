@@ -0,0 +1,239 @@
+package fr.ans.psc.pscload.mapper;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.Pool;
+import fr.ans.psc.pscload.model.Professionnel;
+import fr.ans.psc.pscload.model.Structure;
+import fr.ans.psc.pscload.snapshot.Snapshot;
+import fr.ans.psc.pscload.snapshot.SnapshotCompression;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The type Kryo segments.
+ * Writes the snapshot maps as independent kryo segments encoded in parallel, and reads them back in parallel.
+ * <pre>
+ * header   : magic, version, ps count, structure count
+ * segments : kind, length, then the segment compressed on its own : entry count and entries (key, value)
+ * end      : kind END
+ * </pre>
+ * Segments are written in order as they are encoded, at most two per thread are held in memory.
+ */
+public class KryoSegments {
+
+    private static final int MAGIC = 0x50534B53;
+
+    // version 1 segments were written with the reflective field serializers
+    private static final int LEGACY_VERSION = 1;
+
+    private static final int VERSION = 2;
+
+    private static final byte PS_SEGMENT = 0;
+
+    private static final byte STRUCTURE_SEGMENT = 1;
+
+    private static final byte END = -1;
+
+    private final Pool<Kryo> kryoPool;
+
+    private final Pool<Kryo> legacyKryoPool;
+
+    private final ExecutorService executor;
+
+    private final int parallelism;
+
+    private final int segmentSize;
+
+    private final int bufferSize;
+
+    /**
+     * Instantiates new Kryo segments.
+     *
+     * @param kryoPool       the kryo pool
+     * @param legacyKryoPool the kryo pool reading version 1 segments
+     * @param executor       the executor encoding and decoding segments
+     * @param parallelism    the number of executor threads
+     * @param segmentSize    the number of entries per segment
+     * @param bufferSize     the kryo and file buffer size
+     */
+    public KryoSegments(Pool<Kryo> kryoPool, Pool<Kryo> legacyKryoPool, ExecutorService executor, int parallelism,
+                        int segmentSize, int bufferSize) {
+        this.kryoPool = kryoPool;
+        this.legacyKryoPool = legacyKryoPool;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.segmentSize = segmentSize;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Tells if a file is in this format.
+     *
+     * @param file the file
+     * @return true if the file starts with the segments magic number
+     * @throws IOException the io exception
+     */
+    public static boolean isSegmentFile(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return file.length() >= 4 && in.readInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Write the maps in segments.
+     *
+     * @param psMap            the ps map
+     * @param structureMap     the structure map
+     * @param compression      the compression of each segment
+     * @param compressionLevel the compression level
+     * @param file             the file
+     * @throws IOException the io exception
+     */
+    public void write(Map<String, Professionnel> psMap, Map<String, Structure> structureMap,
+                      SnapshotCompression compression, int compressionLevel, File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), bufferSize))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(psMap.size());
+            out.writeInt(structureMap.size());
+            writeSegments(PS_SEGMENT, psMap, compression, compressionLevel, out);
+            writeSegments(STRUCTURE_SEGMENT, structureMap, compression, compressionLevel, out);
+            out.writeByte(END);
+        }
+    }
+
+    /**
+     * Read the maps of a segment file.
+     *
+     * @param file the file
+     * @return the snapshot of the maps read
+     * @throws IOException the io exception
+     */
+    public Snapshot read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), bufferSize))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version != VERSION && version != LEGACY_VERSION) {
+                throw new IOException("Unsupported segment file " + file.getName());
+            }
+            Pool<Kryo> pool = version == VERSION ? kryoPool : legacyKryoPool;
+            Map<String, Professionnel> ps = new HashMap<>(capacity(in.readInt()));
+            Map<String, Structure> structures = new HashMap<>(capacity(in.readInt()));
+
+            Deque<Future<Segment>> pending = new ArrayDeque<>();
+            byte kind;
+            while ((kind = in.readByte()) != END) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                byte segmentKind = kind;
+                pending.add(executor.submit(() -> decode(pool, segmentKind, bytes)));
+                if (pending.size() >= parallelism * 2) {
+                    merge(await(pending.poll()), ps, structures);
+                }
+            }
+            while (!pending.isEmpty()) {
+                merge(await(pending.poll()), ps, structures);
+            }
+            return Snapshot.of(ps, structures);
+        }
+    }
+
+    private <V> void writeSegments(byte kind, Map<String, V> map, SnapshotCompression compression, int compressionLevel,
+                                   DataOutputStream out) throws IOException {
+        String[] keys = map.keySet().toArray(new String[0]);
+        Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        for (int from = 0; from < keys.length; from += segmentSize) {
+            String[] segmentKeys = Arrays.copyOfRange(keys, from, Math.min(keys.length, from + segmentSize));
+            pending.add(executor.submit(() -> encode(segmentKeys, map, compression, compressionLevel)));
+            if (pending.size() >= parallelism * 2) {
+                writeSegment(kind, await(pending.poll()), out);
+            }
+        }
+        while (!pending.isEmpty()) {
+            writeSegment(kind, await(pending.poll()), out);
+        }
+    }
+
+    private static void writeSegment(byte kind, byte[] bytes, DataOutputStream out) throws IOException {
+        out.writeByte(kind);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private <V> byte[] encode(String[] keys, Map<String, V> map, SnapshotCompression compression, int compressionLevel)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(bufferSize);
+        Kryo kryo = kryoPool.obtain();
+        try (Output output = new Output(compression.compress(bytes, compressionLevel), bufferSize)) {
+            output.writeVarInt(keys.length, true);
+            for (String key : keys) {
+                output.writeString(key);
+                kryo.writeObject(output, map.get(key));
+            }
+        } finally {
+            kryoPool.free(kryo);
+        }
+        return bytes.toByteArray();
+    }
+
+    private Segment decode(Pool<Kryo> pool, byte kind, byte[] bytes) throws IOException {
+        Class<?> type = kind == PS_SEGMENT ? Professionnel.class : Structure.class;
+        Kryo kryo = pool.obtain();
+        try (Input input = new Input(SnapshotCompression.decompress(new ByteArrayInputStream(bytes)), bufferSize)) {
+            int count = input.readVarInt(true);
+            Map<String, Object> entries = new HashMap<>(capacity(count));
+            for (int i = 0; i < count; i++) {
+                String key = input.readString();
+                entries.put(key, kryo.readObject(input, type));
+            }
+            return new Segment(kind, entries);
+        } finally {
+            pool.free(kryo);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void merge(Segment segment, Map<String, Professionnel> psMap, Map<String, Structure> structureMap) {
+        if (segment.kind == PS_SEGMENT) {
+            psMap.putAll((Map<String, Professionnel>) (Map<String, ?>) segment.entries);
+        } else {
+            structureMap.putAll((Map<String, Structure>) (Map<String, ?>) segment.entries);
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Segment coding interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Segment coding failed", e.getCause());
+        }
+    }
+
+    private static int capacity(int size) {
+        return size * 4 / 3 + 1;
+    }
+
+    private static class Segment {
+
+        private final byte kind;
+
+        private final Map<String, Object> entries;
+
+        private Segment(byte kind, Map<String, Object> entries) {
+            this.kind = kind;
+            this.entries = entries;
+        }
+    }
+}
@@ -6,18 +6,27 @@ import com.univocity.parsers.csv.CsvParser;
 import com.univocity.parsers.csv.CsvParserSettings;
 import fr.ans.psc.pscload.metrics.CustomMetrics;
 import fr.ans.psc.pscload.model.*;
+import fr.ans.psc.pscload.snapshot.Snapshot;
+import fr.ans.psc.pscload.snapshot.SnapshotStore;
 import org.apache.any23.encoding.TikaEncodingDetector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @Component
 public class Loader {
@@ -31,67 +40,185 @@ public class Loader {
 
     private static final int TOGGLE_ROW_LENGTH = 2;
 
-    private final Map<String, Professionnel> psMap = new HashMap<>();
+    @Value("${extract.load.parallelism:1}")
+    private int parallelism;
 
-    private final Map<String, Structure> structureMap = new HashMap<>();
+    private Map<String, Professionnel> psMap = new HashMap<>();
+
+    private Map<String, Structure> structureMap = new HashMap<>();
 
     private final Map<String, PsRef> psRefCreateMap = new HashMap<>();
 
+    private FingerprintIndex fingerprintIndex;
+
     @Autowired
     private CustomMetrics customMetrics;
 
-    public void loadMapsFromFile(File file) throws IOException {
-        log.info("loading {} into list of Ps", file.getName());
-        psMap.clear();
-        structureMap.clear();
-        // ObjectRowProcessor converts the parsed values and gives you the resulting row.
-        ObjectRowProcessor rowProcessor = new ObjectRowProcessor() {
-            @Override
-            public void rowProcessed(Object[] objects, ParsingContext parsingContext) {
-                if (objects.length != ROW_LENGTH) {
-                    throw new IllegalArgumentException();
-                }
-                String[] items = Arrays.asList(objects).toArray(new String[ROW_LENGTH]);
-                Professionnel psRow = new Professionnel(items);
-                Professionnel mappedPs = psMap.get(psRow.getNationalId());
-                if (mappedPs != null) {
-                    mapExPro(psRow, mappedPs);
-                } else {
-                    psMap.put(psRow.getNationalId(), psRow);
-                }
-                // get structure in map by its reference from row
-                if (structureMap.get(items[28]) == null) {
-                    Structure newStructure = new Structure(items);
-                    structureMap.put(newStructure.getStructureId(), newStructure);
-                }
-            }
-        };
+    @Autowired
+    private ValueDictionary valueDictionary;
 
-        CsvParserSettings parserSettings = new CsvParserSettings();
-        parserSettings.getFormat().setLineSeparator("\n");
-        parserSettings.getFormat().setDelimiter('|');
-        parserSettings.setProcessor(rowProcessor);
-        parserSettings.setHeaderExtractionEnabled(true);
-        parserSettings.setNullValue("");
+    @Autowired
+    private SnapshotStore snapshotStore;
 
-        CsvParser parser = new CsvParser(parserSettings);
+    public void loadMapsFromFile(File file) throws IOException {
+        log.info("loading {} into list of Ps", file.getName());
+        psMap = new HashMap<>();
+        structureMap = new HashMap<>();
+        fingerprintIndex = null;
 
-        // get file charset to secure data encoding
-        InputStream is = new FileInputStream(file);
+        // get file charset to secure data encoding, from a bounded prefix of the file
+        Charset detectedCharset;
         try {
-            Charset detectedCharset = Charset.forName(new TikaEncodingDetector().guessEncoding(is));
-            parser.parse(new BufferedReader(new FileReader(file, detectedCharset)));
+            detectedCharset = MappedExtractReader.detectCharset(file);
         } catch (IOException e) {
             throw new IOException("Encoding detection failure", e);
         }
 
-
+        boolean mappable = MappedExtractReader.isSupported(detectedCharset);
+        List<Long> bounds = parallelism > 1 && mappable
+                ? chunkBounds(file, parallelism) : List.of(0L, file.length());
+        if (!mappable) {
+            // rows of multi-byte charsets can not be split on raw bytes, the csv parser decodes them
+            log.info("parsing {} encoded in {} sequentially", file.getName(), detectedCharset);
+            parseDecoded(file, detectedCharset, psMap, structureMap, valueDictionary);
+        } else if (bounds.size() <= 2) {
+            parseRange(file, detectedCharset, 0, file.length(), psMap, structureMap, valueDictionary);
+        } else {
+            loadChunks(file, detectedCharset, bounds);
+        }
+        Snapshot snapshot = snapshotStore.store(psMap, structureMap);
+        psMap = snapshot.getPsMap();
+        structureMap = snapshot.getStructureMap();
 
         log.info("loading complete!");
 
         customMetrics.getAppMiscGauges().get(CustomMetrics.MiscCustomMetric.STAGE).set(1);  // stage 1: loaded file into map
     }
 
+    /**
+     * Parses the chunks concurrently, then merges them in file order so that rows keep the sequential merge order.
+     */
+    private void loadChunks(File file, Charset charset, List<Long> bounds) throws IOException {
+        log.info("parsing {} in {} chunks", file.getName(), bounds.size() - 1);
+        ExecutorService chunkParsers = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<Chunk>> chunks = new ArrayList<>();
+            for (int i = 0; i < bounds.size() - 1; i++) {
+                long start = bounds.get(i);
+                long end = bounds.get(i + 1);
+                chunks.add(chunkParsers.submit(() -> parseChunk(file, charset, start, end, valueDictionary)));
+            }
+            for (Future<Chunk> future : chunks) {
+                Chunk chunk = future.get();
+                chunk.psMap.forEach((nationalId, ps) -> psMap.merge(nationalId, ps, (mappedPs, chunkPs) -> {
+                    mapExPro(chunkPs, mappedPs);
+                    return mappedPs;
+                }));
+                // the first row of a structure wins, as in a sequential load
+                chunk.structureMap.forEach(structureMap::putIfAbsent);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Extract loading interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Extract chunk parsing failure", e.getCause());
+        } finally {
+            chunkParsers.shutdownNow();
+        }
+    }
+
+    private static Chunk parseChunk(File file, Charset charset, long start, long end, ValueDictionary dictionary) throws IOException {
+        Chunk chunk = new Chunk();
+        parseRange(file, charset, start, end, chunk.psMap, chunk.structureMap, dictionary);
+        return chunk;
+    }
+
+    private static void parseRange(File file, Charset charset, long start, long end,
+                                   Map<String, Professionnel> psMap, Map<String, Structure> structureMap,
+                                   ValueDictionary dictionary) throws IOException {
+        try (MappedExtractReader reader = new MappedExtractReader(file, charset, start, end)) {
+            if (start == 0) {
+                // only the first range starts with the header line
+                reader.nextRow();
+            }
+            String[] items;
+            while ((items = reader.nextRow()) != null) {
+                mapRow(items, psMap, structureMap, dictionary);
+            }
+        }
+    }
+
+    private static void parseDecoded(File file, Charset charset, Map<String, Professionnel> psMap,
+                                     Map<String, Structure> structureMap, ValueDictionary dictionary) throws IOException {
+        CsvParser parser = SortedExtractReader.newRowParser();
+        try (Reader reader = new BufferedReader(new FileReader(file, charset))) {
+            parser.beginParsing(reader);
+            // header line
+            parser.parseNext();
+            String[] items;
+            while ((items = parser.parseNext()) != null) {
+                mapRow(items, psMap, structureMap, dictionary);
+            }
+        } finally {
+            parser.stopParsing();
+        }
+    }
+
+    private static void mapRow(String[] items, Map<String, Professionnel> psMap, Map<String, Structure> structureMap,
+                               ValueDictionary dictionary) {
+        if (items.length != ROW_LENGTH) {
+            throw new IllegalArgumentException();
+        }
+        Professionnel psRow = new Professionnel(items);
+        psRow.internCodes(dictionary);
+        Professionnel mappedPs = psMap.get(psRow.getNationalId());
+        if (mappedPs != null) {
+            mapExPro(psRow, mappedPs);
+        } else {
+            psMap.put(psRow.getNationalId(), psRow);
+        }
+        // get structure in map by its reference from row
+        if (structureMap.get(items[28]) == null) {
+            Structure newStructure = new Structure(items);
+            newStructure.internCodes(dictionary);
+            structureMap.put(newStructure.getStructureId(), newStructure);
+        }
+    }
+
+    /**
+     * Splits the file in about equal byte ranges, each range ending right after a line feed.
+     * Extract fields never span several lines.
+     *
+     * @return the offsets of the chunks, from 0 to the file length
+     */
+    private static List<Long> chunkBounds(File file, int chunkCount) throws IOException {
+        long length = file.length();
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            for (int i = 1; i < chunkCount; i++) {
+                long position = Math.max(length * i / chunkCount, bounds.get(bounds.size() - 1));
+                raf.seek(position);
+                int b = raf.read();
+                while (b != -1 && b != '\n') {
+                    b = raf.read();
+                }
+                long bound = raf.getFilePointer();
+                if (b != -1 && bound > bounds.get(bounds.size() - 1) && bound < length) {
+                    bounds.add(bound);
+                }
+            }
+        }
+        bounds.add(length);
+        return bounds;
+    }
+
     public Map<String, Professionnel> getPsMap() {
         return psMap;
     }
@@ -100,30 +227,66 @@ public class Loader {
         return structureMap;
     }
 
-    private void mapExPro(Professionnel psRow, Professionnel mappedPs) {
-        ExerciceProfessionnel exProRow = psRow.getProfessions().get(0);
-        mappedPs.getProfessions().stream()
-                .filter(exo -> exo.getProfessionId().equals(exProRow.getProfessionId())).findAny()
-                .ifPresentOrElse(exPro -> mapSituationNExpertise(exProRow, exPro), () -> mappedPs.getProfessions().add(exProRow));
+    /**
+     * Drops the loaded maps, when the snapshot of the run is written from its changes only.
+     */
+    public void releaseMaps() {
+        psMap = new HashMap<>();
+        structureMap = new HashMap<>();
+        fingerprintIndex = null;
     }
 
-    private void mapSituationNExpertise(ExerciceProfessionnel exProRow, ExerciceProfessionnel mappedExPro) {
-        SavoirFaire expertiseRow = exProRow.getExpertises().get(0);
-        mappedExPro.getExpertises().stream()
-                .filter(expertise -> expertise.getExpertiseId().equals(expertiseRow.getExpertiseId())).findAny()
-                .ifPresentOrElse(expertise -> {}, () -> mappedExPro.getExpertises().add(expertiseRow));
+    /**
+     * Gets the fingerprint index of the loaded ps map, computed once per load.
+     *
+     * @return the fingerprint index
+     */
+    public FingerprintIndex getFingerprintIndex() {
+        if (fingerprintIndex == null) {
+            fingerprintIndex = FingerprintIndex.of(psMap);
+        }
+        return fingerprintIndex;
+    }
 
-        SituationExercice situationRow = exProRow.getWorkSituations().get(0);
-        mappedExPro.getWorkSituations().stream()
-                .filter(situation -> situation.getSituationId().equals(situationRow.getSituationId())).findAny()
-                .ifPresentOrElse(situation -> mapStructureRef(situationRow, situation), () -> mappedExPro.getWorkSituations().add(situationRow));
+    /**
+     * Merges the professions of a ps into the mapped ps with the same nationalId.
+     * A row holds a single profession, expertise, situation and structure, chunks can hold several.
+     */
+    static void mapExPro(Professionnel psRow, Professionnel mappedPs) {
+        for (ExerciceProfessionnel exProRow : psRow.getProfessions()) {
+            mappedPs.getProfessions().stream()
+                    .filter(exo -> exo.getProfessionId().equals(exProRow.getProfessionId())).findAny()
+                    .ifPresentOrElse(exPro -> mapSituationNExpertise(exProRow, exPro), () -> mappedPs.getProfessions().add(exProRow));
+        }
     }
 
-    private void mapStructureRef(SituationExercice situationRow, SituationExercice mappedSituation) {
-        StructureRef structureRefRow = situationRow.getStructures().get(0);
-        mappedSituation.getStructures().stream()
-                .filter(structureRef -> structureRef.getStructureId().equals(structureRefRow.getStructureId()))
-                .findAny().ifPresentOrElse(structureRef -> {}, () -> mappedSituation.getStructures().add(structureRefRow));
+    private static void mapSituationNExpertise(ExerciceProfessionnel exProRow, ExerciceProfessionnel mappedExPro) {
+        for (SavoirFaire expertiseRow : exProRow.getExpertises()) {
+            mappedExPro.getExpertises().stream()
+                    .filter(expertise -> expertise.getExpertiseId().equals(expertiseRow.getExpertiseId())).findAny()
+                    .ifPresentOrElse(expertise -> {}, () -> mappedExPro.getExpertises().add(expertiseRow));
+        }
+
+        for (SituationExercice situationRow : exProRow.getWorkSituations()) {
+            mappedExPro.getWorkSituations().stream()
+                    .filter(situation -> situation.getSituationId().equals(situationRow.getSituationId())).findAny()
+                    .ifPresentOrElse(situation -> mapStructureRef(situationRow, situation), () -> mappedExPro.getWorkSituations().add(situationRow));
+        }
+    }
+
+    private static void mapStructureRef(SituationExercice situationRow, SituationExercice mappedSituation) {
+        for (StructureRef structureRefRow : situationRow.getStructures()) {
+            mappedSituation.getStructures().stream()
+                    .filter(structureRef -> structureRef.getStructureId().equals(structureRefRow.getStructureId()))
+                    .findAny().ifPresentOrElse(structureRef -> {}, () -> mappedSituation.getStructures().add(structureRefRow));
+        }
+    }
+
+    private static class Chunk {
+
+        private final Map<String, Professionnel> psMap = new HashMap<>();
+
+        private final Map<String, Structure> structureMap = new HashMap<>();
     }
 
     public void loadPSRefMapFromFile(File toggleFile) throws IOException {
@@ -0,0 +1,269 @@
+package fr.ans.psc.pscload.mapper;
+
+import org.apache.any23.encoding.TikaEncodingDetector;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The type Mapped extract reader.
+ * Reads the pipe delimited rows of an extract through a memory mapping of the file, fields are decoded straight from the mapped bytes.
+ * Rows are parsed the way the csv parser used elsewhere parses them : fields are trimmed, quoted fields may hold
+ * delimiters, line feeds and doubled quotes, a quoted empty field is null, a quoted field followed by text is kept as written,
+ * empty lines and lines starting with # are skipped.
+ * Delimiters and quotes are looked for in the raw bytes : only UTF-8 and ASCII compatible single byte charsets are supported.
+ */
+public class MappedExtractReader implements Closeable {
+
+    private static final int ENCODING_PREFIX_SIZE = 64 * 1024;
+
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+
+    private static final byte DELIMITER = '|';
+
+    private static final byte QUOTE = '"';
+
+    private static final byte COMMENT = '#';
+
+    private static final String SYNTAX = "|\"#\n ";
+
+    private final FileChannel channel;
+
+    private final Charset charset;
+
+    private final long end;
+
+    private MappedByteBuffer window;
+
+    private long windowStart;
+
+    private long position;
+
+    private byte[] line = new byte[4096];
+
+    private byte[] quoted = new byte[256];
+
+    private int quotedLength;
+
+    /**
+     * Tells if the rows of a file in this charset can be split on raw bytes.
+     *
+     * @param charset the charset
+     * @return true for UTF-8 and single byte charsets encoding the delimiters as ASCII
+     */
+    public static boolean isSupported(Charset charset) {
+        if (StandardCharsets.UTF_8.equals(charset)) {
+            return true;
+        }
+        return charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1
+                && Arrays.equals(SYNTAX.getBytes(charset), SYNTAX.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Detect the charset of a file from its first bytes only.
+     *
+     * @param file the file
+     * @return the charset
+     * @throws IOException the io exception
+     */
+    public static Charset detectCharset(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer prefix = ByteBuffer.allocate((int) Math.min(ENCODING_PREFIX_SIZE, channel.size()));
+            while (prefix.hasRemaining() && channel.read(prefix) != -1) {
+                // fill the prefix
+            }
+            try (InputStream is = new ByteArrayInputStream(prefix.array(), 0, prefix.position())) {
+                return Charset.forName(new TikaEncodingDetector().guessEncoding(is));
+            }
+        }
+    }
+
+    /**
+     * Instantiates a new Mapped extract reader over a byte range of the file, starting at a line start.
+     *
+     * @param file    the file
+     * @param charset the charset
+     * @param start   the start offset
+     * @param end     the end offset, exclusive
+     * @throws IOException the io exception
+     */
+    public MappedExtractReader(File file, Charset charset, long start, long end) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.charset = charset;
+        this.end = end;
+        this.position = start;
+        map(start);
+    }
+
+    /**
+     * Read the next row.
+     *
+     * @return the fields of the row, null at the end of the range
+     * @throws IOException the io exception
+     */
+    public String[] nextRow() throws IOException {
+        while (position < end) {
+            int length = readLine();
+            String[] row = split(length);
+            if (row != null) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copies the bytes of the next record, line feed excluded, and moves past it.
+     * A line feed inside a quoted field does not end the record, a comment line is skipped and read as empty.
+     */
+    private int readLine() throws IOException {
+        int length = 0;
+        boolean comment = nextByte() == COMMENT;
+        boolean fieldStart = true;
+        boolean inQuotes = false;
+        boolean quoteClosed = false;
+        while (position < end) {
+            byte b = nextByte();
+            position++;
+            if (comment) {
+                if (b == '\n') {
+                    return 0;
+                }
+                continue;
+            }
+            if (inQuotes) {
+                if (b == QUOTE) {
+                    inQuotes = false;
+                    quoteClosed = true;
+                }
+            } else if (b == QUOTE && quoteClosed) {
+                // doubled quote inside a quoted field
+                inQuotes = true;
+                quoteClosed = false;
+            } else if (b == '\n') {
+                break;
+            } else if (b == DELIMITER) {
+                fieldStart = true;
+                quoteClosed = false;
+            } else if (fieldStart && b == QUOTE) {
+                inQuotes = true;
+                fieldStart = false;
+            } else {
+                quoteClosed = false;
+                if ((b & 0xFF) > ' ') {
+                    fieldStart = false;
+                }
+            }
+            if (length == line.length) {
+                line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[length++] = b;
+        }
+        return comment ? 0 : length;
+    }
+
+    private byte nextByte() throws IOException {
+        if (position >= windowStart + window.limit()) {
+            map(position);
+        }
+        return window.get((int) (position - windowStart));
+    }
+
+    private String[] split(int length) {
+        if (trimStart(0, length) == length) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>(50);
+        int position = 0;
+        while (true) {
+            int start = trimStart(position, length);
+            int stop;
+            if (start < length && line[start] == QUOTE) {
+                stop = trimStart(readQuoted(start + 1, length), length);
+                if (stop >= length || line[stop] == DELIMITER) {
+                    fields.add(quotedLength == 0 ? null : new String(quoted, 0, quotedLength, charset));
+                } else {
+                    // a closing quote followed by text : the field is kept as it was written, quotes included
+                    while (stop < length && line[stop] != DELIMITER) {
+                        stop++;
+                    }
+                    int valueEnd = trimEnd(start, stop);
+                    fields.add(new String(line, start, valueEnd - start, charset));
+                }
+            } else {
+                stop = start;
+                while (stop < length && line[stop] != DELIMITER) {
+                    stop++;
+                }
+                int valueEnd = trimEnd(start, stop);
+                fields.add(start == valueEnd ? "" : new String(line, start, valueEnd - start, charset));
+            }
+            if (stop >= length) {
+                return fields.toArray(new String[0]);
+            }
+            position = stop + 1;
+        }
+    }
+
+    /**
+     * Copies the content of a quoted field, doubled quotes read as one.
+     *
+     * @return the offset right after the closing quote
+     */
+    private int readQuoted(int from, int to) {
+        int length = 0;
+        int i = from;
+        while (i < to) {
+            byte b = line[i++];
+            if (b == QUOTE) {
+                if (i < to && line[i] == QUOTE) {
+                    i++;
+                } else {
+                    break;
+                }
+            }
+            if (length == quoted.length) {
+                quoted = Arrays.copyOf(quoted, quoted.length * 2);
+            }
+            quoted[length++] = b;
+        }
+        quotedLength = length;
+        return i;
+    }
+
+    private int trimStart(int from, int to) {
+        while (from < to && (line[from] & 0xFF) <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private int trimEnd(int from, int to) {
+        while (to > from && (line[to - 1] & 0xFF) <= ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    private void map(long offset) throws IOException {
+        windowStart = offset;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_SIZE, end - offset));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,206 @@
+package fr.ans.psc.pscload.mapper;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import fr.ans.psc.pscload.model.*;
+
+/**
+ * The type Model serializers.
+ * Kryo serializers of the model classes, without reflection : fields are written in the order of the extract columns,
+ * preceded by a mask of the non null fields and a mask of the non empty ones, only non empty values are written.
+ * Professionnel and Structure start with a format version, nested objects follow the version of their PS.
+ */
+public final class ModelSerializers {
+
+    private static final int ROW_LENGTH = 50;
+
+    private static final byte VERSION = 1;
+
+    private ModelSerializers() {
+    }
+
+    /**
+     * Register the serializers.
+     *
+     * @param kryo    the kryo
+     * @param firstId the id of the first registration, six ids are used
+     */
+    public static void register(Kryo kryo, int firstId) {
+        kryo.register(Professionnel.class, new ProfessionnelSerializer(), firstId);
+        kryo.register(ExerciceProfessionnel.class, new ExerciceProfessionnelSerializer(), firstId + 1);
+        kryo.register(SavoirFaire.class, new SavoirFaireSerializer(), firstId + 2);
+        kryo.register(SituationExercice.class, new SituationExerciceSerializer(), firstId + 3);
+        kryo.register(StructureRef.class, new StructureRefSerializer(), firstId + 4);
+        kryo.register(Structure.class, new StructureSerializer(), firstId + 5);
+    }
+
+    private static void writeItems(Output output, String[] items, int firstItem, int lastItem) {
+        long present = 0;
+        long filled = 0;
+        for (int item = firstItem; item <= lastItem; item++) {
+            if (items[item] != null) {
+                present |= 1L << (item - firstItem);
+                if (!items[item].isEmpty()) {
+                    filled |= 1L << (item - firstItem);
+                }
+            }
+        }
+        output.writeVarLong(present, true);
+        output.writeVarLong(filled, true);
+        for (int item = firstItem; item <= lastItem; item++) {
+            if ((filled & 1L << (item - firstItem)) != 0) {
+                output.writeString(items[item]);
+            }
+        }
+    }
+
+    private static String[] readItems(Input input, String[] items, int firstItem, int lastItem) {
+        long present = input.readVarLong(true);
+        long filled = input.readVarLong(true);
+        for (int item = firstItem; item <= lastItem; item++) {
+            long bit = 1L << (item - firstItem);
+            items[item] = (filled & bit) != 0 ? input.readString() : (present & bit) != 0 ? "" : null;
+        }
+        return items;
+    }
+
+    private static void writeVersion(Output output) {
+        output.writeByte(VERSION);
+    }
+
+    private static void readVersion(Input input, Class<?> type) {
+        byte version = input.readByte();
+        if (version != VERSION) {
+            throw new KryoException("Unsupported " + type.getSimpleName() + " format version " + version);
+        }
+    }
+
+    private static class ProfessionnelSerializer extends com.esotericsoftware.kryo.Serializer<Professionnel> {
+
+        @Override
+        public void write(Kryo kryo, Output output, Professionnel ps) {
+            String[] items = new String[ROW_LENGTH];
+            ps.fillItems(items);
+            writeVersion(output);
+            writeItems(output, items, 0, 12);
+            output.writeVarInt(ps.getProfessions().size(), true);
+            for (ExerciceProfessionnel exPro : ps.getProfessions()) {
+                kryo.writeObject(output, exPro);
+            }
+        }
+
+        @Override
+        public Professionnel read(Kryo kryo, Input input, Class<? extends Professionnel> type) {
+            readVersion(input, type);
+            Professionnel ps = new Professionnel(readItems(input, new String[ROW_LENGTH], 0, 12), false);
+            int professionCount = input.readVarInt(true);
+            for (int profession = 0; profession < professionCount; profession++) {
+                ps.getProfessions().add(kryo.readObject(input, ExerciceProfessionnel.class));
+            }
+            return ps;
+        }
+    }
+
+    private static class ExerciceProfessionnelSerializer extends com.esotericsoftware.kryo.Serializer<ExerciceProfessionnel> {
+
+        @Override
+        public void write(Kryo kryo, Output output, ExerciceProfessionnel exPro) {
+            String[] items = new String[ROW_LENGTH];
+            exPro.fillItems(items);
+            writeItems(output, items, 13, 17);
+            output.writeVarInt(exPro.getExpertises().size(), true);
+            for (SavoirFaire expertise : exPro.getExpertises()) {
+                kryo.writeObject(output, expertise);
+            }
+            output.writeVarInt(exPro.getWorkSituations().size(), true);
+            for (SituationExercice situation : exPro.getWorkSituations()) {
+                kryo.writeObject(output, situation);
+            }
+        }
+
+        @Override
+        public ExerciceProfessionnel read(Kryo kryo, Input input, Class<? extends ExerciceProfessionnel> type) {
+            ExerciceProfessionnel exPro = new ExerciceProfessionnel(readItems(input, new String[ROW_LENGTH], 13, 17), false);
+            int expertiseCount = input.readVarInt(true);
+            for (int expertise = 0; expertise < expertiseCount; expertise++) {
+                exPro.getExpertises().add(kryo.readObject(input, SavoirFaire.class));
+            }
+            int situationCount = input.readVarInt(true);
+            for (int situation = 0; situation < situationCount; situation++) {
+                exPro.getWorkSituations().add(kryo.readObject(input, SituationExercice.class));
+            }
+            return exPro;
+        }
+    }
+
+    private static class SavoirFaireSerializer extends com.esotericsoftware.kryo.Serializer<SavoirFaire> {
+
+        @Override
+        public void write(Kryo kryo, Output output, SavoirFaire expertise) {
+            String[] items = new String[ROW_LENGTH];
+            expertise.fillItems(items);
+            writeItems(output, items, 18, 19);
+        }
+
+        @Override
+        public SavoirFaire read(Kryo kryo, Input input, Class<? extends SavoirFaire> type) {
+            return new SavoirFaire(readItems(input, new String[ROW_LENGTH], 18, 19));
+        }
+    }
+
+    private static class SituationExerciceSerializer extends com.esotericsoftware.kryo.Serializer<SituationExercice> {
+
+        @Override
+        public void write(Kryo kryo, Output output, SituationExercice situation) {
+            String[] items = new String[ROW_LENGTH];
+            situation.fillItems(items);
+            writeItems(output, items, 20, 23);
+            output.writeVarInt(situation.getStructures().size(), true);
+            for (StructureRef structureRef : situation.getStructures()) {
+                kryo.writeObject(output, structureRef);
+            }
+        }
+
+        @Override
+        public SituationExercice read(Kryo kryo, Input input, Class<? extends SituationExercice> type) {
+            SituationExercice situation = new SituationExercice(readItems(input, new String[ROW_LENGTH], 20, 23), false);
+            int structureRefCount = input.readVarInt(true);
+            for (int structureRef = 0; structureRef < structureRefCount; structureRef++) {
+                situation.getStructures().add(kryo.readObject(input, StructureRef.class));
+            }
+            return situation;
+        }
+    }
+
+    private static class StructureRefSerializer extends com.esotericsoftware.kryo.Serializer<StructureRef> {
+
+        @Override
+        public void write(Kryo kryo, Output output, StructureRef structureRef) {
+            output.writeString(structureRef.getStructureId());
+        }
+
+        @Override
+        public StructureRef read(Kryo kryo, Input input, Class<? extends StructureRef> type) {
+            return new StructureRef(input.readString());
+        }
+    }
+
+    private static class StructureSerializer extends com.esotericsoftware.kryo.Serializer<Structure> {
+
+        @Override
+        public void write(Kryo kryo, Output output, Structure structure) {
+            String[] items = new String[ROW_LENGTH];
+            structure.fillItems(items);
+            writeVersion(output);
+            writeItems(output, items, 24, 48);
+        }
+
+        @Override
+        public Structure read(Kryo kryo, Input input, Class<? extends Structure> type) {
+            readVersion(input, type);
+            return new Structure(readItems(input, new String[ROW_LENGTH], 24, 48));
+        }
+    }
+}
@@ -3,20 +3,38 @@ package fr.ans.psc.pscload.mapper;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.Pool;
+import com.google.common.collect.MapDifference;
+import fr.ans.psc.pscload.component.utils.FilesUtils;
 import fr.ans.psc.pscload.metrics.CustomMetrics;
 import fr.ans.psc.pscload.model.*;
+import fr.ans.psc.pscload.snapshot.Snapshot;
+import fr.ans.psc.pscload.snapshot.SnapshotCompression;
+import fr.ans.psc.pscload.snapshot.SnapshotFile;
+import fr.ans.psc.pscload.snapshot.SnapshotStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @Component
 public class Serializer {
@@ -26,26 +44,96 @@ public class Serializer {
      */
     private static final Logger log = LoggerFactory.getLogger(Serializer.class);
 
-    private static final Kryo kryo = new Kryo();
+    // marks the kryo streams written with the model serializers, older streams start with the HashMap id
+    private static final int KRYO_STREAM_MAGIC = 0x50534B59;
 
-    static {
-        kryo.register(HashMap.class, 9);
-        kryo.register(ArrayList.class, 10);
-        kryo.register(Professionnel.class, 11);
-        kryo.register(ExerciceProfessionnel.class, 12);
-        kryo.register(SavoirFaire.class, 13);
-        kryo.register(SituationExercice.class, 14);
-        kryo.register(StructureRef.class, 15);
-        kryo.register(Structure.class, 16);
-    }
+    // kryo instances are not thread safe, each thread serializing takes one from the pool
+    private static final Pool<Kryo> kryoPool = kryoPool(true);
+
+    // reads the snapshots written with the reflective field serializers
+    private static final Pool<Kryo> legacyKryoPool = kryoPool(false);
 
     private Map<String, Professionnel> psMap = new HashMap<>();
 
     private Map<String, Structure> structureMap = new HashMap<>();
 
+    private FingerprintIndex fingerprintIndex = FingerprintIndex.of(psMap);
+
     @Autowired
     private CustomMetrics customMetrics;
 
+    @Autowired
+    private ValueDictionary valueDictionary;
+
+    @Autowired
+    private SnapshotStore snapshotStore;
+
+    @Value("${snapshot.file.format:kryo}")
+    private String fileFormat;
+
+    @Value("${snapshot.compression:none}")
+    private String compression;
+
+    @Value("${snapshot.compression.level:1}")
+    private int compressionLevel;
+
+    @Value("${snapshot.delta.enabled:false}")
+    private boolean deltaEnabled;
+
+    @Value("${snapshot.delta.max.chain:6}")
+    private int maxDeltaChain;
+
+    @Value("${snapshot.kryo.parallelism:1}")
+    private int parallelism;
+
+    @Value("${snapshot.kryo.segment.size:50000}")
+    private int segmentSize;
+
+    @Value("${snapshot.kryo.buffer.size:1048576}")
+    private int bufferSize;
+
+    private ExecutorService executor;
+
+    private KryoSegments kryoSegments;
+
+    // date of the last ser or delta file deserialized, null when no snapshot was found
+    private String snapshotDate;
+
+    private int deltaChainLength;
+
+    @PostConstruct
+    void init() {
+        executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+        kryoSegments = new KryoSegments(kryoPool, legacyKryoPool, executor, Math.max(1, parallelism), segmentSize, bufferSize);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private static Pool<Kryo> kryoPool(boolean modelSerializers) {
+        return new Pool<Kryo>(true, false, 16) {
+            @Override
+            protected Kryo create() {
+                Kryo kryo = new Kryo();
+                kryo.register(HashMap.class, 9);
+                kryo.register(ArrayList.class, 10);
+                if (modelSerializers) {
+                    ModelSerializers.register(kryo, 11);
+                } else {
+                    kryo.register(Professionnel.class, 11);
+                    kryo.register(ExerciceProfessionnel.class, 12);
+                    kryo.register(SavoirFaire.class, 13);
+                    kryo.register(SituationExercice.class, 14);
+                    kryo.register(StructureRef.class, 15);
+                    kryo.register(Structure.class, 16);
+                }
+                return kryo;
+            }
+        };
+    }
+
     public Map<String, Professionnel> getPsMap() {
         return psMap;
     }
@@ -54,34 +142,314 @@ public class Serializer {
         return structureMap;
     }
 
-    public void serialiseMapsToFile(Map<String, Professionnel> psMap, Map<String, Structure> structureMap, String fileName) throws FileNotFoundException {
+    public FingerprintIndex getFingerprintIndex() {
+        return fingerprintIndex;
+    }
+
+    /**
+     * Drops the deserialized snapshot once the diff is written elsewhere, the snapshot date is kept for the next delta.
+     */
+    public void releaseMaps() {
+        psMap = new HashMap<>();
+        structureMap = new HashMap<>();
+        fingerprintIndex = FingerprintIndex.of(psMap);
+    }
+
+    public void serialiseMapsToFile(Map<String, Professionnel> psMap, Map<String, Structure> structureMap, String fileName) throws IOException {
+        serialiseMapsToFile(psMap, structureMap, FingerprintIndex.of(psMap), fileName);
+    }
+
+    /**
+     * Serialise maps to file, and their fingerprint index to a fpi file next to it.
+     * In the mapped format the fingerprints are stored in the snapshot file itself.
+     *
+     * @param psMap            the ps map
+     * @param structureMap     the structure map
+     * @param fingerprintIndex the fingerprint index of the ps map
+     * @param fileName         the ser file name
+     * @throws IOException the io exception
+     */
+    public void serialiseMapsToFile(Map<String, Professionnel> psMap, Map<String, Structure> structureMap,
+                                    FingerprintIndex fingerprintIndex, String fileName) throws IOException {
         log.info("serializing Ps map to {}", fileName);
 
-        Output output = new Output(new FileOutputStream(fileName));
-        kryo.writeClassAndObject(output, psMap);
-        kryo.writeClassAndObject(output, structureMap);
-        output.close();
+        if ("mapped".equalsIgnoreCase(fileFormat)) {
+            // mapped files are read in place, they are never compressed
+            SnapshotFile.write(psMap, structureMap, fingerprintIndex, new File(fileName));
+            log.info("serialization complete!");
+            return;
+        }
+
+        if (parallelism > 1) {
+            // segments are encoded in parallel, each one compressed on its own
+            kryoSegments.write(psMap, structureMap, SnapshotCompression.fromValue(compression), compressionLevel, new File(fileName));
+        } else {
+            Kryo kryo = kryoPool.obtain();
+            try (Output output = kryoStreamOutput(fileName)) {
+                // snapshot views are not registered, kryo writes them as plain maps
+                kryo.writeClassAndObject(output, psMap instanceof HashMap ? psMap : new HashMap<>(psMap));
+                kryo.writeClassAndObject(output, structureMap instanceof HashMap ? structureMap : new HashMap<>(structureMap));
+            } finally {
+                kryoPool.free(kryo);
+            }
+        }
+
+        try {
+            fingerprintIndex.writeTo(getIndexFile(new File(fileName)));
+        } catch (IOException e) {
+            // the index is recomputed from the ser file when missing
+            log.warn("fingerprint index could not be written next to {}", fileName, e);
+        }
 
         log.info("serialization complete!");
     }
 
-    public void deserialiseFileToMaps(File file) throws FileNotFoundException {
+    /**
+     * Tells if the changes of the run can be written as a delta of the deserialized snapshot instead of a full ser file.
+     * A full ser file compacts the chain once it reaches its maximum length.
+     *
+     * @return true if a delta can be appended
+     */
+    public boolean isDeltaAppendable() {
+        return deltaEnabled && snapshotDate != null && deltaChainLength < maxDeltaChain;
+    }
+
+    /**
+     * Serialise the changes of a run to a delta file, applied on the deserialized snapshot when read.
+     *
+     * @param psDiff        the ps diff
+     * @param structureDiff the structure diff
+     * @param fileName      the delta file name
+     * @throws IOException the io exception
+     */
+    public void serialiseDeltaToFile(MapDifference<String, Professionnel> psDiff, MapDifference<String, Structure> structureDiff,
+                                     String fileName) throws IOException {
+        serialiseDeltaToFile(upserts(psDiff), new ArrayList<>(psDiff.entriesOnlyOnLeft().keySet()),
+                upserts(structureDiff), new ArrayList<>(structureDiff.entriesOnlyOnLeft().keySet()), fileName);
+    }
+
+    /**
+     * Serialise the changes of a run to a delta file, from the created or updated entities and the deleted keys.
+     *
+     * @param psUpserts         the created or updated ps, by nationalId
+     * @param psDeletes         the nationalIds of the deleted ps
+     * @param structureUpserts  the created or updated structures, by structure id
+     * @param structureDeletes  the ids of the deleted structures
+     * @param fileName          the delta file name
+     * @throws IOException the io exception
+     */
+    public void serialiseDeltaToFile(HashMap<String, Professionnel> psUpserts, ArrayList<String> psDeletes,
+                                     HashMap<String, Structure> structureUpserts, ArrayList<String> structureDeletes,
+                                     String fileName) throws IOException {
+        log.info("serializing changes since {} to {}", snapshotDate, fileName);
+
+        Kryo kryo = kryoPool.obtain();
+        try (Output output = kryoStreamOutput(fileName)) {
+            kryo.writeClassAndObject(output, snapshotDate);
+            kryo.writeClassAndObject(output, psUpserts);
+            kryo.writeClassAndObject(output, psDeletes);
+            kryo.writeClassAndObject(output, structureUpserts);
+            kryo.writeClassAndObject(output, structureDeletes);
+        } finally {
+            kryoPool.free(kryo);
+        }
+
+        log.info("serialization complete!");
+    }
+
+    public void deserialiseFileToMaps(File file) throws IOException {
+        deserialiseFileToMaps(file, Collections.emptyList());
+    }
+
+    /**
+     * Deserialise a ser file, then apply the deltas written after it.
+     *
+     * @param file   the ser file, null if there is none
+     * @param deltas the delta files newer than the ser file, oldest first
+     * @throws IOException the io exception
+     */
+    public void deserialiseFileToMaps(File file, List<File> deltas) throws IOException {
 
         if(file == null) {
             log.info("no ser file has been found, maps will be empty");
-            psMap.clear();
-            structureMap.clear();
+            psMap = new HashMap<>();
+            structureMap = new HashMap<>();
+            fingerprintIndex = FingerprintIndex.of(psMap);
+            snapshotDate = null;
+        } else if (SnapshotFile.isSnapshotFile(file) && deltas.isEmpty()) {
+            log.info("mapping {} as Ps map", file.getName());
+
+            // records are decoded on access, the maps are not loaded nor stored again
+            SnapshotFile snapshotFile = SnapshotFile.open(file);
+            psMap = snapshotFile.getPsMap();
+            structureMap = snapshotFile.getStructureMap();
+            fingerprintIndex = snapshotFile.getFingerprintIndex();
+            snapshotDate = FilesUtils.getDateStringFromFileName(file);
+            deltaChainLength = 0;
+            customMetrics.setUploadSizeMetricsAfterDeserializing(snapshotFile.countUploads(), structureMap.size());
+            log.info("deserialization complete!");
+            return;
         } else {
             log.info("deserializing {} to Ps map", file.getName());
 
-            Input input = new Input(new FileInputStream(file));
-            psMap = (Map<String, Professionnel>) kryo.readClassAndObject(input);
-            structureMap = (Map<String, Structure>) kryo.readClassAndObject(input);
-            input.close();
+            if (SnapshotFile.isSnapshotFile(file)) {
+                // deltas are applied on plain maps
+                SnapshotFile snapshotFile = SnapshotFile.open(file);
+                psMap = new HashMap<>(snapshotFile.getPsMap());
+                structureMap = new HashMap<>(snapshotFile.getStructureMap());
+            } else if (KryoSegments.isSegmentFile(file)) {
+                Snapshot segments = kryoSegments.read(file);
+                psMap = segments.getPsMap();
+                structureMap = segments.getStructureMap();
+            } else {
+                // the codec is read from the file header, snapshots written with another setting are still readable
+                BufferedInputStream in = new BufferedInputStream(SnapshotCompression.decompress(new FileInputStream(file)), bufferSize);
+                Pool<Kryo> pool = streamKryoPool(in);
+                Kryo kryo = pool.obtain();
+                try (Input input = new Input(in, bufferSize)) {
+                    psMap = (Map<String, Professionnel>) kryo.readClassAndObject(input);
+                    structureMap = (Map<String, Structure>) kryo.readClassAndObject(input);
+                } finally {
+                    pool.free(kryo);
+                }
+            }
+            snapshotDate = FilesUtils.getDateStringFromFileName(file);
+            boolean changed = applyDeltas(deltas);
+            // kryo reads a new instance of every string, share the code values again
+            psMap.values().forEach(ps -> ps.internCodes(valueDictionary));
+            structureMap.values().forEach(structure -> structure.internCodes(valueDictionary));
+            Snapshot snapshot = snapshotStore.store(psMap, structureMap);
+            psMap = snapshot.getPsMap();
+            structureMap = snapshot.getStructureMap();
+            fingerprintIndex = changed ? FingerprintIndex.of(psMap) : loadIndex(getIndexFile(file));
+        }
+
+        customMetrics.setUploadSizeMetricsAfterDeserializing(psMap, structureMap);
+        log.info("deserialization complete!");
+    }
+
+    /**
+     * Load the maps from the sorted snapshot left by a streaming diff run, when it is newer than any ser file.
+     * No delta can be written on top of it : the next run writes a full ser file.
+     *
+     * @param sortedSnapshot   the sorted snapshot, rows sorted by nationalId
+     * @param sortedStructures the same rows sorted by structure id
+     * @throws IOException the io exception
+     */
+    public void deserialiseSortedSnapshot(File sortedSnapshot, File sortedStructures) throws IOException {
+        log.info("loading {} as Ps map", sortedSnapshot.getName());
+
+        HashMap<String, Professionnel> sortedPs = new HashMap<>();
+        HashMap<String, Structure> sortedStructureMap = new HashMap<>();
+        try (SortedExtractReader psReader = new SortedExtractReader(sortedSnapshot, ExtractSorter.NATIONAL_ID_COLUMN);
+             SortedExtractReader structureReader = new SortedExtractReader(sortedStructures, ExtractSorter.STRUCTURE_ID_COLUMN)) {
+            Professionnel ps;
+            while ((ps = psReader.nextProfessionnel()) != null) {
+                ps.internCodes(valueDictionary);
+                sortedPs.put(ps.getNationalId(), ps);
+            }
+            Structure structure;
+            while ((structure = structureReader.nextStructure()) != null) {
+                structure.internCodes(valueDictionary);
+                sortedStructureMap.put(structure.getStructureId(), structure);
+            }
         }
+        Snapshot snapshot = snapshotStore.store(sortedPs, sortedStructureMap);
+        psMap = snapshot.getPsMap();
+        structureMap = snapshot.getStructureMap();
+        fingerprintIndex = FingerprintIndex.of(psMap);
+        snapshotDate = null;
+        deltaChainLength = 0;
 
         customMetrics.setUploadSizeMetricsAfterDeserializing(psMap, structureMap);
         log.info("deserialization complete!");
     }
 
+    private boolean applyDeltas(List<File> deltas) throws IOException {
+        deltaChainLength = 0;
+        for (File delta : deltas) {
+            BufferedInputStream in = new BufferedInputStream(SnapshotCompression.decompress(new FileInputStream(delta)), bufferSize);
+            Pool<Kryo> pool = streamKryoPool(in);
+            Kryo kryo = pool.obtain();
+            try (Input input = new Input(in, bufferSize)) {
+                String parentDate = (String) kryo.readClassAndObject(input);
+                if (!parentDate.equals(snapshotDate)) {
+                    // the next run writes a full ser file, which drops the broken chain
+                    log.warn("{} does not follow {}, it is ignored with the deltas after it", delta.getName(), snapshotDate);
+                    deltaChainLength = maxDeltaChain;
+                    break;
+                }
+                log.info("applying {}", delta.getName());
+                psMap.putAll((Map<String, Professionnel>) kryo.readClassAndObject(input));
+                ((List<String>) kryo.readClassAndObject(input)).forEach(psMap::remove);
+                structureMap.putAll((Map<String, Structure>) kryo.readClassAndObject(input));
+                ((List<String>) kryo.readClassAndObject(input)).forEach(structureMap::remove);
+            } finally {
+                pool.free(kryo);
+            }
+            snapshotDate = FilesUtils.getDateStringFromFileName(delta);
+            deltaChainLength++;
+        }
+        return !deltas.isEmpty();
+    }
+
+    /**
+     * Reads the magic number of a kryo stream, or leaves the stream untouched if it was written before the model serializers.
+     */
+    private static Pool<Kryo> streamKryoPool(BufferedInputStream in) throws IOException {
+        in.mark(Integer.BYTES);
+        if (new DataInputStream(in).readInt() == KRYO_STREAM_MAGIC) {
+            return kryoPool;
+        }
+        in.reset();
+        return legacyKryoPool;
+    }
+
+    /**
+     * Opens a kryo stream starting with its magic number, written big-endian as {@link #streamKryoPool} reads it :
+     * kryo writes its ints little-endian.
+     */
+    private Output kryoStreamOutput(String fileName) throws IOException {
+        OutputStream out = compress(new FileOutputStream(fileName));
+        try {
+            new DataOutputStream(out).writeInt(KRYO_STREAM_MAGIC);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        return new Output(out, bufferSize);
+    }
+
+    private static <V> HashMap<String, V> upserts(MapDifference<String, V> diff) {
+        HashMap<String, V> upserts = new HashMap<>(diff.entriesOnlyOnRight());
+        diff.entriesDiffering().forEach((key, values) -> upserts.put(key, values.rightValue()));
+        return upserts;
+    }
+
+    private OutputStream compress(OutputStream out) throws IOException {
+        return SnapshotCompression.fromValue(compression).compress(out, compressionLevel);
+    }
+
+    private FingerprintIndex loadIndex(File indexFile) {
+        if (indexFile.exists()) {
+            try {
+                FingerprintIndex index = FingerprintIndex.readFrom(indexFile);
+                if (index.size() == psMap.size()) {
+                    return index;
+                }
+                log.warn("fingerprint index {} does not match the ser file", indexFile.getName());
+            } catch (IOException e) {
+                log.warn("fingerprint index {} is unreadable", indexFile.getName(), e);
+            }
+        }
+        log.info("computing fingerprint index of the deserialized Ps map");
+        return FingerprintIndex.of(psMap);
+    }
+
+    private static File getIndexFile(File serFile) {
+        String name = serFile.getName();
+        int extension = name.lastIndexOf('.');
+        return new File(serFile.getParentFile(), (extension < 0 ? name : name.substring(0, extension)) + ".fpi");
+    }
+
 }
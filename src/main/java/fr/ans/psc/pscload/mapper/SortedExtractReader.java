@@ -0,0 +1,107 @@
+package fr.ans.psc.pscload.mapper;
+
+import com.univocity.parsers.csv.CsvParser;
+import com.univocity.parsers.csv.CsvParserSettings;
+import fr.ans.psc.pscload.model.Professionnel;
+import fr.ans.psc.pscload.model.Structure;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * The type Sorted extract reader.
+ * Reads a file produced by {@link ExtractSorter} one entity at a time : consecutive rows sharing the key
+ * are merged the same way {@link Loader} merges them into its maps.
+ */
+public class SortedExtractReader implements Closeable {
+
+    private static final int ROW_LENGTH = 50;
+
+    private final BufferedReader reader;
+
+    private final CsvParser parser = newRowParser();
+
+    private final int keyColumn;
+
+    private String[] pendingRow;
+
+    /**
+     * Instantiates a new Sorted extract reader.
+     *
+     * @param sortedFile the sorted file
+     * @param keyColumn  the column the file is sorted by
+     * @throws IOException the io exception
+     */
+    public SortedExtractReader(File sortedFile, int keyColumn) throws IOException {
+        this.reader = Files.newBufferedReader(sortedFile.toPath(), StandardCharsets.UTF_8);
+        this.keyColumn = keyColumn;
+        this.pendingRow = readRow();
+    }
+
+    static CsvParser newRowParser() {
+        CsvParserSettings parserSettings = new CsvParserSettings();
+        parserSettings.getFormat().setLineSeparator("\n");
+        parserSettings.getFormat().setDelimiter('|');
+        parserSettings.setNullValue("");
+        // fields are not bounded, the parser grows its buffer to the longest one
+        parserSettings.setMaxCharsPerColumn(-1);
+        return new CsvParser(parserSettings);
+    }
+
+    /**
+     * Next ps, rows of a file sorted by nationalId.
+     *
+     * @return the professionnel, null when the file is exhausted
+     * @throws IOException the io exception
+     */
+    public Professionnel nextProfessionnel() throws IOException {
+        if (pendingRow == null) {
+            return null;
+        }
+        Professionnel ps = new Professionnel(pendingRow);
+        String key = pendingRow[keyColumn];
+        while ((pendingRow = readRow()) != null && key.equals(pendingRow[keyColumn])) {
+            Loader.mapExPro(new Professionnel(pendingRow), ps);
+        }
+        return ps;
+    }
+
+    /**
+     * Next structure, rows of a file sorted by structure id. The first row of a structure wins.
+     *
+     * @return the structure, null when the file is exhausted
+     * @throws IOException the io exception
+     */
+    public Structure nextStructure() throws IOException {
+        if (pendingRow == null) {
+            return null;
+        }
+        Structure structure = new Structure(pendingRow);
+        String key = pendingRow[keyColumn];
+        while ((pendingRow = readRow()) != null && key.equals(pendingRow[keyColumn])) {
+            // same structure found on another row
+        }
+        return structure;
+    }
+
+    private String[] readRow() throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+        String[] items = parser.parseLine(line);
+        if (items.length != ROW_LENGTH) {
+            throw new IllegalArgumentException();
+        }
+        return items;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
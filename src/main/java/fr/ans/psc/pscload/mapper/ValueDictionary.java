@@ -0,0 +1,23 @@
+package fr.ans.psc.pscload.mapper;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import org.springframework.stereotype.Component;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * The type Value dictionary.
+ * Shares one instance per distinct code value between the loaded and the deserialized snapshots.
+ * Entries are weakly referenced, values no snapshot uses anymore are collected.
+ */
+@Component
+public class ValueDictionary implements UnaryOperator<String> {
+
+    private final Interner<String> interner = Interners.newWeakInterner();
+
+    @Override
+    public String apply(String value) {
+        return value == null ? null : interner.intern(value);
+    }
+}
@@ -39,6 +39,21 @@ public class CustomMetrics {
         ID_TYPE(String value) {
             this.value = value;
         }
+
+        /**
+         * Get the id type of a value.
+         *
+         * @param value the value
+         * @return the id type, null if unknown
+         */
+        public static ID_TYPE fromValue(String value) {
+            for (ID_TYPE idType : values()) {
+                if (idType.value.equals(value)) {
+                    return idType;
+                }
+            }
+            return null;
+        }
     }
 
     public enum OPERATION {
@@ -110,7 +125,12 @@ public class CustomMetrics {
     }
 
     public enum MiscCustomMetric {
-        STAGE
+        STAGE,
+        UPLOAD_CONCURRENCY_LIMIT,
+        PIPELINE_QUEUE_SIZE,
+        PIPELINE_DIFF_SECONDS,
+        PIPELINE_UPLOAD_SECONDS,
+        PIPELINE_OVERLAP_SECONDS
     }
 
     /**
@@ -120,6 +140,13 @@ public class CustomMetrics {
      */
     public CustomMetrics(MeterRegistry meterRegistry) {
         appMiscGauges.put(MiscCustomMetric.STAGE, meterRegistry.gauge("pscload.stage", new AtomicInteger(0)));
+        // requests allowed in flight to the api, set by the upload limiter
+        appMiscGauges.put(MiscCustomMetric.UPLOAD_CONCURRENCY_LIMIT, meterRegistry.gauge("pscload.upload.concurrency.limit", new AtomicInteger(0)));
+        // pipelined diff and upload : changes waiting for the uploader, and the time of each stage in the last run
+        appMiscGauges.put(MiscCustomMetric.PIPELINE_QUEUE_SIZE, meterRegistry.gauge("pscload.pipeline.queue.size", new AtomicInteger(0)));
+        appMiscGauges.put(MiscCustomMetric.PIPELINE_DIFF_SECONDS, meterRegistry.gauge("pscload.pipeline.diff.seconds", new AtomicInteger(0)));
+        appMiscGauges.put(MiscCustomMetric.PIPELINE_UPLOAD_SECONDS, meterRegistry.gauge("pscload.pipeline.upload.seconds", new AtomicInteger(0)));
+        appMiscGauges.put(MiscCustomMetric.PIPELINE_OVERLAP_SECONDS, meterRegistry.gauge("pscload.pipeline.overlap.seconds", new AtomicInteger(0)));
 
         // Initialization of metrics
 
@@ -199,24 +226,41 @@ public class CustomMetrics {
     }
 
     public void setUploadSizeMetricsAfterDeserializing(Map<String, Professionnel> psMap, Map<String, Structure> structureMap) {
-        appPsSizeGauges.get(PsCustomMetric.PS_ADELI_UPLOAD_SIZE).set(
-                Math.toIntExact(psMap.values().stream().filter(professionnel ->
-                        ID_TYPE.ADELI.value.equals(professionnel.getIdType())).count()));
+        setUploadSizeMetricsAfterDeserializing(PsSizeCounts.of(psMap.values(), OPERATION.UPLOAD), structureMap.size());
+    }
 
-        appPsSizeGauges.get(PsCustomMetric.PS_FINESS_UPLOAD_SIZE).set(
-                Math.toIntExact(psMap.values().stream().filter(professionnel ->
-                        ID_TYPE.FINESS.value.equals(professionnel.getIdType())).count()));
+    /**
+     * Sets upload size metrics from counts already known.
+     *
+     * @param psCounts       the ps counts, of the upload operation
+     * @param structureCount the structure count
+     */
+    public void setUploadSizeMetricsAfterDeserializing(PsSizeCounts psCounts, int structureCount) {
+        setPsSizeMetrics(psCounts, OPERATION.UPLOAD);
 
-        appPsSizeGauges.get(PsCustomMetric.PS_SIRET_UPLOAD_SIZE).set(
-                Math.toIntExact(psMap.values().stream().filter(professionnel ->
-                        ID_TYPE.SIRET.value.equals(professionnel.getIdType())).count()));
+        appStructureSizeGauges.get(StructureCustomMetric.STRUCTURE_UPLOAD_SIZE).set(structureCount);
+    }
 
-        appPsSizeGauges.get(PsCustomMetric.PS_RPPS_UPLOAD_SIZE).set(
-                Math.toIntExact(psMap.values().stream().filter(professionnel ->
-                        ID_TYPE.RPPS.value.equals(professionnel.getIdType())).count()));
+    /**
+     * Sets the ps size gauges of some operations, for every id type.
+     *
+     * @param counts     the counts
+     * @param operations the operations
+     */
+    public void setPsSizeMetrics(PsSizeCounts counts, OPERATION... operations) {
+        Arrays.stream(ID_TYPE.values()).forEach(idType -> Arrays.stream(operations).forEach(operation ->
+                appPsSizeGauges.get(psSizeMetric(idType, operation)).set(counts.get(idType, operation))));
+    }
 
-        appStructureSizeGauges.get(StructureCustomMetric.STRUCTURE_UPLOAD_SIZE).set(
-                structureMap.values().size());
+    /**
+     * Gets the ps size metric of an id type and operation.
+     *
+     * @param idType    the id type
+     * @param operation the operation
+     * @return the ps size metric
+     */
+    public static PsCustomMetric psSizeMetric(ID_TYPE idType, OPERATION operation) {
+        return PsCustomMetric.valueOf(String.join("_", ENTITY_TYPE.PS.name(), idType.name(), operation.name(), "SIZE"));
     }
 
     /**
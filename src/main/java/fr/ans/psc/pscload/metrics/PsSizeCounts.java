@@ -0,0 +1,76 @@
+package fr.ans.psc.pscload.metrics;
+
+import fr.ans.psc.pscload.model.Professionnel;
+
+import java.util.Collection;
+
+/**
+ * The type Ps size counts.
+ * Counts ps by idType and operation while they are traversed once, the gauges are set afterwards from the totals.
+ */
+public class PsSizeCounts {
+
+    private static final int OPERATION_COUNT = CustomMetrics.OPERATION.values().length;
+
+    private final int[] counts = new int[CustomMetrics.ID_TYPE.values().length * OPERATION_COUNT];
+
+    /**
+     * Count every ps of a collection for one operation.
+     *
+     * @param psList    the ps
+     * @param operation the operation
+     * @return the counts
+     */
+    public static PsSizeCounts of(Collection<Professionnel> psList, CustomMetrics.OPERATION operation) {
+        PsSizeCounts counts = new PsSizeCounts();
+        for (Professionnel ps : psList) {
+            counts.add(ps, operation);
+        }
+        return counts;
+    }
+
+    /**
+     * Count a ps, ps with an unknown idType are ignored.
+     *
+     * @param ps        the ps
+     * @param operation the operation
+     */
+    public void add(Professionnel ps, CustomMetrics.OPERATION operation) {
+        add(ps.getIdType(), operation);
+    }
+
+    /**
+     * Count a ps by its idType value, unknown values are ignored.
+     *
+     * @param idTypeValue the id type value
+     * @param operation   the operation
+     */
+    public void add(String idTypeValue, CustomMetrics.OPERATION operation) {
+        CustomMetrics.ID_TYPE idType = CustomMetrics.ID_TYPE.fromValue(idTypeValue);
+        if (idType != null) {
+            add(idType, operation, 1);
+        }
+    }
+
+    /**
+     * Add to a count.
+     *
+     * @param idType    the id type
+     * @param operation the operation
+     * @param count     the count to add
+     */
+    public void add(CustomMetrics.ID_TYPE idType, CustomMetrics.OPERATION operation, int count) {
+        counts[idType.ordinal() * OPERATION_COUNT + operation.ordinal()] += count;
+    }
+
+    /**
+     * Get a count.
+     *
+     * @param idType    the id type
+     * @param operation the operation
+     * @return the count
+     */
+    public int get(CustomMetrics.ID_TYPE idType, CustomMetrics.OPERATION operation) {
+        return counts[idType.ordinal() * OPERATION_COUNT + operation.ordinal()];
+    }
+}
@@ -1,9 +1,11 @@
 package fr.ans.psc.pscload.model;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.hash.PrimitiveSink;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.function.UnaryOperator;
 
 public class ExerciceProfessionnel implements Serializable {
 
@@ -31,13 +33,19 @@ public class ExerciceProfessionnel implements Serializable {
     public ExerciceProfessionnel() {}
 
     public ExerciceProfessionnel(String[] items) {
+        this(items, true);
+    }
+
+    public ExerciceProfessionnel(String[] items, boolean deep) {
         this.code = items[13];
         this.categoryCode = items[14];
         this.salutationCode = items[15];
         this.lastName = items[16];
         this.firstName = items[17];
-        this.expertises.add(new SavoirFaire(items));
-        this.workSituations.add(new SituationExercice(items));
+        if (deep) {
+            this.expertises.add(new SavoirFaire(items));
+            this.workSituations.add(new SituationExercice(items));
+        }
     }
 
     public ExerciceProfessionnel(ExerciceProfessionnel exPro) {
@@ -77,6 +85,41 @@ public class ExerciceProfessionnel implements Serializable {
         return Objects.hash(code, categoryCode, salutationCode, lastName, firstName);
     }
 
+    /**
+     * Writes the attributes at their position in an extract row.
+     *
+     * @param items the row items
+     */
+    public void fillItems(String[] items) {
+        items[13] = code;
+        items[14] = categoryCode;
+        items[15] = salutationCode;
+        items[16] = lastName;
+        items[17] = firstName;
+    }
+
+    /**
+     * Replaces low cardinality values by their shared instance.
+     *
+     * @param dictionary the dictionary
+     */
+    public void internCodes(UnaryOperator<String> dictionary) {
+        code = dictionary.apply(code);
+        categoryCode = dictionary.apply(categoryCode);
+        salutationCode = dictionary.apply(salutationCode);
+        expertises.forEach(expertise -> expertise.internCodes(dictionary));
+        workSituations.forEach(situation -> situation.internCodes(dictionary));
+    }
+
+    /**
+     * Feeds the basic attributes, the ones covered by nakedHash, to a digest.
+     *
+     * @param sink the sink
+     */
+    public void funnelNaked(PrimitiveSink sink) {
+        PsFingerprint.putFields(sink, code, categoryCode, salutationCode, lastName, firstName);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
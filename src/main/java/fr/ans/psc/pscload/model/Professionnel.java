@@ -1,9 +1,11 @@
 package fr.ans.psc.pscload.model;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.hash.PrimitiveSink;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.function.UnaryOperator;
 
 /**
  * The type Professionnel.
@@ -109,6 +111,50 @@ public class Professionnel implements Serializable {
         return Objects.hash(idType, id, getNationalId(), lastName, firstName, dateOfBirth, birthAddressCode, birthCountryCode, birthAddress, genderCode, phone, email, salutationCode);
     }
 
+    /**
+     * Writes the attributes at their position in an extract row.
+     *
+     * @param items the row items
+     */
+    public void fillItems(String[] items) {
+        items[0] = idType;
+        items[1] = id;
+        items[2] = nationalId;
+        items[3] = lastName;
+        items[4] = firstName;
+        items[5] = dateOfBirth;
+        items[6] = birthAddressCode;
+        items[7] = birthCountryCode;
+        items[8] = birthAddress;
+        items[9] = genderCode;
+        items[10] = phone;
+        items[11] = email;
+        items[12] = salutationCode;
+    }
+
+    /**
+     * Replaces low cardinality values by their shared instance.
+     *
+     * @param dictionary the dictionary
+     */
+    public void internCodes(UnaryOperator<String> dictionary) {
+        idType = dictionary.apply(idType);
+        birthCountryCode = dictionary.apply(birthCountryCode);
+        genderCode = dictionary.apply(genderCode);
+        salutationCode = dictionary.apply(salutationCode);
+        professions.forEach(exPro -> exPro.internCodes(dictionary));
+    }
+
+    /**
+     * Feeds the basic attributes, the ones covered by nakedHash, to a digest.
+     *
+     * @param sink the sink
+     */
+    public void funnelNaked(PrimitiveSink sink) {
+        PsFingerprint.putFields(sink, idType, id, nationalId, lastName, firstName, dateOfBirth, birthAddressCode,
+                birthCountryCode, birthAddress, genderCode, phone, email, salutationCode);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,187 @@
+package fr.ans.psc.pscload.model;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.PrimitiveSink;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The type Ps fingerprint.
+ * 128-bit content digest of a PS, with a sub-digest per profession.
+ * Children are combined by summing their digests, so like equals the fingerprint does not depend on list order.
+ */
+public class PsFingerprint {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final long high;
+
+    private final long low;
+
+    private final String[] professionIds;
+
+    // two longs per profession, in the order of professionIds
+    private final long[] professionDigests;
+
+    /**
+     * Instantiates a new Ps fingerprint.
+     *
+     * @param high              the high bits
+     * @param low               the low bits
+     * @param professionIds     the profession ids
+     * @param professionDigests the profession digests
+     */
+    public PsFingerprint(long high, long low, String[] professionIds, long[] professionDigests) {
+        this.high = high;
+        this.low = low;
+        this.professionIds = professionIds;
+        this.professionDigests = professionDigests;
+    }
+
+    /**
+     * Compute the fingerprint of a ps.
+     *
+     * @param ps the ps
+     * @return the fingerprint
+     */
+    public static PsFingerprint of(Professionnel ps) {
+        List<ExerciceProfessionnel> professions = ps.getProfessions();
+        String[] professionIds = new String[professions.size()];
+        long[] professionDigests = new long[professions.size() * 2];
+        long professionsHigh = 0;
+        long professionsLow = 0;
+        for (int i = 0; i < professions.size(); i++) {
+            long[] digest = digest(professions.get(i));
+            professionIds[i] = professions.get(i).getProfessionId();
+            professionDigests[2 * i] = digest[0];
+            professionDigests[2 * i + 1] = digest[1];
+            professionsHigh += digest[0];
+            professionsLow += digest[1];
+        }
+
+        Hasher hasher = HASH_FUNCTION.newHasher();
+        ps.funnelNaked(hasher);
+        hasher.putLong(professionsHigh).putLong(professionsLow);
+        long[] digest = toLongs(hasher);
+        return new PsFingerprint(digest[0], digest[1], professionIds, professionDigests);
+    }
+
+    /**
+     * Compute the digest of a profession, its expertises and work situations included.
+     *
+     * @param exPro the ex pro
+     * @return the digest as two longs
+     */
+    public static long[] digest(ExerciceProfessionnel exPro) {
+        long expertisesHigh = 0;
+        long expertisesLow = 0;
+        for (SavoirFaire expertise : exPro.getExpertises()) {
+            Hasher hasher = HASH_FUNCTION.newHasher();
+            expertise.funnel(hasher);
+            long[] digest = toLongs(hasher);
+            expertisesHigh += digest[0];
+            expertisesLow += digest[1];
+        }
+        long situationsHigh = 0;
+        long situationsLow = 0;
+        for (SituationExercice situation : exPro.getWorkSituations()) {
+            Hasher hasher = HASH_FUNCTION.newHasher();
+            situation.funnelNaked(hasher);
+            long structuresHash = 0;
+            for (StructureRef structureRef : situation.getStructures()) {
+                structuresHash += HASH_FUNCTION.hashString(String.valueOf(structureRef.getStructureId()), StandardCharsets.UTF_8).asLong();
+            }
+            hasher.putLong(structuresHash);
+            long[] digest = toLongs(hasher);
+            situationsHigh += digest[0];
+            situationsLow += digest[1];
+        }
+
+        Hasher hasher = HASH_FUNCTION.newHasher();
+        exPro.funnelNaked(hasher);
+        hasher.putLong(expertisesHigh).putLong(expertisesLow).putLong(situationsHigh).putLong(situationsLow);
+        return toLongs(hasher);
+    }
+
+    /**
+     * Feed nullable string fields to a digest, null and empty values stay distinct.
+     *
+     * @param sink   the sink
+     * @param fields the fields
+     */
+    static void putFields(PrimitiveSink sink, String... fields) {
+        for (String field : fields) {
+            if (field == null) {
+                sink.putInt(-1);
+            } else {
+                sink.putInt(field.length());
+                sink.putString(field, StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    private static long[] toLongs(Hasher hasher) {
+        ByteBuffer bytes = ByteBuffer.wrap(hasher.hash().asBytes());
+        return new long[]{bytes.getLong(), bytes.getLong()};
+    }
+
+    /**
+     * Gets the digest of a profession.
+     *
+     * @param professionId the profession id
+     * @return the digest as two longs, null if the ps has no such profession
+     */
+    public long[] getProfessionDigest(String professionId) {
+        for (int i = 0; i < professionIds.length; i++) {
+            if (professionIds[i].equals(professionId)) {
+                return new long[]{professionDigests[2 * i], professionDigests[2 * i + 1]};
+            }
+        }
+        return null;
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    public String[] getProfessionIds() {
+        return professionIds;
+    }
+
+    public long[] getProfessionDigests() {
+        return professionDigests;
+    }
+
+    /**
+     * Same content as another fingerprint, profession sub-digests are implied by the main digest.
+     *
+     * @param that the other fingerprint
+     * @return true if the digests match
+     */
+    public boolean sameContent(PsFingerprint that) {
+        return that != null && high == that.high && low == that.low;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PsFingerprint)) return false;
+        PsFingerprint that = (PsFingerprint) o;
+        return high == that.high && low == that.low && Arrays.equals(professionIds, that.professionIds) &&
+                Arrays.equals(professionDigests, that.professionDigests);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(high ^ low);
+    }
+}
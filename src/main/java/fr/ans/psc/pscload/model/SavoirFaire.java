@@ -1,9 +1,11 @@
 package fr.ans.psc.pscload.model;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.hash.PrimitiveSink;
 
 import java.io.Serializable;
 import java.util.Objects;
+import java.util.function.UnaryOperator;
 
 public class SavoirFaire implements Serializable {
 
@@ -29,6 +31,35 @@ public class SavoirFaire implements Serializable {
         return key;
     }
 
+    /**
+     * Writes the attributes at their position in an extract row.
+     *
+     * @param items the row items
+     */
+    public void fillItems(String[] items) {
+        items[18] = typeCode;
+        items[19] = code;
+    }
+
+    /**
+     * Replaces low cardinality values by their shared instance.
+     *
+     * @param dictionary the dictionary
+     */
+    public void internCodes(UnaryOperator<String> dictionary) {
+        typeCode = dictionary.apply(typeCode);
+        code = dictionary.apply(code);
+    }
+
+    /**
+     * Feeds the attributes to a digest.
+     *
+     * @param sink the sink
+     */
+    public void funnel(PrimitiveSink sink) {
+        PsFingerprint.putFields(sink, typeCode, code);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -1,11 +1,13 @@
 package fr.ans.psc.pscload.model;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.hash.PrimitiveSink;
 
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.UnaryOperator;
 
 public class SituationExercice implements Serializable {
 
@@ -27,11 +29,17 @@ public class SituationExercice implements Serializable {
     public SituationExercice() {}
 
     public SituationExercice(String[] items) {
+        this(items, true);
+    }
+
+    public SituationExercice(String[] items, boolean deep) {
         this.modeCode = items[20];
         this.activitySectorCode = items[21];
         this.pharmacistTableSectionCode = items[22];
         this.roleCode = items[23];
-        this.structures.add(new StructureRef(items[28]));  // structureTechnicalId
+        if (deep) {
+            this.structures.add(new StructureRef(items[28]));  // structureTechnicalId
+        }
     }
 
     public List<StructureRef> getStructures() {
@@ -49,6 +57,40 @@ public class SituationExercice implements Serializable {
         return key;
     }
 
+    /**
+     * Writes the attributes at their position in an extract row.
+     *
+     * @param items the row items
+     */
+    public void fillItems(String[] items) {
+        items[20] = modeCode;
+        items[21] = activitySectorCode;
+        items[22] = pharmacistTableSectionCode;
+        items[23] = roleCode;
+    }
+
+    /**
+     * Replaces low cardinality values by their shared instance.
+     *
+     * @param dictionary the dictionary
+     */
+    public void internCodes(UnaryOperator<String> dictionary) {
+        modeCode = dictionary.apply(modeCode);
+        activitySectorCode = dictionary.apply(activitySectorCode);
+        pharmacistTableSectionCode = dictionary.apply(pharmacistTableSectionCode);
+        roleCode = dictionary.apply(roleCode);
+        structures.forEach(structureRef -> structureRef.internCodes(dictionary));
+    }
+
+    /**
+     * Feeds the basic attributes, structures excluded, to a digest.
+     *
+     * @param sink the sink
+     */
+    public void funnelNaked(PrimitiveSink sink) {
+        PsFingerprint.putFields(sink, modeCode, activitySectorCode, pharmacistTableSectionCode, roleCode);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
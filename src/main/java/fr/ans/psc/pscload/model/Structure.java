@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.io.Serializable;
 import java.util.Objects;
+import java.util.function.UnaryOperator;
 
 public class Structure implements Serializable {
 
@@ -116,6 +117,55 @@ public class Structure implements Serializable {
         return Objects.toString(structureTechnicalId, "");
     }
 
+    /**
+     * Writes the attributes at their position in an extract row.
+     *
+     * @param items the row items
+     */
+    public void fillItems(String[] items) {
+        items[24] = siteSIRET;
+        items[25] = siteSIREN;
+        items[26] = siteFINESS;
+        items[27] = legalEstablishmentFINESS;
+        items[28] = structureTechnicalId;
+        items[29] = legalCommercialName;
+        items[30] = publicCommercialName;
+        items[31] = recipientAdditionalInfo;
+        items[32] = geoLocationAdditionalInfo;
+        items[33] = streetNumber;
+        items[34] = streetNumberRepetitionIndex;
+        items[35] = streetCategoryCode;
+        items[36] = streetLabel;
+        items[37] = distributionMention;
+        items[38] = cedexOffice;
+        items[39] = postalCode;
+        items[40] = communeCode;
+        items[41] = countryCode;
+        items[42] = phone;
+        items[43] = phone2;
+        items[44] = fax;
+        items[45] = email;
+        items[46] = departmentCode;
+        items[47] = oldStructureId;
+        items[48] = registrationAuthority;
+    }
+
+    /**
+     * Replaces low cardinality values by their shared instance.
+     *
+     * @param dictionary the dictionary
+     */
+    public void internCodes(UnaryOperator<String> dictionary) {
+        streetNumberRepetitionIndex = dictionary.apply(streetNumberRepetitionIndex);
+        streetCategoryCode = dictionary.apply(streetCategoryCode);
+        cedexOffice = dictionary.apply(cedexOffice);
+        postalCode = dictionary.apply(postalCode);
+        communeCode = dictionary.apply(communeCode);
+        countryCode = dictionary.apply(countryCode);
+        departmentCode = dictionary.apply(departmentCode);
+        registrationAuthority = dictionary.apply(registrationAuthority);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -2,6 +2,8 @@ package fr.ans.psc.pscload.model;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.function.UnaryOperator;
+
 public class StructureRef {
 
     @JsonProperty("structureId")
@@ -17,4 +19,13 @@ public class StructureRef {
         return structureId;
     }
 
+    /**
+     * Shares the structure id instance with the structure it references.
+     *
+     * @param dictionary the dictionary
+     */
+    public void internCodes(UnaryOperator<String> dictionary) {
+        structureId = dictionary.apply(structureId);
+    }
+
 }
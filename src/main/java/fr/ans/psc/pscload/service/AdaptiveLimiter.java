@@ -0,0 +1,147 @@
+package fr.ans.psc.pscload.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The type Adaptive limiter.
+ * Limits the requests in flight with an AIMD rule : each request answered in time adds 1/limit to the limit,
+ * so the limit grows by one per window of answered requests, and a server error, a timeout or a slow response
+ * multiplies it by the backoff ratio. Requests sent before the last decrease do not decrease it again,
+ * a burst of errors caused by one overloaded window only counts once.
+ */
+public class AdaptiveLimiter {
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double backoffRatio;
+
+    private final long latencyThresholdNanos;
+
+    private final AtomicInteger limitGauge;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition released = lock.newCondition();
+
+    private double limit;
+
+    private int inFlight;
+
+    private long lastDecrease;
+
+    /**
+     * Instantiates a new Adaptive limiter.
+     *
+     * @param initialLimit       the initial limit
+     * @param minLimit           the lowest limit
+     * @param maxLimit           the highest limit
+     * @param backoffRatio       the ratio applied to the limit on congestion, between 0 and 1
+     * @param latencyThresholdMs the response time above which a request counts as congestion, 0 to ignore latency
+     * @param limitGauge         the gauge exposing the current limit
+     */
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio, long latencyThresholdMs,
+                           AtomicInteger limitGauge) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.backoffRatio = backoffRatio;
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMs);
+        this.limitGauge = limitGauge;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.lastDecrease = System.nanoTime();
+        limitGauge.set((int) limit);
+    }
+
+    /**
+     * Wait until a request can be sent.
+     *
+     * @return the start time of the request, to give back on release
+     * @throws InterruptedException the interrupted exception
+     */
+    public long acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                released.await();
+            }
+            inFlight++;
+            return System.nanoTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release a request that was not sent or whose outcome tells nothing about the server load.
+     */
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release a request once answered, adjusting the limit to its outcome.
+     *
+     * @param start      the start time returned by acquire
+     * @param congestion true if the server answered with an error or did not answer
+     */
+    public void release(long start, boolean congestion) {
+        long now = System.nanoTime();
+        boolean slow = latencyThresholdNanos > 0 && now - start > latencyThresholdNanos;
+        lock.lock();
+        try {
+            int sent = inFlight;
+            inFlight--;
+            if (congestion || slow) {
+                if (start - lastDecrease > 0) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    lastDecrease = now;
+                }
+            } else if (sent * 2 >= (int) limit) {
+                // only grow a limit that is actually used
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            limitGauge.set((int) limit);
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the current limit.
+     *
+     * @return the limit
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the requests in flight.
+     *
+     * @return the requests in flight
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
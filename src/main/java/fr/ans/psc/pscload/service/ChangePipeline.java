@@ -0,0 +1,193 @@
+package fr.ans.psc.pscload.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The type Change pipeline.
+ * Hands the changes found by a diff over to an upload handler running on its own thread, through a bounded queue :
+ * the diff threads block while the queue is full, and an end marker tells the consumer the diff is over.
+ * A failure of the consumer is rethrown by {@link #finish()}, the changes after it are drained and dropped.
+ *
+ * @param <T> the entity type
+ */
+public class ChangePipeline<T> implements StreamingDiff.Handler<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(ChangePipeline.class);
+
+    private static final Change<?> END = new Change<>(null, null, null);
+
+    private static final long OFFER_TIMEOUT_MS = 100;
+
+    private final BlockingQueue<Change<T>> queue;
+
+    private final StreamingDiff.Handler<T> consumer;
+
+    private final AtomicInteger queueGauge;
+
+    private final Thread thread;
+
+    private volatile long firstChangeNanos;
+
+    private volatile Throwable failure;
+
+    /**
+     * Instantiates a new Change pipeline and starts its consumer.
+     *
+     * @param name       the name of the consumer thread
+     * @param capacity   the queue capacity
+     * @param consumer   the handler receiving the changes on the consumer thread
+     * @param queueGauge the gauge of the queued changes
+     */
+    public ChangePipeline(String name, int capacity, StreamingDiff.Handler<T> consumer, AtomicInteger queueGauge) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.consumer = consumer;
+        this.queueGauge = queueGauge;
+        this.thread = new Thread(this::consume, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void onDelete(T original) {
+        put(new Change<>(Kind.DELETE, original, null));
+    }
+
+    @Override
+    public void onCreate(T revised) {
+        put(new Change<>(Kind.CREATE, null, revised));
+    }
+
+    @Override
+    public void onUpdate(T original, T revised) {
+        put(new Change<>(Kind.UPDATE, original, revised));
+    }
+
+    /**
+     * Signal the end of the diff and wait until the consumer has handed over every change.
+     *
+     * @throws InterruptedException  the interrupted exception
+     * @throws IllegalStateException if the consumer failed, with its failure as cause
+     */
+    @SuppressWarnings("unchecked")
+    public void finish() throws InterruptedException {
+        try {
+            offer((Change<T>) END);
+            thread.join();
+        } catch (InterruptedException e) {
+            // the consumer would wait for the end marker forever
+            thread.interrupt();
+            throw e;
+        }
+        // changes left by a consumer stopped before the end marker are dropped
+        List<Change<T>> dropped = new ArrayList<>();
+        queue.drainTo(dropped);
+        queueGauge.addAndGet(-(int) dropped.stream().filter(change -> change != END).count());
+        if (failure != null) {
+            throw new IllegalStateException("Change pipeline " + thread.getName() + " failed", failure);
+        }
+    }
+
+    /**
+     * Gets the time the consumer took the first change.
+     *
+     * @return the nano time of the first change, 0 if there was none
+     */
+    public long getFirstChangeNanos() {
+        return firstChangeNanos;
+    }
+
+    private void put(Change<T> change) {
+        if (failure != null) {
+            // the changes would be dropped, the diff stops as well
+            throw new IllegalStateException("Change pipeline " + thread.getName() + " failed", failure);
+        }
+        queueGauge.incrementAndGet();
+        try {
+            if (!offer(change)) {
+                queueGauge.decrementAndGet();
+                throw new IllegalStateException("Change pipeline " + thread.getName() + " stopped", failure);
+            }
+        } catch (InterruptedException e) {
+            queueGauge.decrementAndGet();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queuing a change", e);
+        }
+    }
+
+    /**
+     * Waits for room in the queue as long as the consumer is alive.
+     *
+     * @return false if the consumer stopped
+     */
+    private boolean offer(Change<T> change) throws InterruptedException {
+        while (!queue.offer(change, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            if (!thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void consume() {
+        try {
+            Change<T> change;
+            while ((change = queue.take()) != END) {
+                queueGauge.decrementAndGet();
+                if (firstChangeNanos == 0) {
+                    firstChangeNanos = System.nanoTime();
+                }
+                if (failure != null) {
+                    // keep draining so that the diff never blocks on a dead consumer
+                    continue;
+                }
+                try {
+                    switch (change.kind) {
+                        case DELETE:
+                            consumer.onDelete(change.original);
+                            break;
+                        case CREATE:
+                            consumer.onCreate(change.revised);
+                            break;
+                        default:
+                            consumer.onUpdate(change.original, change.revised);
+                            break;
+                    }
+                } catch (Throwable e) {
+                    log.error("change pipeline {} failed, remaining changes are dropped", thread.getName(), e);
+                    failure = e;
+                }
+            }
+        } catch (InterruptedException e) {
+            failure = new IllegalStateException("Change pipeline interrupted", e);
+        }
+    }
+
+    private enum Kind {
+        DELETE,
+        CREATE,
+        UPDATE
+    }
+
+    private static class Change<T> {
+
+        private final Kind kind;
+
+        private final T original;
+
+        private final T revised;
+
+        private Change(Kind kind, T original, T revised) {
+            this.kind = kind;
+            this.original = original;
+            this.revised = revised;
+        }
+    }
+}
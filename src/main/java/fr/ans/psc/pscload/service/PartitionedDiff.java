@@ -0,0 +1,310 @@
+package fr.ans.psc.pscload.service;
+
+import com.google.common.base.Equivalence;
+import com.google.common.base.Objects;
+import com.google.common.collect.MapDifference;
+import com.google.common.collect.Maps;
+import fr.ans.psc.pscload.metrics.CustomMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * The type Partitioned diff.
+ * Computes map differences on a dedicated fork-join pool : the key table of each map is split into shards,
+ * each shard collects its own deletes, creates and updates, and counts them by category in the same pass.
+ */
+@Component
+public class PartitionedDiff {
+
+    private static final int SHARDS_PER_THREAD = 4;
+
+    @Value("${diff.parallelism:0}")
+    private int parallelism;
+
+    private ForkJoinPool pool;
+
+    @PostConstruct
+    void init() {
+        pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Diff two maps.
+     *
+     * @param <V>           the value type
+     * @param original      the original map
+     * @param revised       the revised map
+     * @param equivalence   the value equivalence
+     * @param category      the category of a value, negative values are not counted
+     * @param categoryCount the number of categories
+     * @return the difference, with its counts
+     */
+    public <V> Difference<V> diff(Map<String, V> original, Map<String, V> revised, Equivalence<? super V> equivalence,
+                                  ToIntFunction<? super V> category, int categoryCount) {
+        return diff(original, revised, key -> false, equivalence, category, categoryCount);
+    }
+
+    /**
+     * Diff two maps, skipping the values of keys known to be unchanged.
+     *
+     * @param <V>           the value type
+     * @param original      the original map
+     * @param revised       the revised map
+     * @param unchanged     tells from the key only that both values are equivalent, values are not read then
+     * @param equivalence   the value equivalence
+     * @param category      the category of a value, negative values are not counted
+     * @param categoryCount the number of categories
+     * @return the difference, with its counts
+     */
+    public <V> Difference<V> diff(Map<String, V> original, Map<String, V> revised, Predicate<String> unchanged,
+                                  Equivalence<? super V> equivalence, ToIntFunction<? super V> category, int categoryCount) {
+        return diff(original, revised, unchanged, equivalence, category, categoryCount, null);
+    }
+
+    /**
+     * Diff two maps, handing each change over as soon as a shard finds it.
+     * The handler is called from the diff threads, concurrently.
+     *
+     * @param <V>           the value type
+     * @param original      the original map
+     * @param revised       the revised map
+     * @param unchanged     tells from the key only that both values are equivalent, values are not read then
+     * @param equivalence   the value equivalence
+     * @param category      the category of a value, negative values are not counted
+     * @param categoryCount the number of categories
+     * @param changes       the handler of the changes, or null
+     * @return the difference, with its counts
+     */
+    public <V> Difference<V> diff(Map<String, V> original, Map<String, V> revised, Predicate<String> unchanged,
+                                  Equivalence<? super V> equivalence, ToIntFunction<? super V> category, int categoryCount,
+                                  StreamingDiff.Handler<V> changes) {
+        String[] originalKeys = original.keySet().toArray(new String[0]);
+        String[] revisedKeys = revised.keySet().toArray(new String[0]);
+        int shardCount = pool.getParallelism() * SHARDS_PER_THREAD;
+
+        List<Shard<V>> shards;
+        try {
+            shards = pool.submit(() -> IntStream.range(0, shardCount).parallel().mapToObj(shardIndex -> {
+                Shard<V> shard = new Shard<>(categoryCount);
+                for (int i = from(shardIndex, shardCount, originalKeys.length); i < from(shardIndex + 1, shardCount, originalKeys.length); i++) {
+                    String key = originalKeys[i];
+                    if (!revised.containsKey(key)) {
+                        V left = original.get(key);
+                        shard.onlyOnLeft.put(key, left);
+                        shard.count(category.applyAsInt(left), CustomMetrics.OPERATION.DELETE);
+                        if (changes != null) {
+                            changes.onDelete(left);
+                        }
+                    } else if (!unchanged.test(key)) {
+                        V left = original.get(key);
+                        V right = revised.get(key);
+                        if (!equivalence.equivalent(left, right)) {
+                            shard.differing.put(key, new ValueDifference<>(left, right));
+                            shard.count(category.applyAsInt(left), CustomMetrics.OPERATION.UPDATE);
+                            if (changes != null) {
+                                changes.onUpdate(left, right);
+                            }
+                        }
+                    }
+                }
+                for (int i = from(shardIndex, shardCount, revisedKeys.length); i < from(shardIndex + 1, shardCount, revisedKeys.length); i++) {
+                    String key = revisedKeys[i];
+                    if (!original.containsKey(key)) {
+                        V right = revised.get(key);
+                        shard.onlyOnRight.put(key, right);
+                        shard.count(category.applyAsInt(right), CustomMetrics.OPERATION.CREATE);
+                        if (changes != null) {
+                            changes.onCreate(right);
+                        }
+                    }
+                }
+                return shard;
+            }).collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Diff interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Diff failed", e.getCause());
+        }
+
+        return new Difference<>(original, shards, categoryCount);
+    }
+
+    private static int from(int shardIndex, int shardCount, int length) {
+        return (int) ((long) length * shardIndex / shardCount);
+    }
+
+    private static int operationIndex(CustomMetrics.OPERATION operation) {
+        switch (operation) {
+            case DELETE:
+                return 0;
+            case CREATE:
+                return 1;
+            default:
+                return 2;
+        }
+    }
+
+    private static class Shard<V> {
+
+        private final Map<String, V> onlyOnLeft = new HashMap<>();
+
+        private final Map<String, V> onlyOnRight = new HashMap<>();
+
+        private final Map<String, MapDifference.ValueDifference<V>> differing = new HashMap<>();
+
+        private final int[] counts;
+
+        private Shard(int categoryCount) {
+            counts = new int[categoryCount * 3];
+        }
+
+        private void count(int category, CustomMetrics.OPERATION operation) {
+            if (category >= 0) {
+                counts[category * 3 + operationIndex(operation)]++;
+            }
+        }
+    }
+
+    /**
+     * The difference of two maps, built from the shards.
+     *
+     * @param <V> the value type
+     */
+    public static class Difference<V> implements MapDifference<String, V> {
+
+        private final Map<String, V> onlyOnLeft;
+
+        private final Map<String, V> onlyOnRight;
+
+        private final Map<String, MapDifference.ValueDifference<V>> differing;
+
+        private final Map<String, V> inCommon;
+
+        private final int[] counts;
+
+        private Difference(Map<String, V> original, List<Shard<V>> shards, int categoryCount) {
+            Map<String, V> left = new HashMap<>(capacity(shards.stream().mapToInt(shard -> shard.onlyOnLeft.size()).sum()));
+            Map<String, V> right = new HashMap<>(capacity(shards.stream().mapToInt(shard -> shard.onlyOnRight.size()).sum()));
+            Map<String, MapDifference.ValueDifference<V>> both = new HashMap<>(capacity(shards.stream().mapToInt(shard -> shard.differing.size()).sum()));
+            counts = new int[categoryCount * 3];
+            for (Shard<V> shard : shards) {
+                left.putAll(shard.onlyOnLeft);
+                right.putAll(shard.onlyOnRight);
+                both.putAll(shard.differing);
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += shard.counts[i];
+                }
+            }
+            onlyOnLeft = Collections.unmodifiableMap(left);
+            onlyOnRight = Collections.unmodifiableMap(right);
+            differing = Collections.unmodifiableMap(both);
+            // a view, unchanged entries are not copied
+            inCommon = Maps.filterKeys(Collections.unmodifiableMap(original),
+                    key -> !onlyOnLeft.containsKey(key) && !differing.containsKey(key));
+        }
+
+        private static int capacity(int size) {
+            return size * 4 / 3 + 1;
+        }
+
+        /**
+         * Gets the number of changes of a category.
+         *
+         * @param category  the category
+         * @param operation the operation, DELETE, CREATE or UPDATE
+         * @return the count
+         */
+        public int getCount(int category, CustomMetrics.OPERATION operation) {
+            return counts[category * 3 + operationIndex(operation)];
+        }
+
+        @Override
+        public boolean areEqual() {
+            return onlyOnLeft.isEmpty() && onlyOnRight.isEmpty() && differing.isEmpty();
+        }
+
+        @Override
+        public Map<String, V> entriesOnlyOnLeft() {
+            return onlyOnLeft;
+        }
+
+        @Override
+        public Map<String, V> entriesOnlyOnRight() {
+            return onlyOnRight;
+        }
+
+        @Override
+        public Map<String, V> entriesInCommon() {
+            return inCommon;
+        }
+
+        @Override
+        public Map<String, MapDifference.ValueDifference<V>> entriesDiffering() {
+            return differing;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof MapDifference)) return false;
+            MapDifference<?, ?> that = (MapDifference<?, ?>) o;
+            return onlyOnLeft.equals(that.entriesOnlyOnLeft()) && onlyOnRight.equals(that.entriesOnlyOnRight())
+                    && inCommon.equals(that.entriesInCommon()) && differing.equals(that.entriesDiffering());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(onlyOnLeft, onlyOnRight, inCommon, differing);
+        }
+    }
+
+    private static class ValueDifference<V> implements MapDifference.ValueDifference<V> {
+
+        private final V left;
+
+        private final V right;
+
+        private ValueDifference(V left, V right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public V leftValue() {
+            return left;
+        }
+
+        @Override
+        public V rightValue() {
+            return right;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MapDifference.ValueDifference)) return false;
+            MapDifference.ValueDifference<?> that = (MapDifference.ValueDifference<?>) o;
+            return Objects.equal(left, that.leftValue()) && Objects.equal(right, that.rightValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(left, right);
+        }
+    }
+}
@@ -1,17 +1,24 @@
 package fr.ans.psc.pscload.service;
 
+import com.google.common.base.Equivalence;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
 import fr.ans.psc.pscload.component.JsonFormatter;
 import fr.ans.psc.pscload.exceptions.PsRefUnavailableException;
+import fr.ans.psc.pscload.mapper.ChangeSetFile;
+import fr.ans.psc.pscload.mapper.FingerprintIndex;
 import fr.ans.psc.pscload.metrics.CustomMetrics;
+import fr.ans.psc.pscload.metrics.PsSizeCounts;
 import fr.ans.psc.pscload.model.*;
 import fr.ans.psc.pscload.service.task.Create;
 import fr.ans.psc.pscload.service.task.Delete;
+import fr.ans.psc.pscload.service.task.JsonBody;
+import fr.ans.psc.pscload.service.task.Task;
 import fr.ans.psc.pscload.service.task.Update;
-import okhttp3.Call;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,7 +30,11 @@ import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * The type Psc rest api.
@@ -39,7 +50,20 @@ public class PscRestApi {
     @Autowired
     private JsonFormatter jsonFormatter;
 
-    final Request.Builder requestBuilder = new Request.Builder().header("Connection", "close");
+    @Autowired
+    private OkHttpClient httpClient;
+
+    @Autowired
+    private UploadExecutor uploadExecutor;
+
+    @Autowired
+    private PartitionedDiff partitionedDiff;
+
+    @Autowired
+    private RetryQueue retryQueue;
+
+    @Autowired
+    private UploadJournal uploadJournal;
 
     @Value("${api.base.url}")
     private String apiBaseUrl;
@@ -47,6 +71,12 @@ public class PscRestApi {
     @Value("${deactivation.excluded.profession.codes:}")
     private String[] excludedProfessions;
 
+    @Value("${upload.batch.size:0}")
+    private int batchSize;
+
+    @Value("${upload.pipeline.capacity:10000}")
+    private int pipelineCapacity;
+
     /**
      * Diff PS maps.
      *
@@ -55,35 +85,51 @@ public class PscRestApi {
      * @return the map difference
      */
     public MapDifference<String, Professionnel> diffPsMaps(Map<String, Professionnel> original, Map<String, Professionnel> revised) {
-        MapDifference<String, Professionnel> psDiff = Maps.difference(original, revised);
-
-        customMetrics.getPsSizeGauges().get(CustomMetrics.PsCustomMetric.PS_ADELI_DELETE_SIZE).set(
-                Math.toIntExact(psDiff.entriesOnlyOnLeft().values().stream().filter(ps -> CustomMetrics.ID_TYPE.ADELI.value.equals(ps.getIdType())).count()));
-        customMetrics.getPsSizeGauges().get(CustomMetrics.PsCustomMetric.PS_ADELI_CREATE_SIZE).set(
-                Math.toIntExact(psDiff.entriesOnlyOnRight().values().stream().filter(ps -> CustomMetrics.ID_TYPE.ADELI.value.equals(ps.getIdType())).count()));
-        customMetrics.getPsSizeGauges().get(CustomMetrics.PsCustomMetric.PS_ADELI_UPDATE_SIZE).set(
-                Math.toIntExact(psDiff.entriesDiffering().values().stream().filter(ps -> CustomMetrics.ID_TYPE.ADELI.value.equals(ps.leftValue().getIdType())).count()));
-
-        customMetrics.getPsSizeGauges().get(CustomMetrics.PsCustomMetric.PS_FINESS_DELETE_SIZE).set(
-                Math.toIntExact(psDiff.entriesOnlyOnLeft().values().stream().filter(ps -> CustomMetrics.ID_TYPE.FINESS.value.equals(ps.getIdType())).count()));
-        customMetrics.getPsSizeGauges().get(CustomMetrics.PsCustomMetric.PS_FINESS_CREATE_SIZE).set(
-                Math.toIntExact(psDiff.entriesOnlyOnRight().values().stream().filter(ps -> CustomMetrics.ID_TYPE.FINESS.value.equals(ps.getIdType())).count()));
-        customMetrics.getPsSizeGauges().get(CustomMetrics.PsCustomMetric.PS_FINESS_UPDATE_SIZE).set(
-                Math.toIntExact(psDiff.entriesDiffering().values().stream().filter(ps -> CustomMetrics.ID_TYPE.FINESS.value.equals(ps.leftValue().getIdType())).count()));
-
-        customMetrics.getPsSizeGauges().get(CustomMetrics.PsCustomMetric.PS_SIRET_DELETE_SIZE).set(
-                Math.toIntExact(psDiff.entriesOnlyOnLeft().values().stream().filter(ps -> CustomMetrics.ID_TYPE.SIRET.value.equals(ps.getIdType())).count()));
-        customMetrics.getPsSizeGauges().get(CustomMetrics.PsCustomMetric.PS_SIRET_CREATE_SIZE).set(
-                Math.toIntExact(psDiff.entriesOnlyOnRight().values().stream().filter(ps -> CustomMetrics.ID_TYPE.SIRET.value.equals(ps.getIdType())).count()));
-        customMetrics.getPsSizeGauges().get(CustomMetrics.PsCustomMetric.PS_SIRET_UPDATE_SIZE).set(
-                Math.toIntExact(psDiff.entriesDiffering().values().stream().filter(ps -> CustomMetrics.ID_TYPE.SIRET.value.equals(ps.leftValue().getIdType())).count()));
-
-        customMetrics.getPsSizeGauges().get(CustomMetrics.PsCustomMetric.PS_RPPS_DELETE_SIZE).set(
-                Math.toIntExact(psDiff.entriesOnlyOnLeft().values().stream().filter(ps -> CustomMetrics.ID_TYPE.RPPS.value.equals(ps.getIdType())).count()));
-        customMetrics.getPsSizeGauges().get(CustomMetrics.PsCustomMetric.PS_RPPS_CREATE_SIZE).set(
-                Math.toIntExact(psDiff.entriesOnlyOnRight().values().stream().filter(ps -> CustomMetrics.ID_TYPE.RPPS.value.equals(ps.getIdType())).count()));
-        customMetrics.getPsSizeGauges().get(CustomMetrics.PsCustomMetric.PS_RPPS_UPDATE_SIZE).set(
-                Math.toIntExact(psDiff.entriesDiffering().values().stream().filter(ps -> CustomMetrics.ID_TYPE.RPPS.value.equals(ps.leftValue().getIdType())).count()));
+        return diffPsMaps(original, FingerprintIndex.of(original), revised, FingerprintIndex.of(revised));
+    }
+
+    /**
+     * Diff PS maps by comparing content fingerprints instead of walking every ps with equals.
+     *
+     * @param original      OG PS map
+     * @param originalIndex the fingerprint index of the OG PS map
+     * @param revised       the revised PS map
+     * @param revisedIndex  the fingerprint index of the revised PS map
+     * @return the map difference
+     */
+    public MapDifference<String, Professionnel> diffPsMaps(Map<String, Professionnel> original, FingerprintIndex originalIndex,
+                                                           Map<String, Professionnel> revised, FingerprintIndex revisedIndex) {
+        return diffPsMaps(original, originalIndex, revised, revisedIndex, null);
+    }
+
+    private MapDifference<String, Professionnel> diffPsMaps(Map<String, Professionnel> original, FingerprintIndex originalIndex,
+                                                            Map<String, Professionnel> revised, FingerprintIndex revisedIndex,
+                                                            StreamingDiff.Handler<Professionnel> changes) {
+        Equivalence<Professionnel> sameFingerprint = new Equivalence<>() {
+            @Override
+            protected boolean doEquivalent(Professionnel left, Professionnel right) {
+                PsFingerprint leftFingerprint = originalIndex.get(left.getNationalId());
+                PsFingerprint rightFingerprint = revisedIndex.get(right.getNationalId());
+                if (leftFingerprint == null || rightFingerprint == null) {
+                    return left.equals(right);
+                }
+                return leftFingerprint.sameContent(rightFingerprint);
+            }
+
+            @Override
+            protected int doHash(Professionnel ps) {
+                return ps.getNationalId().hashCode();
+            }
+        };
+        PartitionedDiff.Difference<Professionnel> psDiff = partitionedDiff.diff(original, revised,
+                nationalId -> originalIndex.sameContent(nationalId, revisedIndex), sameFingerprint,
+                ps -> idTypeIndex(ps.getIdType()), CustomMetrics.ID_TYPE.values().length, changes);
+
+        PsSizeCounts counts = new PsSizeCounts();
+        Arrays.stream(CustomMetrics.ID_TYPE.values()).forEach(idType -> List.of(CustomMetrics.OPERATION.DELETE,
+                CustomMetrics.OPERATION.CREATE, CustomMetrics.OPERATION.UPDATE).forEach(operation ->
+                counts.add(idType, operation, psDiff.getCount(idType.ordinal(), operation))));
+        customMetrics.setPsSizeMetrics(counts, CustomMetrics.OPERATION.DELETE, CustomMetrics.OPERATION.CREATE, CustomMetrics.OPERATION.UPDATE);
 
         return psDiff;
     }
@@ -96,7 +142,13 @@ public class PscRestApi {
      * @return the map difference
      */
     public MapDifference<String, Structure> diffStructureMaps(Map<String, Structure> original, Map<String, Structure> revised) {
-        MapDifference<String, Structure> structureDiff = Maps.difference(original, revised);
+        return diffStructureMaps(original, revised, null);
+    }
+
+    private MapDifference<String, Structure> diffStructureMaps(Map<String, Structure> original, Map<String, Structure> revised,
+                                                               StreamingDiff.Handler<Structure> changes) {
+        MapDifference<String, Structure> structureDiff = partitionedDiff.diff(original, revised, key -> false,
+                Equivalence.equals(), structure -> 0, 1, changes);
 
         customMetrics.getAppStructureSizeGauges().get(CustomMetrics.StructureCustomMetric.STRUCTURE_DELETE_SIZE).set(structureDiff.entriesOnlyOnLeft().size());
         customMetrics.getAppStructureSizeGauges().get(CustomMetrics.StructureCustomMetric.STRUCTURE_CREATE_SIZE).set(structureDiff.entriesOnlyOnRight().size());
@@ -106,13 +158,96 @@ public class PscRestApi {
     }
 
     /**
-     * Upload changes.
+     * Diff PS streams sorted by nationalId, counting the changes without keeping them.
+     *
+     * @param original the original ps
+     * @param revised  the revised ps
+     * @throws IOException the io exception
+     */
+    public void diffPsStreams(StreamingDiff.Source<Professionnel> original, StreamingDiff.Source<Professionnel> revised) throws IOException {
+        PsSizeCounts counts = new PsSizeCounts();
+
+        StreamingDiff.merge(original, revised, Professionnel::getNationalId, new StreamingDiff.Handler<>() {
+            @Override
+            public void onDelete(Professionnel ps) {
+                counts.add(ps, CustomMetrics.OPERATION.DELETE);
+            }
+
+            @Override
+            public void onCreate(Professionnel ps) {
+                counts.add(ps, CustomMetrics.OPERATION.CREATE);
+            }
+
+            @Override
+            public void onUpdate(Professionnel left, Professionnel right) {
+                counts.add(left, CustomMetrics.OPERATION.UPDATE);
+            }
+        });
+
+        customMetrics.setPsSizeMetrics(counts, CustomMetrics.OPERATION.DELETE, CustomMetrics.OPERATION.CREATE, CustomMetrics.OPERATION.UPDATE);
+    }
+
+    /**
+     * Diff structure streams sorted by structure id, counting the changes without keeping them.
+     *
+     * @param original the original structures
+     * @param revised  the revised structures
+     * @throws IOException the io exception
+     */
+    public void diffStructureStreams(StreamingDiff.Source<Structure> original, StreamingDiff.Source<Structure> revised) throws IOException {
+        int[] counts = new int[3];
+
+        StreamingDiff.merge(original, revised, Structure::getStructureId, new StreamingDiff.Handler<>() {
+            @Override
+            public void onDelete(Structure structure) {
+                counts[0]++;
+            }
+
+            @Override
+            public void onCreate(Structure structure) {
+                counts[1]++;
+            }
+
+            @Override
+            public void onUpdate(Structure left, Structure right) {
+                counts[2]++;
+            }
+        });
+
+        customMetrics.getAppStructureSizeGauges().get(CustomMetrics.StructureCustomMetric.STRUCTURE_DELETE_SIZE).set(counts[0]);
+        customMetrics.getAppStructureSizeGauges().get(CustomMetrics.StructureCustomMetric.STRUCTURE_CREATE_SIZE).set(counts[1]);
+        customMetrics.getAppStructureSizeGauges().get(CustomMetrics.StructureCustomMetric.STRUCTURE_UPDATE_SIZE).set(counts[2]);
+    }
+
+    private static int idTypeIndex(String idType) {
+        CustomMetrics.ID_TYPE value = CustomMetrics.ID_TYPE.fromValue(idType);
+        return value == null ? -1 : value.ordinal();
+    }
+
+    /**
+     * Upload changes, then send again the requests that failed.
+     *
+     * @param psDiff        the ps diff
+     * @param structureDiff the structure diff
+     * @throws InterruptedException the interrupted exception
+     */
+    public void uploadChanges(MapDifference<String, Professionnel> psDiff,
+                              MapDifference<String, Structure> structureDiff) throws InterruptedException {
+        uploadChanges(psDiff, structureDiff, null);
+    }
+
+    /**
+     * Upload changes, then send again the requests that failed.
+     * Profession digests of the original side are read from its fingerprint index instead of being computed again.
      *
      * @param psDiff        the ps diff
      * @param structureDiff the structure diff
+     * @param originalIndex the fingerprint index of the original ps map, null to compute the digests
+     * @throws InterruptedException the interrupted exception
      */
     public void uploadChanges(MapDifference<String, Professionnel> psDiff,
-                              MapDifference<String, Structure> structureDiff) {
+                              MapDifference<String, Structure> structureDiff, FingerprintIndex originalIndex)
+            throws InterruptedException {
         int psChangesCount = psDiff.entriesOnlyOnLeft().size()
                 + psDiff.entriesOnlyOnRight().size()
                 + psDiff.entriesDiffering().size();
@@ -123,40 +258,298 @@ public class PscRestApi {
         log.info("Structure changes count : " + structureChangesCount);
 
         customMetrics.resetSizeMetrics();
-        injectPsDiffTasks(psDiff);
-        injectStructuresDiffTasks(structureDiff);
+        // requests left by an interrupted upload are not sent with this one
+        retryQueue.clear();
+        try {
+            injectPsDiffTasks(psDiff, originalIndex);
+            uploadExecutor.awaitCompletion();
+            injectStructuresDiffTasks(structureDiff);
+            uploadExecutor.awaitCompletion();
+            retryQueue.redrive();
+        } finally {
+            retryQueue.clear();
+        }
+    }
+
+    /**
+     * Upload changes found by merging sorted streams, each change is submitted as soon as it is found.
+     * Batch mode does not apply here : changes are sent one entity at a time.
+     *
+     * @param originalPs         the original ps, sorted by nationalId
+     * @param revisedPs          the revised ps, sorted by nationalId
+     * @param originalStructures the original structures, sorted by structure id
+     * @param revisedStructures  the revised structures, sorted by structure id
+     * @throws IOException          the io exception
+     * @throws InterruptedException the interrupted exception
+     */
+    public void uploadStreamedChanges(StreamingDiff.Source<Professionnel> originalPs, StreamingDiff.Source<Professionnel> revisedPs,
+                                      StreamingDiff.Source<Structure> originalStructures, StreamingDiff.Source<Structure> revisedStructures)
+            throws IOException, InterruptedException {
+        customMetrics.resetSizeMetrics();
+        Arrays.stream(CustomMetrics.ProgressionCustomMetric.values()).forEach(metric ->
+                customMetrics.getAppProgressionGauges().get(metric).set(0));
+
+        retryQueue.clear();
+        try {
+            StreamingDiff.merge(originalPs, revisedPs, Professionnel::getNationalId, psUploadHandler(null));
+            uploadExecutor.awaitCompletion();
+
+            StreamingDiff.merge(originalStructures, revisedStructures, Structure::getStructureId, structureUploadHandler());
+            uploadExecutor.awaitCompletion();
+            retryQueue.redrive();
+        } finally {
+            retryQueue.clear();
+        }
+    }
+
+    /**
+     * Upload changes read from a change set file, each change is submitted as soon as it is read.
+     * Batch mode does not apply here : changes are sent one entity at a time.
+     *
+     * @param changeSet the change set, ps records not read yet
+     * @throws InterruptedException the interrupted exception
+     */
+    public void uploadChangeSet(ChangeSetFile changeSet) throws InterruptedException {
+        customMetrics.resetSizeMetrics();
+        Arrays.stream(CustomMetrics.ProgressionCustomMetric.values()).forEach(metric ->
+                customMetrics.getAppProgressionGauges().get(metric).set(0));
+        retryQueue.clear();
+        try {
+            // the original side of updates comes from the change set, the fingerprints of the diff are not kept
+            int psChangesCount = changeSet.readPs(psUploadHandler(null));
+            log.info("Ps changes count : " + psChangesCount);
+            uploadExecutor.awaitCompletion();
+
+            int structureChangesCount = changeSet.readStructures(structureUploadHandler());
+            log.info("Structure changes count : " + structureChangesCount);
+            uploadExecutor.awaitCompletion();
+            retryQueue.redrive();
+        } finally {
+            retryQueue.clear();
+        }
+    }
+
+    /**
+     * Diff the maps and upload the changes at the same time : each change found by the diff goes through a bounded queue
+     * to an uploader thread, the diff waits while the queue is full. Ps changes are all uploaded before the structure diff starts.
+     * Batch mode does not apply here : changes are sent one entity at a time.
+     *
+     * @param originalPs         the original ps map
+     * @param originalIndex      the fingerprint index of the original ps map
+     * @param revisedPs          the revised ps map
+     * @param revisedIndex       the fingerprint index of the revised ps map
+     * @param originalStructures the original structure map
+     * @param revisedStructures  the revised structure map
+     * @return the differences, for the snapshot of the run
+     * @throws InterruptedException  the interrupted exception
+     * @throws IllegalStateException if a change could not be handed over to its upload
+     */
+    public PipelinedChanges diffAndUploadChanges(Map<String, Professionnel> originalPs, FingerprintIndex originalIndex,
+                                                 Map<String, Professionnel> revisedPs, FingerprintIndex revisedIndex,
+                                                 Map<String, Structure> originalStructures, Map<String, Structure> revisedStructures)
+            throws InterruptedException {
+        Arrays.stream(CustomMetrics.ProgressionCustomMetric.values()).forEach(metric ->
+                customMetrics.getAppProgressionGauges().get(metric).set(0));
+        AtomicInteger queueGauge = customMetrics.getAppMiscGauges().get(CustomMetrics.MiscCustomMetric.PIPELINE_QUEUE_SIZE);
+        long start = System.nanoTime();
+        long[] stageNanos = new long[3];
+        MapDifference<String, Professionnel> psDiff = null;
+        MapDifference<String, Structure> structureDiff = null;
+
+        retryQueue.clear();
+        try {
+            ChangePipeline<Professionnel> psPipeline = new ChangePipeline<>("pipeline-ps", pipelineCapacity, psUploadHandler(originalIndex), queueGauge);
+            long diffStart = System.nanoTime();
+            try {
+                psDiff = diffPsMaps(originalPs, originalIndex, revisedPs, revisedIndex, psPipeline);
+            } finally {
+                psPipeline.finish();
+            }
+            long diffEnd = System.nanoTime();
+            uploadExecutor.awaitCompletion();
+            addStageTimes(stageNanos, diffStart, diffEnd, psPipeline.getFirstChangeNanos(), System.nanoTime());
+
+            ChangePipeline<Structure> structurePipeline = new ChangePipeline<>("pipeline-structure", pipelineCapacity, structureUploadHandler(), queueGauge);
+            diffStart = System.nanoTime();
+            try {
+                structureDiff = diffStructureMaps(originalStructures, revisedStructures, structurePipeline);
+            } finally {
+                structurePipeline.finish();
+            }
+            diffEnd = System.nanoTime();
+            uploadExecutor.awaitCompletion();
+            addStageTimes(stageNanos, diffStart, diffEnd, structurePipeline.getFirstChangeNanos(), System.nanoTime());
+
+            retryQueue.redrive();
+        } finally {
+            retryQueue.clear();
+            customMetrics.resetSizeMetrics();
+        }
+
+        customMetrics.getAppMiscGauges().get(CustomMetrics.MiscCustomMetric.PIPELINE_DIFF_SECONDS).set(seconds(stageNanos[0]));
+        customMetrics.getAppMiscGauges().get(CustomMetrics.MiscCustomMetric.PIPELINE_UPLOAD_SECONDS).set(seconds(stageNanos[1]));
+        customMetrics.getAppMiscGauges().get(CustomMetrics.MiscCustomMetric.PIPELINE_OVERLAP_SECONDS).set(seconds(stageNanos[2]));
+        log.info("pipelined diff and upload finished in {}s : diff {}s, upload {}s, overlapping for {}s",
+                seconds(System.nanoTime() - start), seconds(stageNanos[0]), seconds(stageNanos[1]), seconds(stageNanos[2]));
+        return new PipelinedChanges(psDiff, structureDiff);
+    }
+
+    /**
+     * Adds the diff time, the upload time from the first change to the last response, and the time both ran together.
+     */
+    private static void addStageTimes(long[] stageNanos, long diffStart, long diffEnd, long firstChange, long uploadEnd) {
+        stageNanos[0] += diffEnd - diffStart;
+        if (firstChange != 0) {
+            stageNanos[1] += uploadEnd - firstChange;
+            stageNanos[2] += Math.max(0, diffEnd - firstChange);
+        }
+    }
+
+    private static int seconds(long nanos) {
+        return (int) TimeUnit.NANOSECONDS.toSeconds(nanos);
     }
 
-    private void injectPsDiffTasks(MapDifference<String, Professionnel> diff) {
+    private StreamingDiff.Handler<Professionnel> psUploadHandler(FingerprintIndex originalIndex) {
+        return new StreamingDiff.Handler<>() {
+            @Override
+            public void onDelete(Professionnel ps) {
+                submitPsDelete(ps);
+            }
+
+            @Override
+            public void onCreate(Professionnel ps) {
+                submitPsCreate(ps);
+            }
+
+            @Override
+            public void onUpdate(Professionnel left, Professionnel right) {
+                submitPsUpdate(left, right, originalIndex);
+            }
+        };
+    }
+
+    private StreamingDiff.Handler<Structure> structureUploadHandler() {
+        return new StreamingDiff.Handler<>() {
+            @Override
+            public void onDelete(Structure structure) {
+                // structures are never deleted
+            }
+
+            @Override
+            public void onCreate(Structure structure) {
+                submitStructureCreate(structure);
+            }
+
+            @Override
+            public void onUpdate(Structure left, Structure right) {
+                submitStructureUpdate(left, right);
+            }
+        };
+    }
+
+    private void injectPsDiffTasks(MapDifference<String, Professionnel> diff, FingerprintIndex originalIndex) {
         customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.PS_DELETE_PROGRESSION).set(0);
         customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.PS_CREATE_PROGRESSION).set(0);
         customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.PS_UPDATE_PROGRESSION).set(0);
 
-        diff.entriesOnlyOnLeft().values().parallelStream().forEach(ps -> {
-            List<ExerciceProfessionnel> psExPros = ps.getProfessions();
-            AtomicBoolean deletable = new AtomicBoolean(true);
+        if (batchSize > 0) {
+            injectPsDiffBatches(diff);
+            return;
+        }
 
-            psExPros.forEach(exerciceProfessionnel -> {
-                if (excludedProfessions != null && Arrays.stream(excludedProfessions)
-                        .anyMatch(profession -> exerciceProfessionnel.getCode().equals(profession))) {
-                    deletable.set(false);
-                }
-            });
+        diff.entriesOnlyOnLeft().values().forEach(this::submitPsDelete);
+        diff.entriesOnlyOnRight().values().forEach(this::submitPsCreate);
+        diff.entriesDiffering().values().forEach(v -> submitPsUpdate(v.leftValue(), v.rightValue(), originalIndex));
+    }
 
-            if (deletable.get()) {
-                new Delete(getPsUrl(ps.getNationalId())).send();
-                customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.PS_DELETE_PROGRESSION).incrementAndGet();
+    private void submitPsDelete(Professionnel ps) {
+        if (skipJournaled(CustomMetrics.OPERATION.DELETE, CustomMetrics.ENTITY_TYPE.PS, ps.getNationalId(), CustomMetrics.ProgressionCustomMetric.PS_DELETE_PROGRESSION)) {
+            return;
+        }
+        uploadExecutor.submit(CustomMetrics.OPERATION.DELETE, () -> {
+            if (!isDeletable(ps)) {
+                return CompletableFuture.completedFuture(null);
             }
+            return uploadExecutor.send(new Delete(httpClient, getPsUrl(ps.getNationalId())).whenAcknowledged(journal(CustomMetrics.OPERATION.DELETE, CustomMetrics.ENTITY_TYPE.PS, ps.getNationalId())))
+                    .whenComplete((code, e) -> customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.PS_DELETE_PROGRESSION).incrementAndGet());
         });
+    }
 
-        diff.entriesOnlyOnRight().values().parallelStream().forEach(ps -> {
-            new Create(getPsUrl() + "/force", jsonFormatter.jsonFromObject(ps)).send();
-            customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.PS_CREATE_PROGRESSION).incrementAndGet();
-        });
-        diff.entriesDiffering().values().parallelStream().forEach(v -> {
-            injectPsUpdateTasks(v.leftValue(), v.rightValue());
-            customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.PS_UPDATE_PROGRESSION).incrementAndGet();
-        });
+    private void submitPsCreate(Professionnel ps) {
+        if (skipJournaled(CustomMetrics.OPERATION.CREATE, CustomMetrics.ENTITY_TYPE.PS, ps.getNationalId(), CustomMetrics.ProgressionCustomMetric.PS_CREATE_PROGRESSION)) {
+            return;
+        }
+        uploadExecutor.submit(CustomMetrics.OPERATION.CREATE, () ->
+                uploadExecutor.send(new Create(httpClient, getPsUrl() + "/force", jsonBody(ps)).whenAcknowledged(journal(CustomMetrics.OPERATION.CREATE, CustomMetrics.ENTITY_TYPE.PS, ps.getNationalId())))
+                        .whenComplete((code, e) -> customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.PS_CREATE_PROGRESSION).incrementAndGet()));
+    }
+
+    private void submitPsUpdate(Professionnel left, Professionnel right, FingerprintIndex originalIndex) {
+        if (skipJournaled(CustomMetrics.OPERATION.UPDATE, CustomMetrics.ENTITY_TYPE.PS, right.getNationalId(), CustomMetrics.ProgressionCustomMetric.PS_UPDATE_PROGRESSION)) {
+            return;
+        }
+        uploadExecutor.submit(CustomMetrics.OPERATION.UPDATE, () ->
+                injectPsUpdateTasks(left, right, originalIndex, journal(CustomMetrics.OPERATION.UPDATE, CustomMetrics.ENTITY_TYPE.PS, right.getNationalId()))
+                        .whenComplete((v, e) ->
+                                customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.PS_UPDATE_PROGRESSION).incrementAndGet()));
+    }
+
+    /**
+     * Skips an operation the journal of an interrupted run already holds, counting it as done.
+     */
+    private boolean skipJournaled(CustomMetrics.OPERATION operation, CustomMetrics.ENTITY_TYPE entity, String id,
+                                  CustomMetrics.ProgressionCustomMetric progression) {
+        if (!uploadJournal.isDone(operation, entity, id)) {
+            return false;
+        }
+        customMetrics.getAppProgressionGauges().get(progression).incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Records an operation in the journal once the api acknowledged it, at its first attempt or when redriven.
+     */
+    private Runnable journal(CustomMetrics.OPERATION operation, CustomMetrics.ENTITY_TYPE entity, String id) {
+        return () -> uploadJournal.record(operation, entity, id);
+    }
+
+    private <T> List<T> notJournaled(Collection<T> entities, CustomMetrics.OPERATION operation, CustomMetrics.ENTITY_TYPE entity,
+                                     Function<T, String> id, CustomMetrics.ProgressionCustomMetric progression) {
+        return entities.stream().filter(value -> !skipJournaled(operation, entity, id.apply(value), progression))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Groups ps changes in chunks of batchSize, each chunk is sent in a single request to the bulk endpoint.
+     * Updates carry the whole revised ps instead of one request per changed sub-entity.
+     */
+    private void injectPsDiffBatches(MapDifference<String, Professionnel> diff) {
+        List<String> deletedIds = notJournaled(diff.entriesOnlyOnLeft().values().stream()
+                        .filter(this::isDeletable).map(Professionnel::getNationalId).collect(Collectors.toList()),
+                CustomMetrics.OPERATION.DELETE, CustomMetrics.ENTITY_TYPE.PS, Function.identity(), CustomMetrics.ProgressionCustomMetric.PS_DELETE_PROGRESSION);
+        List<Professionnel> createdPs = notJournaled(diff.entriesOnlyOnRight().values(),
+                CustomMetrics.OPERATION.CREATE, CustomMetrics.ENTITY_TYPE.PS, Professionnel::getNationalId, CustomMetrics.ProgressionCustomMetric.PS_CREATE_PROGRESSION);
+        List<Professionnel> updatedPs = notJournaled(diff.entriesDiffering().values().stream()
+                        .map(MapDifference.ValueDifference::rightValue).collect(Collectors.toList()),
+                CustomMetrics.OPERATION.UPDATE, CustomMetrics.ENTITY_TYPE.PS, Professionnel::getNationalId, CustomMetrics.ProgressionCustomMetric.PS_UPDATE_PROGRESSION);
+
+        Iterables.partition(deletedIds, batchSize).forEach(ids -> uploadExecutor.submit(CustomMetrics.OPERATION.DELETE, () ->
+                uploadExecutor.send(new Delete(httpClient, getPsBulkUrl(), jsonBody(ids)).whenAcknowledged(() -> ids.forEach(id -> uploadJournal.record(CustomMetrics.OPERATION.DELETE, CustomMetrics.ENTITY_TYPE.PS, id))))
+                        .whenComplete((code, e) -> customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.PS_DELETE_PROGRESSION).addAndGet(ids.size()))));
+        Iterables.partition(createdPs, batchSize).forEach(batch -> uploadExecutor.submit(CustomMetrics.OPERATION.CREATE, () ->
+                uploadExecutor.send(new Create(httpClient, getPsBulkUrl(), jsonBody(batch)).whenAcknowledged(() -> batch.forEach(ps -> uploadJournal.record(CustomMetrics.OPERATION.CREATE, CustomMetrics.ENTITY_TYPE.PS, ps.getNationalId()))))
+                        .whenComplete((code, e) -> customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.PS_CREATE_PROGRESSION).addAndGet(batch.size()))));
+        Iterables.partition(updatedPs, batchSize).forEach(batch -> uploadExecutor.submit(CustomMetrics.OPERATION.UPDATE, () ->
+                uploadExecutor.send(new Update(httpClient, getPsBulkUrl(), jsonBody(batch)).whenAcknowledged(() -> batch.forEach(ps -> uploadJournal.record(CustomMetrics.OPERATION.UPDATE, CustomMetrics.ENTITY_TYPE.PS, ps.getNationalId()))))
+                        .whenComplete((code, e) -> customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.PS_UPDATE_PROGRESSION).addAndGet(batch.size()))));
+    }
+
+    private boolean isDeletable(Professionnel ps) {
+        if (excludedProfessions == null) {
+            return true;
+        }
+        return ps.getProfessions().stream().noneMatch(exerciceProfessionnel -> Arrays.stream(excludedProfessions)
+                .anyMatch(profession -> exerciceProfessionnel.getCode().equals(profession)));
     }
 
     private void injectStructuresDiffTasks(MapDifference<String, Structure> diff) {
@@ -164,22 +557,60 @@ public class PscRestApi {
         customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.STRUCTURE_CREATE_PROGRESSION).set(0);
         customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.STRUCTURE_UPDATE_PROGRESSION).set(0);
 
-        diff.entriesOnlyOnRight().values().parallelStream().forEach(structure -> {
-            new Create(getStructureUrl(), jsonFormatter.jsonFromObject(structure)).send();
-            customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.STRUCTURE_CREATE_PROGRESSION).incrementAndGet();
-        });
-        diff.entriesDiffering().values().parallelStream().forEach(v -> {
-            new Update(getStructureUrl(v.leftValue().getStructureId()), jsonFormatter.jsonFromObject(v.rightValue())).send();
-            customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.STRUCTURE_UPDATE_PROGRESSION).incrementAndGet();
-        });
+        if (batchSize > 0) {
+            injectStructuresDiffBatches(diff);
+            return;
+        }
+
+        diff.entriesOnlyOnRight().values().forEach(this::submitStructureCreate);
+        diff.entriesDiffering().values().forEach(v -> submitStructureUpdate(v.leftValue(), v.rightValue()));
+    }
+
+    private void submitStructureCreate(Structure structure) {
+        if (skipJournaled(CustomMetrics.OPERATION.CREATE, CustomMetrics.ENTITY_TYPE.STRUCTURE, structure.getStructureId(), CustomMetrics.ProgressionCustomMetric.STRUCTURE_CREATE_PROGRESSION)) {
+            return;
+        }
+        uploadExecutor.submit(CustomMetrics.OPERATION.CREATE, () ->
+                uploadExecutor.send(new Create(httpClient, getStructureUrl(), jsonBody(structure)).whenAcknowledged(journal(CustomMetrics.OPERATION.CREATE, CustomMetrics.ENTITY_TYPE.STRUCTURE, structure.getStructureId())))
+                        .whenComplete((code, e) -> customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.STRUCTURE_CREATE_PROGRESSION).incrementAndGet()));
+    }
+
+    private void submitStructureUpdate(Structure left, Structure right) {
+        if (skipJournaled(CustomMetrics.OPERATION.UPDATE, CustomMetrics.ENTITY_TYPE.STRUCTURE, left.getStructureId(), CustomMetrics.ProgressionCustomMetric.STRUCTURE_UPDATE_PROGRESSION)) {
+            return;
+        }
+        uploadExecutor.submit(CustomMetrics.OPERATION.UPDATE, () ->
+                uploadExecutor.send(new Update(httpClient, getStructureUrl(left.getStructureId()), jsonBody(right)).whenAcknowledged(journal(CustomMetrics.OPERATION.UPDATE, CustomMetrics.ENTITY_TYPE.STRUCTURE, left.getStructureId())))
+                        .whenComplete((code, e) -> customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.STRUCTURE_UPDATE_PROGRESSION).incrementAndGet()));
     }
 
-    private void injectPsUpdateTasks(Professionnel left, Professionnel right) {
+    private void injectStructuresDiffBatches(MapDifference<String, Structure> diff) {
+        List<Structure> createdStructures = notJournaled(diff.entriesOnlyOnRight().values(),
+                CustomMetrics.OPERATION.CREATE, CustomMetrics.ENTITY_TYPE.STRUCTURE, Structure::getStructureId, CustomMetrics.ProgressionCustomMetric.STRUCTURE_CREATE_PROGRESSION);
+        List<Structure> updatedStructures = notJournaled(diff.entriesDiffering().values().stream()
+                        .map(MapDifference.ValueDifference::rightValue).collect(Collectors.toList()),
+                CustomMetrics.OPERATION.UPDATE, CustomMetrics.ENTITY_TYPE.STRUCTURE, Structure::getStructureId, CustomMetrics.ProgressionCustomMetric.STRUCTURE_UPDATE_PROGRESSION);
+
+        Iterables.partition(createdStructures, batchSize).forEach(batch -> uploadExecutor.submit(CustomMetrics.OPERATION.CREATE, () ->
+                uploadExecutor.send(new Create(httpClient, getStructureBulkUrl(), jsonBody(batch)).whenAcknowledged(() -> batch.forEach(structure -> uploadJournal.record(CustomMetrics.OPERATION.CREATE, CustomMetrics.ENTITY_TYPE.STRUCTURE, structure.getStructureId()))))
+                        .whenComplete((code, e) -> customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.STRUCTURE_CREATE_PROGRESSION).addAndGet(batch.size()))));
+        Iterables.partition(updatedStructures, batchSize).forEach(batch -> uploadExecutor.submit(CustomMetrics.OPERATION.UPDATE, () ->
+                uploadExecutor.send(new Update(httpClient, getStructureBulkUrl(), jsonBody(batch)).whenAcknowledged(() -> batch.forEach(structure -> uploadJournal.record(CustomMetrics.OPERATION.UPDATE, CustomMetrics.ENTITY_TYPE.STRUCTURE, structure.getStructureId()))))
+                        .whenComplete((code, e) -> customMetrics.getAppProgressionGauges().get(CustomMetrics.ProgressionCustomMetric.STRUCTURE_UPDATE_PROGRESSION).addAndGet(batch.size()))));
+    }
+
+    /**
+     * Sends the requests of a ps update, the acknowledgement runs once the api acknowledged all of them,
+     * some possibly after their redrive.
+     */
+    private CompletableFuture<Void> injectPsUpdateTasks(Professionnel left, Professionnel right, FingerprintIndex originalIndex,
+                                                        Runnable acknowledgement) {
         String psUrl = getPsUrl(left.getNationalId());
+        List<Task> tasks = new ArrayList<>();
 
         if (left.nakedHash() != right.nakedHash()) {
             // update Ps basic attributes
-            new Update(psUrl, jsonFormatter.nakedPsFromObject(right)).send();
+            tasks.add(new Update(httpClient, psUrl, new JsonBody(writer -> jsonFormatter.writeNakedPs(right, writer))));
         }
 
         // diff professions
@@ -187,19 +618,55 @@ public class PscRestApi {
                 .uniqueIndex(left.getProfessions(), ExerciceProfessionnel::getProfessionId);
         Map<String, ExerciceProfessionnel> rightExPro = Maps
                 .uniqueIndex(right.getProfessions(), ExerciceProfessionnel::getProfessionId);
-        MapDifference<String, ExerciceProfessionnel> exProDiff = Maps.difference(leftExPro, rightExPro);
+        MapDifference<String, ExerciceProfessionnel> exProDiff = Maps.difference(leftExPro, rightExPro, sameProfessionDigest(left, originalIndex));
+
+        exProDiff.entriesOnlyOnLeft().forEach((k, v) -> tasks.add(new Delete(httpClient, getExProUrl(psUrl, v.getProfessionId()))));
+        exProDiff.entriesOnlyOnRight().forEach((k, v) -> tasks.add(new Create(httpClient, getExProUrl(psUrl), jsonBody(v))));
+        exProDiff.entriesDiffering().forEach((k, v) -> injectExProUpdateTasks(v.leftValue(), v.rightValue(), psUrl, tasks));
 
-        exProDiff.entriesOnlyOnLeft().forEach((k, v) -> new Delete(getExProUrl(psUrl, v.getProfessionId())).send());
-        exProDiff.entriesOnlyOnRight().forEach((k, v) -> new Create(getExProUrl(psUrl), jsonFormatter.jsonFromObject(v)).send());
-        exProDiff.entriesDiffering().forEach((k, v) -> injectExProUpdateTasks(v.leftValue(), v.rightValue(), psUrl));
+        if (tasks.isEmpty()) {
+            acknowledgement.run();
+        }
+        AtomicInteger unacknowledged = new AtomicInteger(tasks.size());
+        List<CompletableFuture<Integer>> requests = tasks.stream()
+                .map(task -> uploadExecutor.send(task.whenAcknowledged(() -> {
+                    if (unacknowledged.decrementAndGet() == 0) {
+                        acknowledgement.run();
+                    }
+                })))
+                .collect(Collectors.toList());
+        return CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0]));
     }
 
-    private void injectExProUpdateTasks(ExerciceProfessionnel leftExPro, ExerciceProfessionnel rightExPro, String psUrl) {
+    /**
+     * Compares professions by digest, the OG side is read from the fingerprint index of the original map when given.
+     */
+    private Equivalence<ExerciceProfessionnel> sameProfessionDigest(Professionnel left, FingerprintIndex originalIndex) {
+        PsFingerprint leftFingerprint = originalIndex == null ? null : originalIndex.get(left.getNationalId());
+        return new Equivalence<>() {
+            @Override
+            protected boolean doEquivalent(ExerciceProfessionnel leftExPro, ExerciceProfessionnel rightExPro) {
+                long[] leftDigest = leftFingerprint == null ? null : leftFingerprint.getProfessionDigest(leftExPro.getProfessionId());
+                if (leftDigest == null) {
+                    leftDigest = PsFingerprint.digest(leftExPro);
+                }
+                return Arrays.equals(leftDigest, PsFingerprint.digest(rightExPro));
+            }
+
+            @Override
+            protected int doHash(ExerciceProfessionnel exPro) {
+                return exPro.getProfessionId().hashCode();
+            }
+        };
+    }
+
+    private void injectExProUpdateTasks(ExerciceProfessionnel leftExPro, ExerciceProfessionnel rightExPro, String psUrl,
+                                        List<Task> tasks) {
         String exProUrl = getExProUrl(psUrl, leftExPro.getProfessionId());
 
         if (leftExPro.nakedHash() != rightExPro.nakedHash()) {
             // update ExPro basic attributes
-            new Update(exProUrl, jsonFormatter.nakedExProFromObject(rightExPro)).send();
+            tasks.add(new Update(httpClient, exProUrl, new JsonBody(writer -> jsonFormatter.writeNakedExPro(rightExPro, writer))));
         }
 
         // diff expertises
@@ -209,10 +676,10 @@ public class PscRestApi {
                 .uniqueIndex(rightExPro.getExpertises(), SavoirFaire::getExpertiseId);
         MapDifference<String, SavoirFaire> expertiseDiff = Maps.difference(leftExpertises, rightExpertises);
 
-        expertiseDiff.entriesOnlyOnLeft().forEach((k, v) -> new Delete(getExpertiseUrl(exProUrl, v.getExpertiseId())).send());
-        expertiseDiff.entriesOnlyOnRight().forEach((k, v) -> new Create(getExpertiseUrl(exProUrl), jsonFormatter.jsonFromObject(v)).send());
-        expertiseDiff.entriesDiffering().forEach((k, v) -> new Update(
-                getExpertiseUrl(exProUrl, v.rightValue().getExpertiseId()), jsonFormatter.jsonFromObject(v.rightValue())).send());
+        expertiseDiff.entriesOnlyOnLeft().forEach((k, v) -> tasks.add(new Delete(httpClient, getExpertiseUrl(exProUrl, v.getExpertiseId()))));
+        expertiseDiff.entriesOnlyOnRight().forEach((k, v) -> tasks.add(new Create(httpClient, getExpertiseUrl(exProUrl), jsonBody(v))));
+        expertiseDiff.entriesDiffering().forEach((k, v) -> tasks.add(new Update(httpClient,
+                getExpertiseUrl(exProUrl, v.rightValue().getExpertiseId()), jsonBody(v.rightValue()))));
 
         // diff situations
         Map<String, SituationExercice> leftSituations = Maps
@@ -221,10 +688,10 @@ public class PscRestApi {
                 .uniqueIndex(rightExPro.getWorkSituations(), SituationExercice::getSituationId);
         MapDifference<String, SituationExercice> situationDiff = Maps.difference(leftSituations, rightSituations);
 
-        situationDiff.entriesOnlyOnLeft().forEach((k, v) -> new Delete(getSituationUrl(exProUrl, v.getSituationId())).send());
-        situationDiff.entriesOnlyOnRight().forEach((k, v) -> new Create(getSituationUrl(exProUrl), jsonFormatter.jsonFromObject(v)).send());
-        situationDiff.entriesDiffering().forEach((k, v) ->
-                new Update(getSituationUrl(exProUrl, v.rightValue().getSituationId()), jsonFormatter.jsonFromObject(v.rightValue())).send());
+        situationDiff.entriesOnlyOnLeft().forEach((k, v) -> tasks.add(new Delete(httpClient, getSituationUrl(exProUrl, v.getSituationId()))));
+        situationDiff.entriesOnlyOnRight().forEach((k, v) -> tasks.add(new Create(httpClient, getSituationUrl(exProUrl), jsonBody(v))));
+        situationDiff.entriesDiffering().forEach((k, v) -> tasks.add(
+                new Update(httpClient, getSituationUrl(exProUrl, v.rightValue().getSituationId()), jsonBody(v.rightValue()))));
     }
 
     public void uploadPsRefs(Map<String, PsRef> psRefCreateMap) {
@@ -239,14 +706,11 @@ public class PscRestApi {
     }
 
     private PsRef getStoredPsRef(String nationalIdRef) throws PsRefUnavailableException {
-        OkHttpClient client = new OkHttpClient();
-        Request request = requestBuilder.url(getPsRefUrl() + "/" + nationalIdRef).get().build();
+        Request request = new Request.Builder().url(getPsRefUrl() + "/" + nationalIdRef).get().build();
 
         PsRef storedPsRef;
 
-        try {
-            Call call = client.newCall(request);
-            Response response = call.execute();
+        try (Response response = httpClient.newCall(request).execute()) {
             String responseBody = Objects.requireNonNull(response.body()).string();
 
             storedPsRef = jsonFormatter.psRefFromJson(responseBody);
@@ -256,7 +720,6 @@ public class PscRestApi {
                 log.debug("PsRef not found");
                 throw new PsRefUnavailableException("PsRef not found ", nationalIdRef);
             }
-            response.close();
         } catch (PsRefUnavailableException e) {
             log.debug("Error while querying stored PsRef : " + nationalIdRef, e);
             throw new PsRefUnavailableException("Error while querying stored PsRef : ", nationalIdRef);
@@ -268,14 +731,11 @@ public class PscRestApi {
     }
 
     private Professionnel getStoredProfessionnel(String nationalIdRef) throws PsRefUnavailableException {
-        OkHttpClient client = new OkHttpClient();
-        Request request = requestBuilder.url(getPsUrl() + "/" + nationalIdRef).get().build();
+        Request request = new Request.Builder().url(getPsUrl() + "/" + nationalIdRef).get().build();
 
         Professionnel storedProfessionnel;
 
-        try {
-            Call call = client.newCall(request);
-            Response response = call.execute();
+        try (Response response = httpClient.newCall(request).execute()) {
             String responseBody = Objects.requireNonNull(response.body()).string();
 
             storedProfessionnel = jsonFormatter.psFromJson(responseBody).getData();
@@ -283,7 +743,6 @@ public class PscRestApi {
                 log.info("Ps not found");
                 throw new Exception("PsRef not found");
             }
-            response.close();
         } catch (Exception e) {
             log.error("Error while querying stored Ps : " + nationalIdRef, e);
             throw new PsRefUnavailableException("Error while querying stored PsRef : ", nationalIdRef);
@@ -318,8 +777,8 @@ public class PscRestApi {
             // now we want to definitively destroy oldPs and oldPsRef, but only if newPs already exists in db
             Professionnel newIndexedPs = getStoredProfessionnel(psRef.getNationalId());
             if (newIndexedPs != null) {
-                new Delete(getPsUrl() + "/force/" + psRef.getNationalIdRef()).send();
-                new Create(getPsRefUrl(), jsonFormatter.jsonFromObject(psRef)).send();
+                new Delete(httpClient, getPsUrl() + "/force/" + psRef.getNationalIdRef()).send();
+                new Create(httpClient, getPsRefUrl(), jsonBody(psRef)).send();
             } else {
                 log.error("Ps with old index : {} and new index : {} cannot be updated because new Ps does not exist in db",
                         psRef.getNationalIdRef(), psRef.getNationalId());
@@ -327,6 +786,13 @@ public class PscRestApi {
         }
     }
 
+    /**
+     * Streams the json of an entity into the request, the entity is encoded when the request is written.
+     */
+    private RequestBody jsonBody(Object entity) {
+        return new JsonBody(writer -> jsonFormatter.writeJson(entity, writer));
+    }
+
     public void checkToggleErrors(Map<String, PsRef> psRefMap) {
         psRefMap.values().parallelStream().forEach(this::logErrorIfToggleIsWrong);
     }
@@ -361,6 +827,15 @@ public class PscRestApi {
         return getPsUrl() + "/" + URLEncoder.encode(id, StandardCharsets.UTF_8);
     }
 
+    /**
+     * Gets ps bulk url.
+     *
+     * @return the ps bulk url
+     */
+    public String getPsBulkUrl() {
+        return getPsUrl() + "/bulk";
+    }
+
     /**
      * Gets ex pro url.
      *
@@ -443,6 +918,15 @@ public class PscRestApi {
         return getStructureUrl() + '/' + URLEncoder.encode(id, StandardCharsets.UTF_8);
     }
 
+    /**
+     * Gets structure bulk url.
+     *
+     * @return the structure bulk url
+     */
+    public String getStructureBulkUrl() {
+        return getStructureUrl() + "/bulk";
+    }
+
     /**
      * Gets psRef url
      */
@@ -450,4 +934,37 @@ public class PscRestApi {
         return apiBaseUrl + "/psref";
     }
 
+
+    /**
+     * The differences computed by a pipelined upload.
+     */
+    public static class PipelinedChanges {
+
+        private final MapDifference<String, Professionnel> psDiff;
+
+        private final MapDifference<String, Structure> structureDiff;
+
+        private PipelinedChanges(MapDifference<String, Professionnel> psDiff, MapDifference<String, Structure> structureDiff) {
+            this.psDiff = psDiff;
+            this.structureDiff = structureDiff;
+        }
+
+        /**
+         * Gets the ps diff.
+         *
+         * @return the ps diff, null if the upload was interrupted before
+         */
+        public MapDifference<String, Professionnel> getPsDiff() {
+            return psDiff;
+        }
+
+        /**
+         * Gets the structure diff.
+         *
+         * @return the structure diff, null if the upload was interrupted before
+         */
+        public MapDifference<String, Structure> getStructureDiff() {
+            return structureDiff;
+        }
+    }
 }
@@ -0,0 +1,227 @@
+package fr.ans.psc.pscload.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import fr.ans.psc.pscload.service.task.Task;
+import okhttp3.Request;
+import okio.Buffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The type Retry queue.
+ * Collects the upload requests that failed (server error, throttling or no response) during a run,
+ * and sends them again once the run is over, on its own threads : the redrive does not compete with the upload window.
+ * Each attempt waits for an exponential backoff with jitter, requests still failing after the last attempt
+ * are appended to a dead letter file, one json line per request marked with the start of its redrive.
+ * The dead letter file is rolled over to a single .1 backup once it reaches its maximum size.
+ * Failed requests belong to the upload that collected them : they are cleared when an upload starts and ends.
+ * A recovered request runs the acknowledgement action of its task, as it would have after its first attempt.
+ */
+@Component
+public class RetryQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(RetryQueue.class);
+
+    @Value("${upload.retry.max.attempts:4}")
+    private int maxAttempts;
+
+    @Value("${upload.retry.base.delay:500}")
+    private long baseDelayMs;
+
+    @Value("${upload.retry.max.delay:30000}")
+    private long maxDelayMs;
+
+    @Value("${upload.retry.concurrency:4}")
+    private int concurrency;
+
+    @Value("${upload.retry.dead.letter.file:${files.directory}/upload-dead-letters.ndjson}")
+    private String deadLetterFile;
+
+    @Value("${upload.retry.dead.letter.max.size:10485760}")
+    private long deadLetterMaxSize;
+
+    private final Queue<Task> failedTasks = new ConcurrentLinkedQueue<>();
+
+    private final Gson gson = new Gson();
+
+    /**
+     * Tells if a request outcome is worth a retry.
+     *
+     * @param code  the response status code, null without response
+     * @param error the failure, null if the server answered
+     * @return true on a failed call, a server error or throttling
+     */
+    public static boolean isFailure(Integer code, Throwable error) {
+        return error != null || code == null || code >= 500 || code == 429;
+    }
+
+    /**
+     * Add a failed request, to be sent again by the next redrive.
+     *
+     * @param task the task
+     */
+    public void add(Task task) {
+        failedTasks.add(task);
+    }
+
+    /**
+     * Drop the failed requests that were not redriven, left by an interrupted or failed upload.
+     */
+    public void clear() {
+        int dropped = failedTasks.size();
+        failedTasks.clear();
+        if (dropped > 0) {
+            log.warn("{} failed upload requests were not redriven and are dropped", dropped);
+        }
+    }
+
+    /**
+     * Gets the count of requests waiting for a redrive.
+     *
+     * @return the count
+     */
+    public int size() {
+        return failedTasks.size();
+    }
+
+    /**
+     * Send the failed requests again and wait until each one succeeded or went to the dead letter file.
+     *
+     * @return the count of requests written to the dead letter file
+     * @throws InterruptedException the interrupted exception
+     */
+    public int redrive() throws InterruptedException {
+        if (failedTasks.isEmpty()) {
+            return 0;
+        }
+        String run = Instant.now().toString();
+        log.info("redriving {} failed upload requests", failedTasks.size());
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(Math.max(1, concurrency), runnable -> {
+            Thread thread = new Thread(runnable, "upload-retry-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Phaser pending = new Phaser(1);
+        List<String> deadLetters = new ArrayList<>();
+        AtomicInteger recovered = new AtomicInteger();
+        try {
+            Task task;
+            while ((task = failedTasks.poll()) != null) {
+                schedule(scheduler, pending, task, 1, run, recovered, deadLetters);
+            }
+            pending.awaitAdvanceInterruptibly(pending.arrive());
+        } finally {
+            scheduler.shutdownNow();
+        }
+
+        log.info("{} failed upload requests recovered, {} sent to the dead letter file", recovered.get(), deadLetters.size());
+        writeDeadLetters(deadLetters);
+        return deadLetters.size();
+    }
+
+    private void schedule(ScheduledExecutorService scheduler, Phaser pending, Task task, int attempt, String run,
+                          AtomicInteger recovered, List<String> deadLetters) {
+        pending.register();
+        scheduler.schedule(() -> {
+            try {
+                Integer code = null;
+                Throwable error = null;
+                try {
+                    code = task.sendAsync().join();
+                } catch (CompletionException e) {
+                    error = e.getCause();
+                }
+                if (!isFailure(code, error)) {
+                    recovered.incrementAndGet();
+                    task.acknowledged();
+                } else if (attempt < maxAttempts) {
+                    schedule(scheduler, pending, task, attempt + 1, run, recovered, deadLetters);
+                } else {
+                    String deadLetter = deadLetter(task, run, attempt, code, error);
+                    synchronized (deadLetters) {
+                        deadLetters.add(deadLetter);
+                    }
+                }
+            } catch (RuntimeException e) {
+                log.error("upload retry failed", e);
+            } finally {
+                pending.arriveAndDeregister();
+            }
+        }, backoff(attempt), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Equal jitter : between half and all of the exponential delay, so that retries of a same burst spread out.
+     */
+    long backoff(int attempt) {
+        long delay = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt - 1, 30));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private String deadLetter(Task task, String run, int attempts, Integer code, Throwable error) {
+        Request request = task.getRequest();
+        JsonObject deadLetter = new JsonObject();
+        deadLetter.addProperty("run", run);
+        deadLetter.addProperty("method", request.method());
+        deadLetter.addProperty("url", request.url().toString());
+        deadLetter.addProperty("attempts", attempts);
+        if (error != null) {
+            deadLetter.addProperty("error", String.valueOf(error.getMessage()));
+        } else {
+            deadLetter.addProperty("status", code);
+        }
+        if (request.body() != null) {
+            Buffer body = new Buffer();
+            try {
+                request.body().writeTo(body);
+                deadLetter.addProperty("body", body.readUtf8());
+            } catch (IOException e) {
+                log.error("could not write the body of {} {} to the dead letter file", request.method(), request.url(), e);
+            }
+        }
+        return gson.toJson(deadLetter);
+    }
+
+    private void writeDeadLetters(List<String> deadLetters) {
+        if (deadLetters.isEmpty()) {
+            return;
+        }
+        Path path = Paths.get(deadLetterFile);
+        try {
+            if (Files.exists(path) && Files.size(path) >= deadLetterMaxSize) {
+                Path backup = Paths.get(deadLetterFile + ".1");
+                Files.move(path, backup, StandardCopyOption.REPLACE_EXISTING);
+                log.info("dead letter file rolled over to {}", backup);
+            }
+            Files.write(path, deadLetters, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            log.error("{} upload requests kept failing, written to {}", deadLetters.size(), path);
+        } catch (IOException e) {
+            log.error("could not write the dead letter file {}", path, e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package fr.ans.psc.pscload.service;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * The type Streaming diff.
+ * Single pass merge of two entity streams sorted by the same key : changes are handed over as soon as they are found,
+ * so neither side has to be held in memory.
+ */
+public final class StreamingDiff {
+
+    private StreamingDiff() {}
+
+    /**
+     * A source of entities sorted by key.
+     *
+     * @param <T> the entity type
+     */
+    public interface Source<T> {
+        /**
+         * Next entity.
+         *
+         * @return the entity, null when exhausted
+         * @throws IOException the io exception
+         */
+        T next() throws IOException;
+    }
+
+    /**
+     * Receives the changes found by the merge.
+     *
+     * @param <T> the entity type
+     */
+    public interface Handler<T> {
+        void onDelete(T original);
+
+        void onCreate(T revised);
+
+        void onUpdate(T original, T revised);
+    }
+
+    /**
+     * Merge both sources, calling the handler for each entity that is deleted, created or different.
+     *
+     * @param original the original entities, sorted by key
+     * @param revised  the revised entities, sorted by key
+     * @param key      the key of an entity
+     * @param handler  the handler
+     * @param <T>      the entity type
+     * @throws IOException the io exception
+     */
+    public static <T> void merge(Source<T> original, Source<T> revised, Function<T, String> key, Handler<T> handler) throws IOException {
+        T left = original.next();
+        T right = revised.next();
+        while (left != null || right != null) {
+            int comparison = left == null ? 1 : right == null ? -1 : key.apply(left).compareTo(key.apply(right));
+            if (comparison < 0) {
+                handler.onDelete(left);
+                left = original.next();
+            } else if (comparison > 0) {
+                handler.onCreate(right);
+                right = revised.next();
+            } else {
+                if (!Objects.equals(left, right)) {
+                    handler.onUpdate(left, right);
+                }
+                left = original.next();
+                right = revised.next();
+            }
+        }
+    }
+}
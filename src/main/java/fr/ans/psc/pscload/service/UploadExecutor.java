@@ -0,0 +1,232 @@
+package fr.ans.psc.pscload.service;
+
+import fr.ans.psc.pscload.metrics.CustomMetrics;
+import fr.ans.psc.pscload.service.task.Task;
+import okhttp3.OkHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * The type Upload executor.
+ * Runs upload tasks on a dedicated worker pool, independent from the common ForkJoinPool.
+ * Each operation type has its own concurrency cap : submitting blocks while it is reached, so the caps bound the tasks
+ * waiting in the work queue and the queue itself is left unbounded.
+ * Http requests are sent asynchronously, an adaptive limiter bounds how many of them are in flight at the same time :
+ * the limit grows while the api answers in time and shrinks on server errors, timeouts and slow responses.
+ * The window never exceeds the per host cap of the http client : the calls beyond it would only wait in its dispatcher.
+ */
+@Component
+public class UploadExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(UploadExecutor.class);
+
+    @Value("${upload.workers:8}")
+    private int workers;
+
+    @Value("${upload.max.concurrent.creates:32}")
+    private int maxConcurrentCreates;
+
+    @Value("${upload.max.concurrent.updates:32}")
+    private int maxConcurrentUpdates;
+
+    @Value("${upload.max.concurrent.deletes:16}")
+    private int maxConcurrentDeletes;
+
+    @Value("${upload.inflight.window:32}")
+    private int inFlightWindowSize;
+
+    @Value("${upload.inflight.adaptive:true}")
+    private boolean adaptive;
+
+    @Value("${upload.inflight.initial:16}")
+    private int initialInFlight;
+
+    @Value("${upload.inflight.min:2}")
+    private int minInFlight;
+
+    @Value("${upload.inflight.backoff:0.7}")
+    private double backoffRatio;
+
+    @Value("${upload.inflight.latency.threshold:5000}")
+    private long latencyThresholdMs;
+
+    @Autowired
+    private CustomMetrics customMetrics;
+
+    @Autowired
+    private RetryQueue retryQueue;
+
+    @Autowired
+    private OkHttpClient httpClient;
+
+    private AdaptiveLimiter inFlightLimiter;
+
+    private ThreadPoolExecutor executor;
+
+    private final Map<CustomMetrics.OPERATION, Semaphore> operationPermits = new EnumMap<>(CustomMetrics.OPERATION.class);
+
+    private final AtomicInteger pendingTasks = new AtomicInteger();
+
+    private final Object completionLock = new Object();
+
+    @PostConstruct
+    void init() {
+        operationPermits.put(CustomMetrics.OPERATION.CREATE, new Semaphore(maxConcurrentCreates));
+        operationPermits.put(CustomMetrics.OPERATION.UPDATE, new Semaphore(maxConcurrentUpdates));
+        operationPermits.put(CustomMetrics.OPERATION.DELETE, new Semaphore(maxConcurrentDeletes));
+        operationPermits.put(CustomMetrics.OPERATION.UPLOAD, new Semaphore(workers));
+        int maxRequestsPerHost = httpClient.dispatcher().getMaxRequestsPerHost();
+        int maxInFlight = Math.min(inFlightWindowSize, maxRequestsPerHost);
+        if (maxInFlight < inFlightWindowSize) {
+            log.warn("in-flight window {} is above the {} requests per host of the http client, it is lowered to {}",
+                    inFlightWindowSize, maxRequestsPerHost, maxInFlight);
+        }
+        AtomicInteger limitGauge = customMetrics.getAppMiscGauges().get(CustomMetrics.MiscCustomMetric.UPLOAD_CONCURRENCY_LIMIT);
+        inFlightLimiter = adaptive
+                ? new AdaptiveLimiter(initialInFlight, minInFlight, maxInFlight, backoffRatio, latencyThresholdMs, limitGauge)
+                : new AdaptiveLimiter(maxInFlight, maxInFlight, maxInFlight, 1, 0, limitGauge);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "upload-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // the operation permits are taken before a task is queued : at most the sum of the caps can wait here
+        executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        log.info("upload executor started with {} workers and {} requests in flight (at most {})",
+                workers, inFlightLimiter.getLimit(), maxInFlight);
+    }
+
+    /**
+     * Submit an upload task. Blocks while the operation cap is reached.
+     * The task runs on a worker and returns the future of the requests it sent : the operation permit is held until it completes.
+     *
+     * @param operation the operation type
+     * @param task      the task
+     */
+    public void submit(CustomMetrics.OPERATION operation, Supplier<CompletableFuture<?>> task) {
+        Semaphore permits = operationPermits.get(operation);
+        acquire(permits);
+        pendingTasks.incrementAndGet();
+        Runnable release = () -> {
+            permits.release();
+            taskDone();
+        };
+        try {
+            executor.execute(() -> {
+                try {
+                    task.get().whenComplete((result, e) -> {
+                        if (e != null) {
+                            log.debug("upload {} task completed with error", operation, e);
+                        }
+                        release.run();
+                    });
+                } catch (RuntimeException e) {
+                    log.error("upload {} task failed", operation, e);
+                    release.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release.run();
+            throw e;
+        }
+    }
+
+    /**
+     * Send a request asynchronously, waiting first for the in-flight limit.
+     * Server errors, throttling and failed calls count as congestion for the limiter, and the request goes to the retry queue.
+     * An acknowledged request runs the acknowledgement action of its task.
+     *
+     * @param task the task
+     * @return the future of the response status code
+     */
+    public CompletableFuture<Integer> send(Task task) {
+        long start;
+        try {
+            start = inFlightLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for upload permit", e);
+        }
+        CompletableFuture<Integer> response;
+        try {
+            response = task.sendAsync();
+        } catch (RuntimeException e) {
+            inFlightLimiter.release();
+            throw e;
+        }
+        response.whenComplete((code, e) -> {
+            boolean failure = RetryQueue.isFailure(code, e);
+            inFlightLimiter.release(start, failure);
+            if (failure) {
+                retryQueue.add(task);
+            } else {
+                task.acknowledged();
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Gets the in-flight limiter.
+     *
+     * @return the in-flight limiter
+     */
+    public AdaptiveLimiter getInFlightLimiter() {
+        return inFlightLimiter;
+    }
+
+    /**
+     * Wait until every submitted task has completed.
+     *
+     * @throws InterruptedException the interrupted exception
+     */
+    public void awaitCompletion() throws InterruptedException {
+        synchronized (completionLock) {
+            while (pendingTasks.get() > 0) {
+                completionLock.wait();
+            }
+        }
+    }
+
+    private void acquire(Semaphore permits) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for upload permit", e);
+        }
+    }
+
+    private void taskDone() {
+        if (pendingTasks.decrementAndGet() == 0) {
+            synchronized (completionLock) {
+                completionLock.notifyAll();
+            }
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
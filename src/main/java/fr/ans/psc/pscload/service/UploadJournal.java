@@ -0,0 +1,231 @@
+package fr.ans.psc.pscload.service;
+
+import fr.ans.psc.pscload.metrics.CustomMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The type Upload journal.
+ * An append-only file of the upload operations the api acknowledged, one line per entity : operation, entity type, id.
+ * Lines are buffered and forced to disk in batches by the journal thread, every sync interval or sync batch lines :
+ * the http callbacks recording operations only append to the buffer and never wait for the disk.
+ * A run interrupted during its upload recomputes the same diff, the operations found in the journal are then skipped.
+ * A line cut by a crash is ignored when the journal is read back, the operation is only sent again.
+ */
+@Component
+public class UploadJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(UploadJournal.class);
+
+    /**
+     * The journal file extension.
+     */
+    public static final String EXTENSION = ".jnl";
+
+    private static final char SEPARATOR = '|';
+
+    @Value("${upload.journal.enabled:true}")
+    private boolean enabled;
+
+    @Value("${upload.journal.sync.interval:1000}")
+    private long syncIntervalMs;
+
+    @Value("${upload.journal.sync.batch:1000}")
+    private int syncBatch;
+
+    private final Set<String> completed = ConcurrentHashMap.newKeySet();
+
+    // guards the pending lines, held by record and by sync only while it takes them
+    private final StringBuilder pending = new StringBuilder();
+
+    private int pendingLines;
+
+    // guards the channel writes, lines are written and forced in the order they were taken
+    private final Object writeLock = new Object();
+
+    private File file;
+
+    private ScheduledExecutorService syncer;
+
+    private volatile FileChannel channel;
+
+    /**
+     * Tells if operations are journaled.
+     *
+     * @return true if enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Open a journal, reading the operations already recorded in it.
+     *
+     * @param journalFile the journal file, created if missing
+     * @return the count of operations already recorded
+     * @throws IOException the io exception
+     */
+    public synchronized int open(File journalFile) throws IOException {
+        close();
+        completed.clear();
+        synchronized (pending) {
+            pending.setLength(0);
+            pendingLines = 0;
+        }
+        file = journalFile;
+        int validLength = 0;
+        if (journalFile.exists()) {
+            byte[] content = Files.readAllBytes(journalFile.toPath());
+            for (int end = 0; end < content.length; end++) {
+                if (content[end] == '\n') {
+                    completed.add(new String(content, validLength, end - validLength, StandardCharsets.UTF_8));
+                    validLength = end + 1;
+                }
+            }
+        }
+        FileChannel journalChannel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        // drop a line cut by a crash, new lines must not be appended to it
+        journalChannel.truncate(validLength);
+        syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "upload-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(this::syncQuietly, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+        // publishes the syncer to the recording threads
+        channel = journalChannel;
+        if (!completed.isEmpty()) {
+            log.info("upload journal {} resumed with {} completed operations", journalFile.getName(), completed.size());
+        }
+        return completed.size();
+    }
+
+    /**
+     * Tells if an operation is already recorded in the open journal.
+     *
+     * @param operation the operation
+     * @param entity    the entity type
+     * @param id        the entity id
+     * @return true if the operation was acknowledged by the api
+     */
+    public boolean isDone(CustomMetrics.OPERATION operation, CustomMetrics.ENTITY_TYPE entity, String id) {
+        return channel != null && completed.contains(key(operation, entity, id));
+    }
+
+    /**
+     * Record an operation acknowledged by the api, it reaches the disk with the next sync.
+     * A full batch is handed over to the journal thread. Nothing is recorded while no journal is open.
+     *
+     * @param operation the operation
+     * @param entity    the entity type
+     * @param id        the entity id
+     */
+    public void record(CustomMetrics.OPERATION operation, CustomMetrics.ENTITY_TYPE entity, String id) {
+        if (channel == null) {
+            return;
+        }
+        boolean fullBatch;
+        synchronized (pending) {
+            pending.append(key(operation, entity, id)).append('\n');
+            fullBatch = ++pendingLines == syncBatch;
+        }
+        if (fullBatch) {
+            try {
+                syncer.execute(this::syncQuietly);
+            } catch (RejectedExecutionException e) {
+                // the journal is closing, its last sync writes the batch
+            }
+        }
+    }
+
+    /**
+     * Write and force the pending lines to disk.
+     *
+     * @throws IOException the io exception
+     */
+    public void sync() throws IOException {
+        synchronized (writeLock) {
+            FileChannel journalChannel = channel;
+            if (journalChannel == null) {
+                return;
+            }
+            String lines;
+            synchronized (pending) {
+                if (pendingLines == 0) {
+                    return;
+                }
+                lines = pending.toString();
+                pending.setLength(0);
+                pendingLines = 0;
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                journalChannel.write(bytes);
+            }
+            journalChannel.force(false);
+        }
+    }
+
+    /**
+     * Sync and close the journal, the file is kept for a later resume.
+     */
+    @PreDestroy
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        // not interrupted : an interrupted write closes the channel and loses the lines it took
+        syncer.shutdown();
+        syncQuietly();
+        synchronized (writeLock) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error("could not close upload journal {}", file, e);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Close and delete the journal, once its upload is complete.
+     */
+    public synchronized void delete() {
+        close();
+        completed.clear();
+        if (file != null && file.exists() && !file.delete()) {
+            log.warn("could not delete upload journal {}", file);
+        }
+        file = null;
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            log.error("could not sync upload journal {}", file, e);
+        }
+    }
+
+    private static String key(CustomMetrics.OPERATION operation, CustomMetrics.ENTITY_TYPE entity, String id) {
+        return operation.name() + SEPARATOR + entity.name() + SEPARATOR + id;
+    }
+}
@@ -1,6 +1,7 @@
 package fr.ans.psc.pscload.service.task;
 
 import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 
@@ -11,37 +12,38 @@ public class Create extends Task {
 
     private final String url;
 
-    private final String json;
+    private final RequestBody body;
 
     /**
      * Instantiates a new Create.
      *
-     * @param url  the url
-     * @param json the json
+     * @param client the client
+     * @param url    the url
+     * @param json   the json
      */
-    public Create(String url, String json) {
-        this.url = url;
-        this.json = json;
-    }
-
-    @Override
-    public void send() {
-        post(url, json);
+    public Create(OkHttpClient client, String url, String json) {
+        this(client, url, RequestBody.create(json, MediaType.parse("application/json")));
     }
 
     /**
-     * Post.
+     * Instantiates a new Create with a request body, a {@link JsonBody} streams its entity.
      *
-     * @param url  the url
-     * @param json json request
+     * @param client the client
+     * @param url    the url
+     * @param body   the body
      */
-    private void post(String url, String json) {
-        RequestBody body = RequestBody.create(json, MediaType.parse("application/json"));
-        Request request = requestBuilder
+    public Create(OkHttpClient client, String url, RequestBody body) {
+        super(client);
+        this.url = url;
+        this.body = body;
+    }
+
+    @Override
+    Request buildRequest() {
+        return requestBuilder
                 .url(url)
                 .post(body)
                 .build();
-        sendRequest(request);
     }
 
 }
@@ -1,6 +1,9 @@
 package fr.ans.psc.pscload.service.task;
 
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 
 /**
  * The type Delete.
@@ -9,31 +12,48 @@ public class Delete extends Task {
 
     private final String url;
 
+    private final RequestBody body;
+
     /**
      * Instantiates a new Delete.
      *
-     * @param url the url
+     * @param client the client
+     * @param url    the url
      */
-    public Delete(String url) {
-        this.url = url;
+    public Delete(OkHttpClient client, String url) {
+        this(client, url, (RequestBody) null);
     }
 
-    @Override
-    public void send() {
-        delete(url);
+    /**
+     * Instantiates a new Delete with a request body.
+     *
+     * @param client the client
+     * @param url    the url
+     * @param json   the json
+     */
+    public Delete(OkHttpClient client, String url, String json) {
+        this(client, url, RequestBody.create(json, MediaType.parse("application/json")));
     }
 
     /**
-     * Delete.
+     * Instantiates a new Delete with a request body, a {@link JsonBody} streams its entity.
      *
-     * @param url the url
+     * @param client the client
+     * @param url    the url
+     * @param body   the body, or null
      */
-    private void delete(String url) {
-        Request request = requestBuilder
+    public Delete(OkHttpClient client, String url, RequestBody body) {
+        super(client);
+        this.url = url;
+        this.body = body;
+    }
+
+    @Override
+    Request buildRequest() {
+        return requestBuilder
                 .url(url)
-                .delete()
+                .delete(body)
                 .build();
-        sendRequest(request);
     }
 
 }
@@ -0,0 +1,59 @@
+package fr.ans.psc.pscload.service.task;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The type Json body.
+ * A request body encoding its entity to JSON when the request is written, straight into the connection sink :
+ * the JSON is never held as a String nor as a byte array. The length is unknown, the body is sent chunked.
+ */
+public class JsonBody extends RequestBody {
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private final Source source;
+
+    /**
+     * Writes the JSON of an entity.
+     */
+    @FunctionalInterface
+    public interface Source {
+
+        /**
+         * Write the JSON.
+         *
+         * @param writer the writer
+         * @throws IOException the io exception
+         */
+        void writeTo(Writer writer) throws IOException;
+    }
+
+    /**
+     * Instantiates a new Json body.
+     *
+     * @param source the JSON source, called again if the request is retried
+     */
+    public JsonBody(Source source) {
+        this.source = source;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        // the sink stream is not closed, only flushed into the sink buffer
+        Writer writer = new OutputStreamWriter(sink.outputStream(), StandardCharsets.UTF_8);
+        source.writeTo(writer);
+        writer.flush();
+    }
+}
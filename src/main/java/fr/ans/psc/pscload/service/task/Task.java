@@ -7,6 +7,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * The type Task.
@@ -15,30 +17,110 @@ public abstract class Task {
 
     private static final Logger log = LoggerFactory.getLogger(Task.class);
 
-    private final OkHttpClient client = new OkHttpClient();
+    private final OkHttpClient client;
 
     JsonFormatter JsonFormatter = new JsonFormatter();
 
-    // We use this header in order to close the connection after each request
-    final Request.Builder requestBuilder = new Request.Builder().header("Connection", "close");
+    final Request.Builder requestBuilder = new Request.Builder();
 
-    public void send() {}
+    private volatile Runnable acknowledgement;
 
-    void sendRequest(Request request) {
-        Call call = client.newCall(request);
+    /**
+     * Instantiates a new Task.
+     *
+     * @param client the shared http client
+     */
+    Task(OkHttpClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Set the action run once the api acknowledged the request, at its first attempt or when it is redriven.
+     *
+     * @param acknowledgement the action
+     * @return this task
+     */
+    public Task whenAcknowledged(Runnable acknowledgement) {
+        this.acknowledgement = acknowledgement;
+        return this;
+    }
+
+    /**
+     * Run the acknowledgement action of the task, if any.
+     */
+    public void acknowledged() {
+        Runnable action = acknowledgement;
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    /**
+     * Send the request and wait for its response.
+     */
+    public void send() {
         try {
-            Response response = call.execute();
-            String responseBody = Objects.requireNonNull(response.body()).string();
-            ApiResponse apiResponse = JsonFormatter.apiResponseFromJson(responseBody);
-
-            handleApiResponseLogging(apiResponse, responseBody);
-            response.close();
-        } catch (IOException e) {
-            log.error("error: {}", e.getMessage());
-            e.printStackTrace();
+            sendAsync().join();
+        } catch (CompletionException e) {
+            // already logged by the response callback
         }
     }
 
+    /**
+     * Send the request without blocking the calling thread.
+     *
+     * @return a future completed with the http status code, or exceptionally on I/O failure
+     */
+    public CompletableFuture<Integer> sendAsync() {
+        return sendRequest(buildRequest());
+    }
+
+    /**
+     * Gets the http request of this task, as it is sent.
+     *
+     * @return the request
+     */
+    public Request getRequest() {
+        return buildRequest();
+    }
+
+    /**
+     * Build the http request of this task.
+     *
+     * @return the request
+     */
+    abstract Request buildRequest();
+
+    CompletableFuture<Integer> sendRequest(Request request) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                log.error("error: {}", e.getMessage());
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                // closing the response releases the connection back to the pool
+                try (response) {
+                    String responseBody = Objects.requireNonNull(response.body()).string();
+                    ApiResponse apiResponse = JsonFormatter.apiResponseFromJson(responseBody);
+
+                    handleApiResponseLogging(apiResponse, responseBody);
+                    future.complete(response.code());
+                } catch (IOException e) {
+                    log.error("error: {}", e.getMessage());
+                    future.completeExceptionally(e);
+                } catch (RuntimeException e) {
+                    log.error("unreadable api response for {} {}", request.method(), request.url(), e);
+                    future.complete(response.code());
+                }
+            }
+        });
+        return future;
+    }
+
     private void handleApiResponseLogging(ApiResponse apiResponse, String stringifiedBody) {
         if (apiResponse != null && apiResponse.getCode() != null) {
             switch (apiResponse.getCode()) {
@@ -0,0 +1,278 @@
+package fr.ans.psc.pscload.snapshot;
+
+import fr.ans.psc.pscload.model.*;
+
+import java.util.*;
+
+/**
+ * The type Columnar snapshot.
+ * Stores each entity level as a table of int columns, values being codes in a dictionary shared by all columns.
+ * Nested lists are ranges of the child table, given by start offsets, and keys are found through open addressing indexes.
+ * Entities are only rebuilt when read through the map views.
+ */
+public class ColumnarSnapshot implements Snapshot {
+
+    private static final int ROW_LENGTH = 50;
+
+    private static final int NATIONAL_ID_ITEM = 2;
+
+    private static final int STRUCTURE_ID_ITEM = 28;
+
+    private final String[] dictionary;
+
+    private final Table ps;
+
+    private final Table professions;
+
+    private final Table expertises;
+
+    private final Table situations;
+
+    private final Table structureRefs;
+
+    private final Table structures;
+
+    private final int[] professionStart;
+
+    private final int[] expertiseStart;
+
+    private final int[] situationStart;
+
+    private final int[] structureRefStart;
+
+    private final Map<String, Professionnel> psView;
+
+    private final Map<String, Structure> structureView;
+
+    private ColumnarSnapshot(Builder builder) {
+        dictionary = builder.values.toArray(new String[0]);
+        ps = builder.ps;
+        professions = builder.professions;
+        expertises = builder.expertises;
+        situations = builder.situations;
+        structureRefs = builder.structureRefs;
+        structures = builder.structures;
+        professionStart = builder.professionStart;
+        expertiseStart = builder.expertiseStart;
+        situationStart = builder.situationStart;
+        structureRefStart = builder.structureRefStart;
+
+        OpenAddressingIndex psIndex = new OpenAddressingIndex(ps.rows, this::nationalId);
+        for (int row = 0; row < ps.rows; row++) {
+            psIndex.put(row);
+        }
+        OpenAddressingIndex structureIndex = new OpenAddressingIndex(structures.rows, this::structureId);
+        for (int row = 0; row < structures.rows; row++) {
+            structureIndex.put(row);
+        }
+        psView = new RecordMapView<>(ps.rows, this::nationalId, this::professionnel, psIndex::find);
+        structureView = new RecordMapView<>(structures.rows, this::structureId, this::structure, structureIndex::find);
+    }
+
+    /**
+     * Build a columnar snapshot from maps.
+     *
+     * @param psMap        the ps map
+     * @param structureMap the structure map
+     * @return the columnar snapshot
+     */
+    public static ColumnarSnapshot of(Map<String, Professionnel> psMap, Map<String, Structure> structureMap) {
+        return new Builder(psMap.values(), structureMap.values()).build();
+    }
+
+    @Override
+    public Map<String, Professionnel> getPsMap() {
+        return psView;
+    }
+
+    @Override
+    public Map<String, Structure> getStructureMap() {
+        return structureView;
+    }
+
+    private String nationalId(int row) {
+        return ps.value(NATIONAL_ID_ITEM, row, dictionary);
+    }
+
+    private String structureId(int row) {
+        return Objects.toString(structures.value(STRUCTURE_ID_ITEM, row, dictionary), "");
+    }
+
+    private Professionnel professionnel(int row) {
+        String[] items = new String[ROW_LENGTH];
+        ps.fill(row, items, dictionary);
+        Professionnel professionnel = new Professionnel(items, false);
+        for (int profession = professionStart[row]; profession < professionStart[row + 1]; profession++) {
+            professions.fill(profession, items, dictionary);
+            ExerciceProfessionnel exPro = new ExerciceProfessionnel(items, false);
+            for (int expertise = expertiseStart[profession]; expertise < expertiseStart[profession + 1]; expertise++) {
+                expertises.fill(expertise, items, dictionary);
+                exPro.getExpertises().add(new SavoirFaire(items));
+            }
+            for (int situation = situationStart[profession]; situation < situationStart[profession + 1]; situation++) {
+                situations.fill(situation, items, dictionary);
+                SituationExercice situationExercice = new SituationExercice(items, false);
+                for (int structureRef = structureRefStart[situation]; structureRef < structureRefStart[situation + 1]; structureRef++) {
+                    situationExercice.getStructures().add(new StructureRef(structureRefs.value(STRUCTURE_ID_ITEM, structureRef, dictionary)));
+                }
+                exPro.getWorkSituations().add(situationExercice);
+            }
+            professionnel.getProfessions().add(exPro);
+        }
+        return professionnel;
+    }
+
+    private Structure structure(int row) {
+        String[] items = new String[ROW_LENGTH];
+        structures.fill(row, items, dictionary);
+        return new Structure(items);
+    }
+
+    /**
+     * Int columns of an entity level, each column holds the values of one extract row item.
+     */
+    private static class Table {
+
+        private final int[] items;
+
+        private final int[][] columns;
+
+        private final int rows;
+
+        private Table(int rows, int firstItem, int lastItem) {
+            this.items = new int[lastItem - firstItem + 1];
+            for (int i = 0; i < items.length; i++) {
+                items[i] = firstItem + i;
+            }
+            this.columns = new int[items.length][rows];
+            this.rows = rows;
+        }
+
+        private void set(int row, String[] rowItems, Builder builder) {
+            for (int column = 0; column < items.length; column++) {
+                columns[column][row] = builder.code(rowItems[items[column]]);
+            }
+        }
+
+        private void fill(int row, String[] rowItems, String[] dictionary) {
+            for (int column = 0; column < items.length; column++) {
+                int code = columns[column][row];
+                rowItems[items[column]] = code < 0 ? null : dictionary[code];
+            }
+        }
+
+        private String value(int item, int row, String[] dictionary) {
+            int code = columns[item - items[0]][row];
+            return code < 0 ? null : dictionary[code];
+        }
+    }
+
+    private static class Builder {
+
+        private final Map<String, Integer> codes = new HashMap<>();
+
+        private final List<String> values = new ArrayList<>();
+
+        private final Table ps;
+
+        private final Table professions;
+
+        private final Table expertises;
+
+        private final Table situations;
+
+        private final Table structureRefs;
+
+        private final Table structures;
+
+        private final int[] professionStart;
+
+        private final int[] expertiseStart;
+
+        private final int[] situationStart;
+
+        private final int[] structureRefStart;
+
+        private Builder(Collection<Professionnel> psList, Collection<Structure> structureList) {
+            // sizes are counted first so that every column is allocated once at its final length
+            int professionCount = 0;
+            int expertiseCount = 0;
+            int situationCount = 0;
+            int structureRefCount = 0;
+            for (Professionnel professionnel : psList) {
+                for (ExerciceProfessionnel exPro : professionnel.getProfessions()) {
+                    professionCount++;
+                    expertiseCount += exPro.getExpertises().size();
+                    situationCount += exPro.getWorkSituations().size();
+                    for (SituationExercice situation : exPro.getWorkSituations()) {
+                        structureRefCount += situation.getStructures().size();
+                    }
+                }
+            }
+            ps = new Table(psList.size(), 0, 12);
+            professions = new Table(professionCount, 13, 17);
+            expertises = new Table(expertiseCount, 18, 19);
+            situations = new Table(situationCount, 20, 23);
+            structureRefs = new Table(structureRefCount, STRUCTURE_ID_ITEM, STRUCTURE_ID_ITEM);
+            structures = new Table(structureList.size(), 24, 48);
+            professionStart = new int[psList.size() + 1];
+            expertiseStart = new int[professionCount + 1];
+            situationStart = new int[professionCount + 1];
+            structureRefStart = new int[situationCount + 1];
+
+            String[] items = new String[ROW_LENGTH];
+            int row = 0;
+            int profession = 0;
+            int expertise = 0;
+            int situation = 0;
+            int structureRef = 0;
+            for (Professionnel professionnel : psList) {
+                professionnel.fillItems(items);
+                ps.set(row, items, this);
+                for (ExerciceProfessionnel exPro : professionnel.getProfessions()) {
+                    exPro.fillItems(items);
+                    professions.set(profession, items, this);
+                    for (SavoirFaire savoirFaire : exPro.getExpertises()) {
+                        savoirFaire.fillItems(items);
+                        expertises.set(expertise++, items, this);
+                    }
+                    for (SituationExercice situationExercice : exPro.getWorkSituations()) {
+                        situationExercice.fillItems(items);
+                        situations.set(situation, items, this);
+                        for (StructureRef ref : situationExercice.getStructures()) {
+                            items[STRUCTURE_ID_ITEM] = ref.getStructureId();
+                            structureRefs.set(structureRef++, items, this);
+                        }
+                        structureRefStart[++situation] = structureRef;
+                    }
+                    expertiseStart[++profession] = expertise;
+                    situationStart[profession] = situation;
+                }
+                professionStart[++row] = profession;
+            }
+
+            row = 0;
+            for (Structure structure : structureList) {
+                structure.fillItems(items);
+                structures.set(row++, items, this);
+            }
+        }
+
+        private int code(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+            }
+            return code;
+        }
+
+        private ColumnarSnapshot build() {
+            return new ColumnarSnapshot(this);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package fr.ans.psc.pscload.snapshot;
+
+import fr.ans.psc.pscload.model.Professionnel;
+import fr.ans.psc.pscload.model.Structure;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The type Off heap snapshot.
+ * Keeps encoded records in direct buffers, only the record addresses and the key indexes stay on the heap.
+ * Entities read through the map views are short-lived and do not reach the old generation.
+ */
+public class OffHeapSnapshot implements Snapshot {
+
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final Map<String, Professionnel> psView;
+
+    private final Map<String, Structure> structureView;
+
+    private OffHeapSnapshot(Records psRecords, Records structureRecords) {
+        OpenAddressingIndex psIndex = psRecords.index();
+        OpenAddressingIndex structureIndex = structureRecords.index();
+        psView = new RecordMapView<>(psRecords.count, psRecords::key,
+                record -> RecordCodec.readProfessionnel(psRecords.record(record)), psIndex::find);
+        structureView = new RecordMapView<>(structureRecords.count, structureRecords::key,
+                record -> RecordCodec.readStructure(structureRecords.record(record)), structureIndex::find);
+    }
+
+    /**
+     * Encode maps off heap.
+     *
+     * @param psMap        the ps map
+     * @param structureMap the structure map
+     * @return the off heap snapshot
+     */
+    public static OffHeapSnapshot of(Map<String, Professionnel> psMap, Map<String, Structure> structureMap) {
+        RecordCodec.Writer writer = new RecordCodec.Writer();
+        Records psRecords = new Records(psMap.size());
+        for (Professionnel ps : psMap.values()) {
+            writer.reset();
+            RecordCodec.writeProfessionnel(ps, writer);
+            psRecords.append(writer);
+        }
+        Records structureRecords = new Records(structureMap.size());
+        for (Structure structure : structureMap.values()) {
+            writer.reset();
+            RecordCodec.writeStructure(structure, writer);
+            structureRecords.append(writer);
+        }
+        return new OffHeapSnapshot(psRecords, structureRecords);
+    }
+
+    @Override
+    public Map<String, Professionnel> getPsMap() {
+        return psView;
+    }
+
+    @Override
+    public Map<String, Structure> getStructureMap() {
+        return structureView;
+    }
+
+    /**
+     * Records appended to direct buffer segments, a record never spans two segments.
+     */
+    private static class Records {
+
+        private final List<ByteBuffer> segments = new ArrayList<>();
+
+        // segment number in the high bits, offset in the low bits
+        private long[] addresses;
+
+        private int count;
+
+        private ByteBuffer current;
+
+        private Records(int expectedCount) {
+            addresses = new long[Math.max(expectedCount, 16)];
+        }
+
+        private void append(RecordCodec.Writer writer) {
+            if (current == null || current.remaining() < writer.size()) {
+                current = ByteBuffer.allocateDirect(Math.max(SEGMENT_SIZE, writer.size()));
+                segments.add(current);
+            }
+            if (count == addresses.length) {
+                addresses = Arrays.copyOf(addresses, count * 2);
+            }
+            addresses[count++] = ((long) (segments.size() - 1) << 32) | current.position();
+            current.put(writer.buffer(), 0, writer.size());
+        }
+
+        private ByteBuffer record(int record) {
+            long address = addresses[record];
+            // a duplicate per read, concurrent readers each get their own position
+            ByteBuffer buffer = segments.get((int) (address >>> 32)).duplicate();
+            buffer.position((int) address);
+            return buffer;
+        }
+
+        private String key(int record) {
+            return RecordCodec.readKey(record(record));
+        }
+
+        private OpenAddressingIndex index() {
+            OpenAddressingIndex index = new OpenAddressingIndex(count, this::key);
+            for (int record = 0; record < count; record++) {
+                index.put(record);
+            }
+            return index;
+        }
+    }
+}
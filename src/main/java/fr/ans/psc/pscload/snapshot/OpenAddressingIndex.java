@@ -0,0 +1,69 @@
+package fr.ans.psc.pscload.snapshot;
+
+import java.util.function.IntFunction;
+
+/**
+ * The type Open addressing index.
+ * Maps keys to record numbers with a single int array and linear probing, the keys themselves are read from the records.
+ */
+public class OpenAddressingIndex {
+
+    // record number + 1, 0 marks an empty slot
+    private final int[] slots;
+
+    private final int mask;
+
+    private final IntFunction<String> keyOf;
+
+    /**
+     * Instantiates a new index, at most half full.
+     *
+     * @param size  the number of records
+     * @param keyOf the key of a record number
+     */
+    public OpenAddressingIndex(int size, IntFunction<String> keyOf) {
+        int capacity = Integer.highestOneBit(Math.max(2, size) * 2 - 1) << 1;
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+        this.keyOf = keyOf;
+    }
+
+    /**
+     * Index a record, keys are expected to be unique.
+     *
+     * @param record the record number
+     */
+    public void put(int record) {
+        int slot = mix(keyOf.apply(record).hashCode()) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = record + 1;
+    }
+
+    /**
+     * Find the record of a key.
+     *
+     * @param key the key
+     * @return the record number, -1 if absent
+     */
+    public int find(Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+        int slot = mix(key.hashCode()) & mask;
+        while (slots[slot] != 0) {
+            int record = slots[slot] - 1;
+            if (key.equals(keyOf.apply(record))) {
+                return record;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,222 @@
+package fr.ans.psc.pscload.snapshot;
+
+import fr.ans.psc.pscload.model.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The type Record codec.
+ * Encodes a PS or a structure as a compact record : its key first, then its values as length prefixed UTF-8 strings
+ * and its nested lists as counts followed by their elements. Lengths and counts are varints.
+ */
+public final class RecordCodec {
+
+    private static final int ROW_LENGTH = 50;
+
+    private RecordCodec() {
+    }
+
+    /**
+     * Write a ps record.
+     *
+     * @param ps  the ps
+     * @param out the writer
+     */
+    public static void writeProfessionnel(Professionnel ps, Writer out) {
+        String[] items = new String[ROW_LENGTH];
+        out.writeString(ps.getNationalId());
+        ps.fillItems(items);
+        out.writeItems(items, 0, 12);
+        out.writeVarInt(ps.getProfessions().size());
+        for (ExerciceProfessionnel exPro : ps.getProfessions()) {
+            exPro.fillItems(items);
+            out.writeItems(items, 13, 17);
+            out.writeVarInt(exPro.getExpertises().size());
+            for (SavoirFaire expertise : exPro.getExpertises()) {
+                expertise.fillItems(items);
+                out.writeItems(items, 18, 19);
+            }
+            out.writeVarInt(exPro.getWorkSituations().size());
+            for (SituationExercice situation : exPro.getWorkSituations()) {
+                situation.fillItems(items);
+                out.writeItems(items, 20, 23);
+                out.writeVarInt(situation.getStructures().size());
+                for (StructureRef structureRef : situation.getStructures()) {
+                    out.writeString(structureRef.getStructureId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a ps record.
+     *
+     * @param in the record, from its start
+     * @return the ps
+     */
+    public static Professionnel readProfessionnel(ByteBuffer in) {
+        String[] items = new String[ROW_LENGTH];
+        readString(in);
+        readItems(in, items, 0, 12);
+        Professionnel ps = new Professionnel(items, false);
+        int professionCount = readVarInt(in);
+        for (int profession = 0; profession < professionCount; profession++) {
+            readItems(in, items, 13, 17);
+            ExerciceProfessionnel exPro = new ExerciceProfessionnel(items, false);
+            int expertiseCount = readVarInt(in);
+            for (int expertise = 0; expertise < expertiseCount; expertise++) {
+                readItems(in, items, 18, 19);
+                exPro.getExpertises().add(new SavoirFaire(items));
+            }
+            int situationCount = readVarInt(in);
+            for (int situation = 0; situation < situationCount; situation++) {
+                readItems(in, items, 20, 23);
+                SituationExercice situationExercice = new SituationExercice(items, false);
+                int structureRefCount = readVarInt(in);
+                for (int structureRef = 0; structureRef < structureRefCount; structureRef++) {
+                    situationExercice.getStructures().add(new StructureRef(readString(in)));
+                }
+                exPro.getWorkSituations().add(situationExercice);
+            }
+            ps.getProfessions().add(exPro);
+        }
+        return ps;
+    }
+
+    /**
+     * Write a structure record.
+     *
+     * @param structure the structure
+     * @param out       the writer
+     */
+    public static void writeStructure(Structure structure, Writer out) {
+        String[] items = new String[ROW_LENGTH];
+        out.writeString(structure.getStructureId());
+        structure.fillItems(items);
+        out.writeItems(items, 24, 48);
+    }
+
+    /**
+     * Read a structure record.
+     *
+     * @param in the record, from its start
+     * @return the structure
+     */
+    public static Structure readStructure(ByteBuffer in) {
+        String[] items = new String[ROW_LENGTH];
+        readString(in);
+        readItems(in, items, 24, 48);
+        return new Structure(items);
+    }
+
+    /**
+     * Read the key of a record.
+     *
+     * @param in the record, from its start
+     * @return the key
+     */
+    public static String readKey(ByteBuffer in) {
+        return readString(in);
+    }
+
+    /**
+     * Read the idType of a ps record without decoding the rest of it.
+     *
+     * @param in the record, from its start
+     * @return the id type
+     */
+    public static String readIdType(ByteBuffer in) {
+        readString(in);
+        return readString(in);
+    }
+
+    private static void readItems(ByteBuffer in, String[] items, int firstItem, int lastItem) {
+        for (int item = firstItem; item <= lastItem; item++) {
+            items[item] = readString(in);
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (in.hasArray()) {
+            String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * Growable record buffer, reused from one record to the next.
+     */
+    public static class Writer {
+
+        private byte[] buffer = new byte[1024];
+
+        private int size;
+
+        public void reset() {
+            size = 0;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public byte[] buffer() {
+            return buffer;
+        }
+
+        private void writeItems(String[] items, int firstItem, int lastItem) {
+            for (int item = firstItem; item <= lastItem; item++) {
+                writeString(items[item]);
+            }
+        }
+
+        private void writeString(String value) {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length + 1);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void writeVarInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package fr.ans.psc.pscload.snapshot;
+
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * The type Record map view.
+ * Read-only map over numbered records, values are materialized on each access and never kept.
+ *
+ * @param <V> the value type
+ */
+public class RecordMapView<V> extends AbstractMap<String, V> {
+
+    private final int size;
+
+    private final IntFunction<String> keyOf;
+
+    private final IntFunction<V> valueOf;
+
+    private final ToIntFunction<Object> find;
+
+    /**
+     * Instantiates a new Record map view.
+     *
+     * @param size    the number of records
+     * @param keyOf   the key of a record number
+     * @param valueOf the value of a record number
+     * @param find    the record number of a key, -1 if absent
+     */
+    public RecordMapView(int size, IntFunction<String> keyOf, IntFunction<V> valueOf, ToIntFunction<Object> find) {
+        this.size = size;
+        this.keyOf = keyOf;
+        this.valueOf = valueOf;
+        this.find = find;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find.applyAsInt(key) >= 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        int record = find.applyAsInt(key);
+        return record < 0 ? null : valueOf.apply(record);
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new RecordIterator<>(keyOf);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object key) {
+                return containsKey(key);
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, V>> iterator() {
+                return new RecordIterator<>(record -> new SimpleImmutableEntry<>(keyOf.apply(record), valueOf.apply(record)));
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private class RecordIterator<T> implements Iterator<T> {
+
+        private final IntFunction<T> elementOf;
+
+        private int next;
+
+        private RecordIterator(IntFunction<T> elementOf) {
+            this.elementOf = elementOf;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public T next() {
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            return elementOf.apply(next++);
+        }
+    }
+}
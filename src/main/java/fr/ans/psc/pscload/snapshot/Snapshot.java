@@ -0,0 +1,48 @@
+package fr.ans.psc.pscload.snapshot;
+
+import fr.ans.psc.pscload.model.Professionnel;
+import fr.ans.psc.pscload.model.Structure;
+
+import java.util.Map;
+
+/**
+ * The interface Snapshot.
+ * The PS and structures of an extract, keyed by nationalId and structure id.
+ */
+public interface Snapshot {
+
+    /**
+     * Gets ps map.
+     *
+     * @return the ps map
+     */
+    Map<String, Professionnel> getPsMap();
+
+    /**
+     * Gets structure map.
+     *
+     * @return the structure map
+     */
+    Map<String, Structure> getStructureMap();
+
+    /**
+     * Snapshot of plain maps.
+     *
+     * @param psMap        the ps map
+     * @param structureMap the structure map
+     * @return the snapshot
+     */
+    static Snapshot of(Map<String, Professionnel> psMap, Map<String, Structure> structureMap) {
+        return new Snapshot() {
+            @Override
+            public Map<String, Professionnel> getPsMap() {
+                return psMap;
+            }
+
+            @Override
+            public Map<String, Structure> getStructureMap() {
+                return structureMap;
+            }
+        };
+    }
+}
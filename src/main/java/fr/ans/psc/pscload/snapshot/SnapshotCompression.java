@@ -0,0 +1,116 @@
+package fr.ans.psc.pscload.snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The snapshot compression codecs.
+ * Compressed streams start with the header of their codec, so a snapshot is read back whatever the configured codec,
+ * uncompressed kryo snapshots start with the kryo id of HashMap which is neither header.
+ */
+public enum SnapshotCompression {
+
+    /**
+     * No compression.
+     */
+    NONE,
+    /**
+     * Zlib deflate stream.
+     */
+    DEFLATE,
+    /**
+     * Gzip stream.
+     */
+    GZIP;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Gets the codec of a property value.
+     *
+     * @param value the property value, case insensitive
+     * @return the codec
+     */
+    public static SnapshotCompression fromValue(String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+
+    /**
+     * Compress a stream, closing the returned stream finishes and closes the wrapped one.
+     *
+     * @param out   the out
+     * @param level the deflate level, 1 (fastest) to 9 (smallest)
+     * @return the compressed stream
+     * @throws IOException the io exception
+     */
+    public OutputStream compress(OutputStream out, int level) throws IOException {
+        switch (this) {
+            case DEFLATE:
+                Deflater deflater = new Deflater(level);
+                return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        deflater.end();
+                    }
+                };
+            case GZIP:
+                return new GZIPOutputStream(out, BUFFER_SIZE) {
+                    {
+                        def.setLevel(level);
+                    }
+                };
+            default:
+                return out;
+        }
+    }
+
+    /**
+     * Decompress a stream according to its header, records are inflated as they are read.
+     *
+     * @param in the in
+     * @return the decompressed stream
+     * @throws IOException the io exception
+     */
+    public static InputStream decompress(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        switch (detect(buffered)) {
+            case DEFLATE:
+                Inflater inflater = new Inflater();
+                return new InflaterInputStream(buffered, inflater, BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        inflater.end();
+                    }
+                };
+            case GZIP:
+                return new GZIPInputStream(buffered, BUFFER_SIZE);
+            default:
+                return buffered;
+        }
+    }
+
+    private static SnapshotCompression detect(BufferedInputStream in) throws IOException {
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        if (first == 0x1f && second == 0x8b) {
+            return GZIP;
+        }
+        // zlib header : deflate method and a check value making the first two bytes a multiple of 31
+        if (first >= 0 && second >= 0 && (first & 0x0f) == 8 && ((first << 8) | second) % 31 == 0) {
+            return DEFLATE;
+        }
+        return NONE;
+    }
+}
@@ -0,0 +1,292 @@
+package fr.ans.psc.pscload.snapshot;
+
+import fr.ans.psc.pscload.mapper.FingerprintIndex;
+import fr.ans.psc.pscload.metrics.CustomMetrics;
+import fr.ans.psc.pscload.metrics.PsSizeCounts;
+import fr.ans.psc.pscload.model.Professionnel;
+import fr.ans.psc.pscload.model.PsFingerprint;
+import fr.ans.psc.pscload.model.Structure;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The type Snapshot file.
+ * Random access snapshot format, memory-mapped when read : nothing is decoded before a record is looked up.
+ * <pre>
+ * header  : magic, version
+ * records : ps records then structure records, see {@link RecordCodec}, each group sorted by key
+ * indexes : per ps its record offset and content digest, per structure its record offset, in key order
+ * footer  : index offsets and counts, longest record length, version, magic
+ * </pre>
+ * Keys are found by binary search in the sorted indexes.
+ */
+public class SnapshotFile implements Snapshot {
+
+    private static final int MAGIC = 0x50534353;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int FOOTER_SIZE = 8 + 4 + 8 + 4 + 4 + 4 + 4;
+
+    private static final int PS_INDEX_ENTRY_SIZE = 24;
+
+    private static final int STRUCTURE_INDEX_ENTRY_SIZE = 8;
+
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final MappedByteBuffer[] segments;
+
+    private final long psIndexOffset;
+
+    private final int psCount;
+
+    private final long structureIndexOffset;
+
+    private final int structureCount;
+
+    private final Map<String, Professionnel> psView;
+
+    private final Map<String, Structure> structureView;
+
+    private SnapshotFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            channel.read(footer, size - FOOTER_SIZE);
+            footer.flip();
+            psIndexOffset = footer.getLong();
+            psCount = footer.getInt();
+            structureIndexOffset = footer.getLong();
+            structureCount = footer.getInt();
+            int maxRecordLength = footer.getInt();
+            int version = footer.getInt();
+            if (footer.getInt() != MAGIC || version != VERSION) {
+                throw new IOException("Unsupported snapshot file " + file.getName());
+            }
+
+            // segments overlap by the longest record, so that a record or an index entry is read from a single segment
+            int overlap = Math.max(maxRecordLength, PS_INDEX_ENTRY_SIZE);
+            segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, SEGMENT_SIZE + overlap));
+            }
+        }
+        psView = new RecordMapView<>(psCount, this::nationalId,
+                record -> RecordCodec.readProfessionnel(at(psRecordOffset(record))), this::findPs);
+        structureView = new RecordMapView<>(structureCount, this::structureId,
+                record -> RecordCodec.readStructure(at(structureRecordOffset(record))), this::findStructure);
+    }
+
+    /**
+     * Tells if a file is in this format, snapshots written by older versions are kryo files.
+     *
+     * @param file the file
+     * @return true if the file starts with the snapshot magic number
+     * @throws IOException the io exception
+     */
+    public static boolean isSnapshotFile(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return file.length() >= HEADER_SIZE + FOOTER_SIZE && in.readInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Map a snapshot file.
+     *
+     * @param file the file
+     * @return the snapshot file
+     * @throws IOException the io exception
+     */
+    public static SnapshotFile open(File file) throws IOException {
+        return new SnapshotFile(file);
+    }
+
+    /**
+     * Write maps to a snapshot file.
+     *
+     * @param psMap            the ps map
+     * @param structureMap     the structure map
+     * @param fingerprintIndex the fingerprint index of the ps map
+     * @param file             the file
+     * @throws IOException the io exception
+     */
+    public static void write(Map<String, Professionnel> psMap, Map<String, Structure> structureMap,
+                             FingerprintIndex fingerprintIndex, File file) throws IOException {
+        String[] nationalIds = psMap.keySet().toArray(new String[0]);
+        Arrays.sort(nationalIds);
+        String[] structureIds = structureMap.keySet().toArray(new String[0]);
+        Arrays.sort(structureIds);
+        long[] psOffsets = new long[nationalIds.length];
+        long[] structureOffsets = new long[structureIds.length];
+        int maxRecordLength = 0;
+
+        CountingStream counter = new CountingStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try (DataOutputStream out = new DataOutputStream(counter)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            RecordCodec.Writer writer = new RecordCodec.Writer();
+            for (int i = 0; i < nationalIds.length; i++) {
+                writer.reset();
+                RecordCodec.writeProfessionnel(psMap.get(nationalIds[i]), writer);
+                psOffsets[i] = counter.position();
+                out.write(writer.buffer(), 0, writer.size());
+                maxRecordLength = Math.max(maxRecordLength, writer.size());
+            }
+            for (int i = 0; i < structureIds.length; i++) {
+                writer.reset();
+                RecordCodec.writeStructure(structureMap.get(structureIds[i]), writer);
+                structureOffsets[i] = counter.position();
+                out.write(writer.buffer(), 0, writer.size());
+                maxRecordLength = Math.max(maxRecordLength, writer.size());
+            }
+
+            long psIndexOffset = counter.position();
+            for (int i = 0; i < nationalIds.length; i++) {
+                PsFingerprint fingerprint = fingerprintIndex.get(nationalIds[i]);
+                if (fingerprint == null) {
+                    fingerprint = PsFingerprint.of(psMap.get(nationalIds[i]));
+                }
+                out.writeLong(psOffsets[i]);
+                out.writeLong(fingerprint.getHigh());
+                out.writeLong(fingerprint.getLow());
+            }
+            long structureIndexOffset = counter.position();
+            for (long structureOffset : structureOffsets) {
+                out.writeLong(structureOffset);
+            }
+
+            out.writeLong(psIndexOffset);
+            out.writeInt(nationalIds.length);
+            out.writeLong(structureIndexOffset);
+            out.writeInt(structureIds.length);
+            out.writeInt(maxRecordLength);
+            out.writeInt(VERSION);
+            out.writeInt(MAGIC);
+        }
+    }
+
+    @Override
+    public Map<String, Professionnel> getPsMap() {
+        return psView;
+    }
+
+    @Override
+    public Map<String, Structure> getStructureMap() {
+        return structureView;
+    }
+
+    /**
+     * Gets the fingerprint index read from the file, profession digests are not stored and computed when needed.
+     *
+     * @return the fingerprint index
+     */
+    public FingerprintIndex getFingerprintIndex() {
+        return FingerprintIndex.view(psCount, nationalId -> {
+            int record = findPs(nationalId);
+            if (record < 0) {
+                return null;
+            }
+            ByteBuffer entry = at(psIndexOffset + (long) record * PS_INDEX_ENTRY_SIZE + 8);
+            return new PsFingerprint(entry.getLong(), entry.getLong(), new String[0], new long[0]);
+        });
+    }
+
+    /**
+     * Count the ps by idType, only the idType of each record is decoded.
+     *
+     * @return the counts of the upload operation
+     */
+    public PsSizeCounts countUploads() {
+        PsSizeCounts counts = new PsSizeCounts();
+        for (int record = 0; record < psCount; record++) {
+            counts.add(RecordCodec.readIdType(at(psRecordOffset(record))), CustomMetrics.OPERATION.UPLOAD);
+        }
+        return counts;
+    }
+
+    private long psRecordOffset(int record) {
+        return at(psIndexOffset + (long) record * PS_INDEX_ENTRY_SIZE).getLong();
+    }
+
+    private long structureRecordOffset(int record) {
+        return at(structureIndexOffset + (long) record * STRUCTURE_INDEX_ENTRY_SIZE).getLong();
+    }
+
+    private String nationalId(int record) {
+        return RecordCodec.readKey(at(psRecordOffset(record)));
+    }
+
+    private String structureId(int record) {
+        return RecordCodec.readKey(at(structureRecordOffset(record)));
+    }
+
+    private int findPs(Object key) {
+        return key instanceof String ? binarySearch((String) key, psCount, true) : -1;
+    }
+
+    private int findStructure(Object key) {
+        return key instanceof String ? binarySearch((String) key, structureCount, false) : -1;
+    }
+
+    private int binarySearch(String key, int count, boolean ps) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = (ps ? nationalId(middle) : structureId(middle)).compareTo(key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private ByteBuffer at(long position) {
+        int segment = (int) (position / SEGMENT_SIZE);
+        ByteBuffer buffer = segments[segment].duplicate();
+        buffer.position((int) (position - segment * SEGMENT_SIZE));
+        return buffer;
+    }
+
+    /**
+     * Counts the bytes written with a long, files may exceed 2 GB.
+     */
+    private static class CountingStream extends FilterOutputStream {
+
+        private long position;
+
+        private CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            position += len;
+        }
+
+        private long position() {
+            return position;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package fr.ans.psc.pscload.snapshot;
+
+import fr.ans.psc.pscload.model.Professionnel;
+import fr.ans.psc.pscload.model.Structure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * The type Snapshot store.
+ * Converts loaded maps to the snapshot representation chosen with the snapshot.store property.
+ */
+@Component
+public class SnapshotStore {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotStore.class);
+
+    /**
+     * The snapshot representations.
+     */
+    public enum Type {
+        MAPS,
+        COLUMNAR,
+        OFFHEAP
+    }
+
+    @Value("${snapshot.store:maps}")
+    private String type;
+
+    /**
+     * Store maps, they must not be used afterwards unless the maps type is selected.
+     *
+     * @param psMap        the ps map
+     * @param structureMap the structure map
+     * @return the snapshot
+     */
+    public Snapshot store(Map<String, Professionnel> psMap, Map<String, Structure> structureMap) {
+        switch (getType()) {
+            case COLUMNAR:
+                log.info("storing {} Ps and {} structures in columns", psMap.size(), structureMap.size());
+                return ColumnarSnapshot.of(psMap, structureMap);
+            case OFFHEAP:
+                log.info("storing {} Ps and {} structures off heap", psMap.size(), structureMap.size());
+                return OffHeapSnapshot.of(psMap, structureMap);
+            default:
+                return Snapshot.of(psMap, structureMap);
+        }
+    }
+
+    public Type getType() {
+        return Type.valueOf(type.trim().toUpperCase());
+    }
+}
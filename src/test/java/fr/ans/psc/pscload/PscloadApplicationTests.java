@@ -11,6 +11,7 @@ import fr.ans.psc.pscload.model.Structure;
 import fr.ans.psc.pscload.service.PscRestApi;
 import fr.ans.psc.pscload.service.task.Create;
 import fr.ans.psc.pscload.service.task.Delete;
+import okhttp3.OkHttpClient;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -36,6 +37,9 @@ class PscloadApplicationTests {
 	@Autowired
 	PscRestApi pscRestApi;
 
+	@Autowired
+	OkHttpClient httpClient;
+
 	@Test
 	@Disabled
 	void downloadTest() throws GeneralSecurityException, IOException {
@@ -60,7 +64,7 @@ class PscloadApplicationTests {
 	@Disabled
 	void restServiceTest() {
 		String url = "http://localhost:8000/api/ps";
-		new Delete(url + '/' + URLEncoder.encode("49278795704225/20005332", StandardCharsets.UTF_8)).send();
+		new Delete(httpClient, url + '/' + URLEncoder.encode("49278795704225/20005332", StandardCharsets.UTF_8)).send();
 //		PsListResponse psListResponse = pscRestApi.getPsList(url);
 		System.out.println("fae");
 	}
@@ -82,7 +86,7 @@ class PscloadApplicationTests {
 		JsonFormatter jsonFormatter = new JsonFormatter();
 
 		for (Professionnel ps : original.values()) {
-			new Create(url, jsonFormatter.jsonFromObject(ps)).send();
+			new Create(httpClient, url, jsonFormatter.jsonFromObject(ps)).send();
 		}
 
 		System.out.println(System.currentTimeMillis()-startTime);
@@ -111,9 +115,9 @@ class PscloadApplicationTests {
 		JsonFormatter jsonFormatter = new JsonFormatter();
 
 		diff.entriesOnlyOnLeft().forEach((k, v) ->
-				new Delete(url + '/' + URLEncoder.encode(v.getNationalId(), StandardCharsets.UTF_8)).send());
+				new Delete(httpClient, url + '/' + URLEncoder.encode(v.getNationalId(), StandardCharsets.UTF_8)).send());
 		diff.entriesOnlyOnRight().forEach((k, v) ->
-				new Create(url, jsonFormatter.jsonFromObject(v)).send());
+				new Create(httpClient, url, jsonFormatter.jsonFromObject(v)).send());
 		System.out.println(System.currentTimeMillis()-startTime);
 	}
 
@@ -0,0 +1,56 @@
+package fr.ans.psc.pscload.component;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import fr.ans.psc.pscload.model.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JsonFormatterTests {
+
+	// the reflective configuration the model adapters replace
+	private final Gson reflectiveGson = new GsonBuilder().disableHtmlEscaping()
+			.registerTypeHierarchyAdapter(List.class, new JsonFormatter.CollectionAdapter()).create();
+
+	private final JsonFormatter jsonFormatter = new JsonFormatter();
+
+	@Test
+	void modelJsonIsTheReflectiveJson() {
+		for (Professionnel ps : randomPs(500, new Random(1))) {
+			assertEquals(reflectiveGson.toJson(ps), jsonFormatter.jsonFromObject(ps));
+			assertEquals(reflectiveGson.toJson(new Professionnel(ps)), jsonFormatter.nakedPsFromObject(ps));
+			for (ExerciceProfessionnel exPro : ps.getProfessions()) {
+				assertEquals(reflectiveGson.toJson(exPro), jsonFormatter.jsonFromObject(exPro));
+				assertEquals(reflectiveGson.toJson(new ExerciceProfessionnel(exPro)), jsonFormatter.nakedExProFromObject(exPro));
+			}
+			assertEquals(reflectiveGson.toJson(ps.getProfessions()), jsonFormatter.jsonFromObject(ps.getProfessions()));
+		}
+		String[] items = randomItems(new Random(2));
+		assertEquals(reflectiveGson.toJson(new Structure(items)), jsonFormatter.jsonFromObject(new Structure(items)));
+	}
+
+	private static List<Professionnel> randomPs(int count, Random random) {
+		List<Professionnel> psList = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			Professionnel ps = new Professionnel(randomItems(random));
+			ps.getProfessions().get(0).getExpertises().add(new SavoirFaire(randomItems(random)));
+			ps.getProfessions().add(new ExerciceProfessionnel(randomItems(random)));
+			psList.add(ps);
+		}
+		return psList;
+	}
+
+	private static String[] randomItems(Random random) {
+		String[] items = new String[50];
+		for (int item = 0; item < items.length; item++) {
+			int kind = random.nextInt(8);
+			items[item] = kind == 0 ? null : kind < 4 ? "" : "v\"é<" + random.nextInt(100);
+		}
+		return items;
+	}
+}
@@ -0,0 +1,126 @@
+package fr.ans.psc.pscload.mapper;
+
+import com.google.common.collect.MapDifference;
+import com.google.common.collect.Maps;
+import fr.ans.psc.pscload.model.Professionnel;
+import fr.ans.psc.pscload.model.Structure;
+import fr.ans.psc.pscload.service.StreamingDiff;
+import fr.ans.psc.pscload.snapshot.SnapshotCompression;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChangeSetFileTests {
+
+	@TempDir
+	File folder;
+
+	@Test
+	void changesReadBackInTheirRecords() throws IOException {
+		Map<String, Professionnel> originalPs = psMap("81", "82", "83");
+		Map<String, Professionnel> revisedPs = psMap("82", "83", "84");
+		revisedPs.put("83", new Professionnel(items("83", "RENAMED", "R1")));
+		MapDifference<String, Professionnel> psDiff = Maps.difference(originalPs, revisedPs);
+		MapDifference<String, Structure> structureDiff = Maps.difference(structureMap("R1", "R2"), structureMap("R2", "R3"));
+
+		for (SnapshotCompression compression : SnapshotCompression.values()) {
+			File file = new File(folder, compression.name() + ChangeSetFile.EXTENSION);
+			ChangeSetFile.write(psDiff, structureDiff, compression, 1, file);
+
+			List<String> psChanges = new ArrayList<>();
+			List<String> structureChanges = new ArrayList<>();
+			try (ChangeSetFile changes = ChangeSetFile.open(file)) {
+				assertEquals(3, changes.readPs(handler(psChanges,
+						ps -> ps.getNationalId() + (ps.equals(revisedPs.get(ps.getNationalId())) ? " revised" : " original"))));
+				assertEquals(2, changes.readStructures(handler(structureChanges, Structure::getStructureId)));
+			}
+
+			assertEquals(Arrays.asList("delete 81 original", "create 84 revised", "update 83 original 83 revised"), psChanges,
+					compression.name());
+			assertEquals(Arrays.asList("delete R1", "create R3"), structureChanges, compression.name());
+		}
+	}
+
+	@Test
+	void recordsAreReadInOrderOnce() throws IOException {
+		File file = new File(folder, "202101010000" + ChangeSetFile.EXTENSION);
+		ChangeSetFile.write(Maps.difference(psMap("81"), psMap()), Maps.difference(structureMap(), structureMap()),
+				SnapshotCompression.NONE, 1, file);
+
+		try (ChangeSetFile changes = ChangeSetFile.open(file)) {
+			assertThrows(IllegalStateException.class, () -> changes.readStructures(handler(new ArrayList<>(), Structure::getStructureId)));
+			assertEquals(1, changes.readPs(handler(new ArrayList<>(), Professionnel::getNationalId)));
+			assertThrows(IllegalStateException.class, () -> changes.readPs(handler(new ArrayList<>(), Professionnel::getNationalId)));
+			assertEquals(0, changes.readStructures(handler(new ArrayList<>(), Structure::getStructureId)));
+		}
+	}
+
+	@Test
+	void otherFilesAreRejected() throws IOException {
+		File file = new File(folder, "202101010000" + ChangeSetFile.EXTENSION);
+		Files.write(file.toPath(), new byte[]{0, 1, 2, 3, 4, 5, 6, 7});
+
+		assertThrows(IOException.class, () -> ChangeSetFile.open(file));
+	}
+
+	private static <T> StreamingDiff.Handler<T> handler(List<String> changes, Function<T, String> describe) {
+		return new StreamingDiff.Handler<>() {
+			@Override
+			public void onDelete(T left) {
+				changes.add("delete " + describe.apply(left));
+			}
+
+			@Override
+			public void onCreate(T right) {
+				changes.add("create " + describe.apply(right));
+			}
+
+			@Override
+			public void onUpdate(T left, T right) {
+				changes.add("update " + describe.apply(left) + " " + describe.apply(right));
+			}
+		};
+	}
+
+	private static Map<String, Professionnel> psMap(String... nationalIds) {
+		Map<String, Professionnel> psMap = new HashMap<>();
+		for (String nationalId : nationalIds) {
+			psMap.put(nationalId, new Professionnel(items(nationalId, "NOM" + nationalId, "R1")));
+		}
+		return psMap;
+	}
+
+	private static Map<String, Structure> structureMap(String... structureIds) {
+		Map<String, Structure> structureMap = new HashMap<>();
+		for (String structureId : structureIds) {
+			structureMap.put(structureId, new Structure(items("8" + structureId, "NOM", structureId)));
+		}
+		return structureMap;
+	}
+
+	private static String[] items(String nationalId, String lastName, String structureId) {
+		String[] items = new String[50];
+		Arrays.fill(items, "");
+		items[0] = "8";
+		items[1] = nationalId.substring(1);
+		items[2] = nationalId;
+		items[3] = lastName;
+		items[13] = "10";
+		items[18] = "S";
+		items[19] = "SM26";
+		items[28] = structureId;
+		return items;
+	}
+}
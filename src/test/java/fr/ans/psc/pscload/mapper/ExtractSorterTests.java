@@ -0,0 +1,72 @@
+package fr.ans.psc.pscload.mapper;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ExtractSorterTests {
+
+	@TempDir
+	File directory;
+
+	private final ExtractSorter extractSorter = new ExtractSorter();
+
+	@BeforeEach
+	void setUp() {
+		ReflectionTestUtils.setField(extractSorter, "chunkSize", 3);
+	}
+
+	@Test
+	void rowsAreSortedByKeyAcrossChunksAndKeepTheirOrderOnTies() throws IOException {
+		List<String> rows = Arrays.asList(row("83", "a"), row("81", "b"), row("85", "c"), row("81", "d"),
+				row("84", "e"), row("83", "f"), row("82", "g"), row("81", "h"));
+		File source = write(rows);
+		File target = new File(directory, "target");
+
+		extractSorter.resort(source, ExtractSorter.NATIONAL_ID_COLUMN, target);
+
+		assertEquals(Arrays.asList(row("81", "b"), row("81", "d"), row("81", "h"), row("82", "g"),
+				row("83", "a"), row("83", "f"), row("84", "e"), row("85", "c")),
+				Files.readAllLines(target.toPath(), StandardCharsets.UTF_8));
+		assertEquals(2, directory.listFiles().length, "chunk files are deleted");
+	}
+
+	@Test
+	void rowsLongerThan64KBAreKept() throws IOException {
+		char[] longValue = new char[70_000];
+		Arrays.fill(longValue, 'é');
+		List<String> rows = Arrays.asList(row("82", new String(longValue)), row("81", "a"));
+		File target = new File(directory, "target");
+
+		extractSorter.resort(write(rows), ExtractSorter.NATIONAL_ID_COLUMN, target);
+
+		assertEquals(Arrays.asList(rows.get(1), rows.get(0)), Files.readAllLines(target.toPath(), StandardCharsets.UTF_8));
+	}
+
+	private File write(List<String> rows) throws IOException {
+		File source = new File(directory, "source");
+		Files.write(source.toPath(), new ArrayList<>(rows), StandardCharsets.UTF_8);
+		return source;
+	}
+
+	private static String row(String nationalId, String lastName) {
+		String[] items = new String[50];
+		Arrays.fill(items, "");
+		items[0] = nationalId.substring(0, 1);
+		items[1] = nationalId.substring(1);
+		items[2] = nationalId;
+		items[3] = lastName;
+		return String.join("|", items);
+	}
+}
@@ -0,0 +1,89 @@
+package fr.ans.psc.pscload.mapper;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.util.Pool;
+import fr.ans.psc.pscload.model.Professionnel;
+import fr.ans.psc.pscload.model.Structure;
+import fr.ans.psc.pscload.snapshot.Snapshot;
+import fr.ans.psc.pscload.snapshot.SnapshotCompression;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KryoSegmentsTests {
+
+	@TempDir
+	File folder;
+
+	@Test
+	void segmentsReadBackAsTheirMaps() throws IOException {
+		Map<String, Professionnel> psMap = new HashMap<>();
+		Map<String, Structure> structureMap = new HashMap<>();
+		for (int i = 0; i < 20; i++) {
+			psMap.put("8" + i, new Professionnel(items("8" + i, "NOM" + i, "R" + i % 7)));
+			structureMap.putIfAbsent("R" + i % 7, new Structure(items("8" + i, "NOM", "R" + i % 7)));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			// a few entries per segment, more segments than threads
+			KryoSegments segments = new KryoSegments(pool(), pool(), executor, 2, 3, 256);
+			for (SnapshotCompression compression : SnapshotCompression.values()) {
+				File file = new File(folder, compression.name() + ".ser");
+				segments.write(psMap, structureMap, compression, 1, file);
+
+				assertTrue(KryoSegments.isSegmentFile(file), compression.name());
+				Snapshot snapshot = segments.read(file);
+				assertEquals(psMap, snapshot.getPsMap(), compression.name());
+				assertEquals(structureMap, snapshot.getStructureMap(), compression.name());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void otherFilesAreNotSegmentFiles() throws IOException {
+		File empty = new File(folder, "empty.ser");
+		assertTrue(empty.createNewFile());
+		assertFalse(KryoSegments.isSegmentFile(empty));
+	}
+
+	private static Pool<Kryo> pool() {
+		return new Pool<Kryo>(true, false, 4) {
+			@Override
+			protected Kryo create() {
+				Kryo kryo = new Kryo();
+				kryo.register(HashMap.class, 9);
+				kryo.register(ArrayList.class, 10);
+				ModelSerializers.register(kryo, 11);
+				return kryo;
+			}
+		};
+	}
+
+	private static String[] items(String nationalId, String lastName, String structureId) {
+		String[] items = new String[50];
+		Arrays.fill(items, "");
+		items[0] = "8";
+		items[1] = nationalId.substring(1);
+		items[2] = nationalId;
+		items[3] = lastName;
+		items[13] = "10";
+		items[18] = "S";
+		items[19] = "SM26";
+		items[28] = structureId;
+		return items;
+	}
+}
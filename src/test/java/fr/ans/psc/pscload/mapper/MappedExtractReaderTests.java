@@ -0,0 +1,78 @@
+package fr.ans.psc.pscload.mapper;
+
+import com.univocity.parsers.csv.CsvParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedExtractReaderTests {
+
+	private static final String EXTRACT = String.join("\n",
+			"Type|Id|National id|Nom",
+			"8|1|81|DUPONT",
+			"  8 | 2 |82|  MARTIN  ",
+			"8|3|83|\"PIPE | IN QUOTES\"",
+			"8|4|84|\"DOUBLED \"\"QUOTES\"\"\"",
+			"",
+			"# comment|line",
+			"8|5|85|\"\"|",
+			"8|6|86|\"LINE",
+			"FEED\"|after",
+			"   ",
+			"8|7|87|ÉLÉONORE|",
+			"8|8|88|\"QUOTED\" TAIL|\"  SPACES  \"",
+			"8|9|89|\"SPACED\"   |\"GLUED\"TAIL");
+
+	@TempDir
+	File directory;
+
+	@Test
+	void rowsAreParsedLikeTheCsvParser() throws IOException {
+		for (Charset charset : Arrays.asList(StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1)) {
+			File extract = new File(directory, "extract_" + charset.name() + ".txt");
+			Files.write(extract.toPath(), EXTRACT.getBytes(charset));
+
+			List<List<String>> mappedRows = new ArrayList<>();
+			try (MappedExtractReader reader = new MappedExtractReader(extract, charset, 0, extract.length())) {
+				String[] row;
+				while ((row = reader.nextRow()) != null) {
+					mappedRows.add(Arrays.asList(row));
+				}
+			}
+
+			List<List<String>> parsedRows = new ArrayList<>();
+			CsvParser parser = SortedExtractReader.newRowParser();
+			parser.beginParsing(new StringReader(EXTRACT));
+			String[] row;
+			while ((row = parser.parseNext()) != null) {
+				parsedRows.add(Arrays.asList(row));
+			}
+
+			assertEquals(parsedRows, mappedRows, charset.name());
+			assertEquals(Arrays.asList("8", "3", "83", "PIPE | IN QUOTES"), mappedRows.get(3), charset.name());
+			assertEquals(10, mappedRows.size(), charset.name());
+		}
+	}
+
+	@Test
+	void onlyCharsetsSplittableOnBytesAreSupported() {
+		assertTrue(MappedExtractReader.isSupported(StandardCharsets.UTF_8));
+		assertTrue(MappedExtractReader.isSupported(StandardCharsets.ISO_8859_1));
+		assertTrue(MappedExtractReader.isSupported(Charset.forName("windows-1252")));
+		assertFalse(MappedExtractReader.isSupported(StandardCharsets.UTF_16));
+		assertFalse(MappedExtractReader.isSupported(StandardCharsets.UTF_16LE));
+	}
+}
@@ -0,0 +1,67 @@
+package fr.ans.psc.pscload.mapper;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import fr.ans.psc.pscload.component.JsonFormatter;
+import fr.ans.psc.pscload.model.Professionnel;
+import fr.ans.psc.pscload.model.Structure;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ModelSerializersTests {
+
+	private final JsonFormatter jsonFormatter = new JsonFormatter();
+
+	@Test
+	void modelsReadBackWithAllTheirFields() {
+		String[] items = items();
+		// null, empty and filled values are told apart
+		items[5] = null;
+		items[6] = "";
+		Professionnel ps = new Professionnel(items);
+		String[] otherProfession = items();
+		otherProfession[13] = "40";
+		otherProfession[28] = "R2";
+		ps.getProfessions().add(new Professionnel(otherProfession).getProfessions().get(0));
+		Structure structure = new Structure(items);
+
+		Kryo kryo = new Kryo();
+		ModelSerializers.register(kryo, 11);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (Output output = new Output(bytes)) {
+			kryo.writeObject(output, ps);
+			kryo.writeObject(output, structure);
+		}
+		try (Input input = new Input(new ByteArrayInputStream(bytes.toByteArray()))) {
+			Professionnel readPs = kryo.readObject(input, Professionnel.class);
+			Structure readStructure = kryo.readObject(input, Structure.class);
+
+			assertEquals(ps, readPs);
+			assertEquals(jsonFormatter.jsonFromObject(ps), jsonFormatter.jsonFromObject(readPs));
+			assertEquals(structure, readStructure);
+			assertEquals(jsonFormatter.jsonFromObject(structure), jsonFormatter.jsonFromObject(readStructure));
+		}
+	}
+
+	private static String[] items() {
+		String[] items = new String[50];
+		for (int item = 0; item < items.length; item++) {
+			items[item] = "v" + item;
+		}
+		Arrays.fill(items, 40, 45, "");
+		items[0] = "8";
+		items[1] = "1";
+		items[2] = "81";
+		items[13] = "10";
+		items[18] = "S";
+		items[19] = "SM26";
+		items[28] = "R1";
+		return items;
+	}
+}
@@ -0,0 +1,249 @@
+package fr.ans.psc.pscload.mapper;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.google.common.collect.Maps;
+import fr.ans.psc.pscload.metrics.CustomMetrics;
+import fr.ans.psc.pscload.model.ExerciceProfessionnel;
+import fr.ans.psc.pscload.model.Professionnel;
+import fr.ans.psc.pscload.model.SavoirFaire;
+import fr.ans.psc.pscload.model.SituationExercice;
+import fr.ans.psc.pscload.model.Structure;
+import fr.ans.psc.pscload.model.StructureRef;
+import fr.ans.psc.pscload.snapshot.SnapshotStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SerializerTests {
+
+	@TempDir
+	File folder;
+
+	@Test
+	void serFileReadBackAsWritten() throws IOException {
+		for (String compression : Arrays.asList("none", "gzip")) {
+			File ser = new File(folder, compression + "202101010000.ser");
+			Map<String, Professionnel> psMap = psMap("81", "82", "83");
+			Map<String, Structure> structureMap = structureMap("R1", "R2");
+			serializer(compression, 6).serialiseMapsToFile(psMap, structureMap, ser.getPath());
+
+			Serializer reader = serializer(compression, 6);
+			reader.deserialiseFileToMaps(ser);
+			assertEquals(psMap, reader.getPsMap(), compression);
+			assertEquals(structureMap, reader.getStructureMap(), compression);
+		}
+	}
+
+	@Test
+	void deltasAreAppliedOnTheirSnapshot() throws IOException {
+		for (String compression : Arrays.asList("none", "gzip")) {
+			File ser = new File(folder, compression + "202101010000.ser");
+			File firstDelta = new File(folder, compression + "202101020000.dlt");
+			File secondDelta = new File(folder, compression + "202101030000.dlt");
+			Map<String, Professionnel> psMap = psMap("81", "82", "83");
+			Map<String, Structure> structureMap = structureMap("R1", "R2");
+
+			Serializer serializer = serializer(compression, 2);
+			serializer.serialiseMapsToFile(psMap, structureMap, ser.getPath());
+			serializer.deserialiseFileToMaps(ser);
+			assertTrue(serializer.isDeltaAppendable(), compression);
+
+			Map<String, Professionnel> firstPsMap = psMap("82", "83", "84");
+			firstPsMap.put("83", ps("83", "RENAMED"));
+			Map<String, Structure> firstStructureMap = structureMap("R2", "R3");
+			serializer.serialiseDeltaToFile(Maps.difference(serializer.getPsMap(), firstPsMap),
+					Maps.difference(serializer.getStructureMap(), firstStructureMap), firstDelta.getPath());
+
+			serializer.deserialiseFileToMaps(ser, Collections.singletonList(firstDelta));
+			assertEquals(firstPsMap, serializer.getPsMap(), compression);
+			assertEquals(firstStructureMap, serializer.getStructureMap(), compression);
+			assertTrue(serializer.isDeltaAppendable(), compression);
+
+			Map<String, Professionnel> secondPsMap = psMap("84", "85");
+			serializer.serialiseDeltaToFile(Maps.difference(serializer.getPsMap(), secondPsMap),
+					Maps.difference(serializer.getStructureMap(), firstStructureMap), secondDelta.getPath());
+
+			Serializer reader = serializer(compression, 2);
+			reader.deserialiseFileToMaps(ser, Arrays.asList(firstDelta, secondDelta));
+			assertEquals(secondPsMap, reader.getPsMap(), compression);
+			assertEquals(firstStructureMap, reader.getStructureMap(), compression);
+			assertFalse(reader.isDeltaAppendable(), compression);
+		}
+	}
+
+	@Test
+	void deltasAreAppliedOnASegmentedSnapshot() throws IOException {
+		File ser = new File(folder, "202101010000.ser");
+		File delta = new File(folder, "202101020000.dlt");
+		Serializer serializer = serializer("gzip", 2, 2);
+		try {
+			serializer.serialiseMapsToFile(psMap("81", "82", "83", "84", "85"), structureMap("R1", "R2"), ser.getPath());
+			serializer.deserialiseFileToMaps(ser);
+			Map<String, Professionnel> revisedPsMap = psMap("82", "83", "84", "85", "86");
+			serializer.serialiseDeltaToFile(Maps.difference(serializer.getPsMap(), revisedPsMap),
+					Maps.difference(serializer.getStructureMap(), structureMap("R2")), delta.getPath());
+		} finally {
+			serializer.shutdown();
+		}
+
+		Serializer reader = serializer("gzip", 2);
+		reader.deserialiseFileToMaps(ser, Collections.singletonList(delta));
+		assertEquals(psMap("82", "83", "84", "85", "86"), reader.getPsMap());
+		assertEquals(structureMap("R2"), reader.getStructureMap());
+		assertTrue(reader.isDeltaAppendable());
+	}
+
+	@Test
+	void fullChainIsCompactedIntoASerFile() throws IOException {
+		File ser = new File(folder, "202101010000.ser");
+		File delta = new File(folder, "202101020000.dlt");
+		File compacted = new File(folder, "202101030000.ser");
+		Serializer serializer = serializer("none", 1);
+		serializer.serialiseMapsToFile(psMap("81", "82"), structureMap("R1"), ser.getPath());
+		serializer.deserialiseFileToMaps(ser);
+		serializer.serialiseDeltaToFile(Maps.difference(serializer.getPsMap(), psMap("82", "83")),
+				Maps.difference(serializer.getStructureMap(), structureMap("R1")), delta.getPath());
+
+		serializer.deserialiseFileToMaps(ser, Collections.singletonList(delta));
+		assertFalse(serializer.isDeltaAppendable());
+
+		serializer.serialiseMapsToFile(serializer.getPsMap(), serializer.getStructureMap(), compacted.getPath());
+		serializer = serializer("none", 1);
+		serializer.deserialiseFileToMaps(compacted);
+		assertEquals(psMap("82", "83"), serializer.getPsMap());
+		assertTrue(serializer.isDeltaAppendable());
+	}
+
+	@Test
+	void brokenChainIsIgnoredFromItsFirstMissingDelta() throws IOException {
+		File ser = new File(folder, "202101010000.ser");
+		File firstDelta = new File(folder, "202101020000.dlt");
+		File secondDelta = new File(folder, "202101030000.dlt");
+		Serializer serializer = serializer("none", 6);
+		serializer.serialiseMapsToFile(psMap("81", "82"), structureMap("R1"), ser.getPath());
+		serializer.deserialiseFileToMaps(ser);
+		serializer.serialiseDeltaToFile(Maps.difference(serializer.getPsMap(), psMap("82")),
+				Maps.difference(serializer.getStructureMap(), structureMap("R1")), firstDelta.getPath());
+		serializer.deserialiseFileToMaps(ser, Collections.singletonList(firstDelta));
+		serializer.serialiseDeltaToFile(Maps.difference(serializer.getPsMap(), psMap("83")),
+				Maps.difference(serializer.getStructureMap(), structureMap("R1")), secondDelta.getPath());
+		assertTrue(firstDelta.delete());
+
+		serializer = serializer("none", 6);
+		serializer.deserialiseFileToMaps(ser, Collections.singletonList(secondDelta));
+		assertEquals(psMap("81", "82"), serializer.getPsMap());
+		assertFalse(serializer.isDeltaAppendable());
+	}
+
+	@Test
+	void serFileWrittenBeforeTheModelSerializersIsRead() throws IOException {
+		File ser = new File(folder, "202101010000.ser");
+		Map<String, Professionnel> psMap = psMap("81", "82");
+		Map<String, Structure> structureMap = structureMap("R1");
+		// no magic number, the model classes are written by the reflective field serializers
+		Kryo kryo = new Kryo();
+		kryo.register(HashMap.class, 9);
+		kryo.register(ArrayList.class, 10);
+		kryo.register(Professionnel.class, 11);
+		kryo.register(ExerciceProfessionnel.class, 12);
+		kryo.register(SavoirFaire.class, 13);
+		kryo.register(SituationExercice.class, 14);
+		kryo.register(StructureRef.class, 15);
+		kryo.register(Structure.class, 16);
+		try (Output output = new Output(new FileOutputStream(ser))) {
+			kryo.writeClassAndObject(output, psMap);
+			kryo.writeClassAndObject(output, structureMap);
+		}
+
+		Serializer serializer = serializer("none", 6);
+		serializer.deserialiseFileToMaps(ser);
+		assertEquals(psMap, serializer.getPsMap());
+		assertEquals(structureMap, serializer.getStructureMap());
+	}
+
+	@Test
+	void deltaIsNotAppendableWithoutSnapshot() throws IOException {
+		Serializer serializer = serializer("none", 6);
+		serializer.deserialiseFileToMaps(null);
+		assertFalse(serializer.isDeltaAppendable());
+
+		File ser = new File(folder, "202101010000.ser");
+		serializer.serialiseMapsToFile(psMap("81"), structureMap("R1"), ser.getPath());
+		ReflectionTestUtils.setField(serializer, "deltaEnabled", false);
+		serializer.deserialiseFileToMaps(ser);
+		assertFalse(serializer.isDeltaAppendable());
+	}
+
+	private static Serializer serializer(String compression, int maxDeltaChain) {
+		return serializer(compression, maxDeltaChain, 1);
+	}
+
+	private static Serializer serializer(String compression, int maxDeltaChain, int parallelism) {
+		SnapshotStore snapshotStore = new SnapshotStore();
+		ReflectionTestUtils.setField(snapshotStore, "type", "maps");
+		Serializer serializer = new Serializer();
+		ReflectionTestUtils.setField(serializer, "customMetrics", new CustomMetrics(new SimpleMeterRegistry()));
+		ReflectionTestUtils.setField(serializer, "valueDictionary", new ValueDictionary());
+		ReflectionTestUtils.setField(serializer, "snapshotStore", snapshotStore);
+		ReflectionTestUtils.setField(serializer, "fileFormat", "kryo");
+		ReflectionTestUtils.setField(serializer, "compression", compression);
+		ReflectionTestUtils.setField(serializer, "compressionLevel", 1);
+		ReflectionTestUtils.setField(serializer, "deltaEnabled", true);
+		ReflectionTestUtils.setField(serializer, "maxDeltaChain", maxDeltaChain);
+		ReflectionTestUtils.setField(serializer, "parallelism", parallelism);
+		// a few entries per segment
+		ReflectionTestUtils.setField(serializer, "segmentSize", parallelism > 1 ? 2 : 1000);
+		ReflectionTestUtils.setField(serializer, "bufferSize", 4096);
+		serializer.init();
+		return serializer;
+	}
+
+	private static Map<String, Professionnel> psMap(String... nationalIds) {
+		Map<String, Professionnel> psMap = new HashMap<>();
+		for (String nationalId : nationalIds) {
+			psMap.put(nationalId, ps(nationalId, "NOM" + nationalId));
+		}
+		return psMap;
+	}
+
+	private static Map<String, Structure> structureMap(String... structureIds) {
+		Map<String, Structure> structureMap = new HashMap<>();
+		for (String structureId : structureIds) {
+			structureMap.put(structureId, new Structure(items("8" + structureId, "NOM", structureId)));
+		}
+		return structureMap;
+	}
+
+	private static Professionnel ps(String nationalId, String lastName) {
+		return new Professionnel(items(nationalId, lastName, "R1"));
+	}
+
+	private static String[] items(String nationalId, String lastName, String structureId) {
+		String[] items = new String[50];
+		Arrays.fill(items, "");
+		items[0] = "8";
+		items[1] = nationalId.substring(1);
+		items[2] = nationalId;
+		items[3] = lastName;
+		items[13] = "10";
+		items[18] = "S";
+		items[19] = "SM26";
+		items[28] = structureId;
+		return items;
+	}
+}
@@ -0,0 +1,45 @@
+package fr.ans.psc.pscload.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AdaptiveLimiterTests {
+
+	@Test
+	void limitGrowsWhileAnsweredAndBacksOffOncePerWindow() throws InterruptedException {
+		AtomicInteger gauge = new AtomicInteger();
+		AdaptiveLimiter limiter = new AdaptiveLimiter(4, 2, 6, 0.5, 0, gauge);
+
+		// answers in time with the window kept full add one per window
+		long[] starts = new long[4];
+		for (int i = 0; i < 4; i++) {
+			starts[i] = limiter.acquire();
+		}
+		for (int i = 0; i < 5; i++) {
+			limiter.release(starts[i % 4], false);
+			starts[i % 4] = limiter.acquire();
+		}
+		assertEquals(5, limiter.getLimit());
+		for (int i = 0; i < 4; i++) {
+			limiter.release(starts[i], false);
+		}
+		assertEquals(5, gauge.get());
+
+		// errors of a window sent before the decrease only halve the limit once
+		for (int i = 0; i < 4; i++) {
+			starts[i] = limiter.acquire();
+		}
+		for (long start : starts) {
+			limiter.release(start, true);
+		}
+		assertEquals(2, limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+
+		// never below the min limit
+		limiter.release(limiter.acquire(), true);
+		assertEquals(2, limiter.getLimit());
+	}
+}
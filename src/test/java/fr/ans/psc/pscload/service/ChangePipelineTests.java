@@ -0,0 +1,94 @@
+package fr.ans.psc.pscload.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChangePipelineTests {
+
+	@Test
+	void changesAreHandedOverInOrderUntilTheEndMarker() throws InterruptedException {
+		List<String> changes = Collections.synchronizedList(new ArrayList<>());
+		AtomicInteger queueGauge = new AtomicInteger();
+		ChangePipeline<String> pipeline = new ChangePipeline<>("test-pipeline", 2, handler(changes, null), queueGauge);
+
+		pipeline.onDelete("81");
+		pipeline.onCreate("82");
+		pipeline.onUpdate("83", "83'");
+		pipeline.onCreate("84");
+		pipeline.finish();
+
+		assertEquals(Arrays.asList("delete 81", "create 82", "update 83 83'", "create 84"), changes);
+		assertTrue(pipeline.getFirstChangeNanos() > 0);
+		assertEquals(0, queueGauge.get());
+	}
+
+	@Test
+	void consumerFailureIsRethrownByFinish() {
+		RuntimeException failure = new RuntimeException("api down");
+		AtomicInteger queueGauge = new AtomicInteger();
+		ChangePipeline<String> pipeline = new ChangePipeline<>("test-pipeline", 1, handler(new ArrayList<>(), failure), queueGauge);
+
+		pipeline.onCreate("81");
+		IllegalStateException thrown = assertThrows(IllegalStateException.class, pipeline::finish);
+
+		assertSame(failure, thrown.getCause());
+		assertEquals(0, queueGauge.get());
+	}
+
+	@Test
+	void diffIsNotBlockedByAFailedConsumer() {
+		Error failure = new OutOfMemoryError("test");
+		AtomicInteger queueGauge = new AtomicInteger();
+		ChangePipeline<String> pipeline = new ChangePipeline<>("test-pipeline", 1, handler(new ArrayList<>(), failure), queueGauge);
+
+		assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+			// the diff stops once the failure is seen, whatever the queue holds
+			IllegalStateException stopped = assertThrows(IllegalStateException.class, () -> {
+				for (int i = 0; i < 1000; i++) {
+					pipeline.onCreate("8" + i);
+				}
+			});
+			assertSame(failure, stopped.getCause());
+			IllegalStateException thrown = assertThrows(IllegalStateException.class, pipeline::finish);
+			assertSame(failure, thrown.getCause());
+		});
+		assertEquals(0, queueGauge.get());
+	}
+
+	private static StreamingDiff.Handler<String> handler(List<String> changes, Throwable failure) {
+		return new StreamingDiff.Handler<>() {
+			@Override
+			public void onDelete(String original) {
+				changes.add("delete " + original);
+			}
+
+			@Override
+			public void onCreate(String revised) {
+				if (failure instanceof Error) {
+					throw (Error) failure;
+				}
+				if (failure != null) {
+					throw (RuntimeException) failure;
+				}
+				changes.add("create " + revised);
+			}
+
+			@Override
+			public void onUpdate(String original, String revised) {
+				changes.add("update " + original + " " + revised);
+			}
+		};
+	}
+}
@@ -0,0 +1,57 @@
+package fr.ans.psc.pscload.service;
+
+import com.google.common.base.Equivalence;
+import com.google.common.collect.MapDifference;
+import com.google.common.collect.Maps;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class PartitionedDiffTests {
+
+	private PartitionedDiff partitionedDiff;
+
+	@BeforeEach
+	void setUp() {
+		partitionedDiff = new PartitionedDiff();
+		ReflectionTestUtils.setField(partitionedDiff, "parallelism", 2);
+		partitionedDiff.init();
+	}
+
+	@AfterEach
+	void tearDown() {
+		partitionedDiff.shutdown();
+	}
+
+	@Test
+	void differenceEqualsTheGuavaDifference() {
+		Map<String, String> original = map("81", "82", "83", "84");
+		Map<String, String> revised = map("82", "83", "84", "85");
+		revised.put("83", "RENAMED");
+
+		MapDifference<String, String> difference = partitionedDiff.diff(original, revised, Equivalence.equals(), value -> -1, 0);
+		MapDifference<String, String> expected = Maps.difference(original, revised);
+
+		assertEquals(expected, difference);
+		assertEquals(difference, expected);
+		assertEquals(expected.hashCode(), difference.hashCode());
+		assertEquals(expected.entriesDiffering().get("83"), difference.entriesDiffering().get("83"));
+		assertEquals(expected.entriesDiffering().get("83").hashCode(), difference.entriesDiffering().get("83").hashCode());
+		assertNotEquals(Maps.difference(original, original), difference);
+	}
+
+	private static Map<String, String> map(String... keys) {
+		Map<String, String> map = new HashMap<>();
+		for (String key : keys) {
+			map.put(key, "NOM" + key);
+		}
+		return map;
+	}
+}
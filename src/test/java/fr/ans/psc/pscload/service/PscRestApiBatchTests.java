@@ -0,0 +1,171 @@
+package fr.ans.psc.pscload.service;
+
+import com.google.common.collect.MapDifference;
+import com.google.common.collect.Maps;
+import fr.ans.psc.pscload.component.JsonFormatter;
+import fr.ans.psc.pscload.metrics.CustomMetrics;
+import fr.ans.psc.pscload.model.Professionnel;
+import fr.ans.psc.pscload.model.Structure;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the batch upload mode against a local stand-in of the psc api bulk endpoints.
+ */
+class PscRestApiBatchTests {
+
+	private final Queue<String> receivedBatches = new ConcurrentLinkedQueue<>();
+
+	@TempDir
+	File folder;
+
+	private MockWebServer apiServer;
+
+	private PscRestApi pscRestApi;
+
+	private CustomMetrics customMetrics;
+
+	private UploadJournal uploadJournal;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		apiServer = new MockWebServer();
+		apiServer.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest request) {
+				receivedBatches.add(request.getMethod() + " " + request.getPath() + " " + request.getBody().readUtf8());
+				return new MockResponse().setResponseCode(200).setBody("{\"code\":200}");
+			}
+		});
+		apiServer.start();
+
+		customMetrics = new CustomMetrics(new SimpleMeterRegistry());
+		UploadExecutor uploadExecutor = new UploadExecutor();
+		RetryQueue retryQueue = new RetryQueue();
+		ReflectionTestUtils.setField(uploadExecutor, "customMetrics", customMetrics);
+		ReflectionTestUtils.setField(uploadExecutor, "retryQueue", retryQueue);
+		ReflectionTestUtils.setField(uploadExecutor, "httpClient", new OkHttpClient());
+		ReflectionTestUtils.setField(uploadExecutor, "workers", 2);
+		ReflectionTestUtils.setField(uploadExecutor, "maxConcurrentCreates", 2);
+		ReflectionTestUtils.setField(uploadExecutor, "maxConcurrentUpdates", 2);
+		ReflectionTestUtils.setField(uploadExecutor, "maxConcurrentDeletes", 2);
+		ReflectionTestUtils.setField(uploadExecutor, "inFlightWindowSize", 4);
+		ReflectionTestUtils.setField(uploadExecutor, "initialInFlight", 2);
+		ReflectionTestUtils.setField(uploadExecutor, "minInFlight", 1);
+		ReflectionTestUtils.setField(uploadExecutor, "backoffRatio", 0.7);
+		ReflectionTestUtils.setField(uploadExecutor, "adaptive", true);
+		uploadExecutor.init();
+
+		PartitionedDiff partitionedDiff = new PartitionedDiff();
+		ReflectionTestUtils.setField(partitionedDiff, "parallelism", 2);
+		partitionedDiff.init();
+
+		uploadJournal = new UploadJournal();
+		ReflectionTestUtils.setField(uploadJournal, "syncIntervalMs", 1000L);
+		ReflectionTestUtils.setField(uploadJournal, "syncBatch", 1000);
+
+		pscRestApi = new PscRestApi();
+		ReflectionTestUtils.setField(pscRestApi, "customMetrics", customMetrics);
+		ReflectionTestUtils.setField(pscRestApi, "jsonFormatter", new JsonFormatter());
+		ReflectionTestUtils.setField(pscRestApi, "httpClient", new OkHttpClient());
+		ReflectionTestUtils.setField(pscRestApi, "uploadExecutor", uploadExecutor);
+		ReflectionTestUtils.setField(pscRestApi, "partitionedDiff", partitionedDiff);
+		ReflectionTestUtils.setField(pscRestApi, "retryQueue", retryQueue);
+		ReflectionTestUtils.setField(pscRestApi, "uploadJournal", uploadJournal);
+		ReflectionTestUtils.setField(pscRestApi, "apiBaseUrl", apiServer.url("/api").toString());
+		ReflectionTestUtils.setField(pscRestApi, "excludedProfessions", new String[0]);
+		ReflectionTestUtils.setField(pscRestApi, "batchSize", 2);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		uploadJournal.close();
+		apiServer.shutdown();
+	}
+
+	@Test
+	void uploadChangesInBatches() throws InterruptedException {
+		MapDifference<String, Professionnel> psDiff = psDiff();
+		assertEquals(3, customMetrics.getPsSizeGauges().get(CustomMetrics.PsCustomMetric.PS_ADELI_DELETE_SIZE).get());
+		assertEquals(3, customMetrics.getPsSizeGauges().get(CustomMetrics.PsCustomMetric.PS_FINESS_CREATE_SIZE).get());
+		assertEquals(3, customMetrics.getPsSizeGauges().get(CustomMetrics.PsCustomMetric.PS_RPPS_UPDATE_SIZE).get());
+		assertEquals(0, customMetrics.getPsSizeGauges().get(CustomMetrics.PsCustomMetric.PS_FINESS_UPDATE_SIZE).get());
+
+		MapDifference<String, Structure> structureDiff = Maps.difference(Collections.emptyMap(), Collections.emptyMap());
+		pscRestApi.uploadChanges(psDiff, structureDiff);
+
+		// 3 changes of each kind with a batch size of 2 : 2 requests per operation
+		assertEquals(6, receivedBatches.size());
+		assertEquals(2, countBatches("DELETE /api/ps/bulk"));
+		assertEquals(2, countBatches("POST /api/ps/bulk"));
+		assertEquals(2, countBatches("PUT /api/ps/bulk"));
+		assertEquals(3, receivedBatches.stream().filter(batch -> batch.startsWith("PUT"))
+				.mapToInt(batch -> batch.split("MARTIN", -1).length - 1).sum());
+	}
+
+	@Test
+	void journaledOperationsAreSkippedOnResume() throws IOException, InterruptedException {
+		File journalFile = new File(folder, "202101010000.jnl");
+		Files.writeString(journalFile.toPath(), "DELETE|PS|000000000\nDELETE|PS|000000001\nCREATE|PS|300000000\n");
+		assertEquals(3, uploadJournal.open(journalFile));
+
+		pscRestApi.uploadChanges(psDiff(), Maps.difference(Collections.emptyMap(), Collections.emptyMap()));
+
+		assertEquals(1, countBatches("DELETE /api/ps/bulk"));
+		assertEquals(1, countBatches("POST /api/ps/bulk"));
+		assertEquals(2, countBatches("PUT /api/ps/bulk"));
+		assertTrue(receivedBatches.stream().noneMatch(batch -> batch.contains("000000000") || batch.contains("300000000")));
+		uploadJournal.close();
+		assertEquals(9, Files.readAllLines(journalFile.toPath()).size());
+	}
+
+	private MapDifference<String, Professionnel> psDiff() {
+		Map<String, Professionnel> original = new HashMap<>();
+		Map<String, Professionnel> revised = new HashMap<>();
+		for (int i = 0; i < 3; i++) {
+			put(original, ps("80000000" + i, "DUPONT"));
+			put(revised, ps("80000000" + i, "MARTIN"));
+			put(original, ps("00000000" + i, "DURAND"));
+			put(revised, ps("30000000" + i, "PETIT"));
+		}
+		return pscRestApi.diffPsMaps(original, revised);
+	}
+
+	private long countBatches(String prefix) {
+		return receivedBatches.stream().filter(batch -> batch.startsWith(prefix + " ")).count();
+	}
+
+	private static void put(Map<String, Professionnel> map, Professionnel ps) {
+		map.put(ps.getNationalId(), ps);
+	}
+
+	private static Professionnel ps(String nationalId, String lastName) {
+		String[] items = new String[50];
+		Arrays.fill(items, "");
+		items[0] = nationalId.substring(0, 1);
+		items[1] = nationalId.substring(1);
+		items[2] = nationalId;
+		items[3] = lastName;
+		items[13] = "10";
+		items[28] = "S" + nationalId;
+		return new Professionnel(items);
+	}
+}
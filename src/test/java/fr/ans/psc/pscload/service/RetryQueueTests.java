@@ -0,0 +1,130 @@
+package fr.ans.psc.pscload.service;
+
+import fr.ans.psc.pscload.service.task.Create;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryQueueTests {
+
+	@TempDir
+	File folder;
+
+	private MockWebServer apiServer;
+
+	private RetryQueue retryQueue;
+
+	private File deadLetterFile;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		apiServer = new MockWebServer();
+		apiServer.start();
+
+		deadLetterFile = new File(folder, "upload-dead-letters.ndjson");
+		retryQueue = new RetryQueue();
+		ReflectionTestUtils.setField(retryQueue, "maxAttempts", 3);
+		ReflectionTestUtils.setField(retryQueue, "baseDelayMs", 1L);
+		ReflectionTestUtils.setField(retryQueue, "maxDelayMs", 4L);
+		ReflectionTestUtils.setField(retryQueue, "concurrency", 2);
+		ReflectionTestUtils.setField(retryQueue, "deadLetterFile", deadLetterFile.getPath());
+		ReflectionTestUtils.setField(retryQueue, "deadLetterMaxSize", 1024L);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		apiServer.shutdown();
+	}
+
+	@Test
+	void backoffStaysBetweenHalfAndAllOfTheExponentialDelay() {
+		ReflectionTestUtils.setField(retryQueue, "baseDelayMs", 100L);
+		ReflectionTestUtils.setField(retryQueue, "maxDelayMs", 1000L);
+		for (int attempt = 1; attempt <= 40; attempt++) {
+			long delay = Math.min(1000, 100L << Math.min(attempt - 1, 30));
+			for (int i = 0; i < 50; i++) {
+				long backoff = retryQueue.backoff(attempt);
+				assertTrue(backoff >= delay / 2 && backoff <= delay, attempt + " : " + backoff);
+			}
+		}
+	}
+
+	@Test
+	void failedRequestsAreSentUntilTheySucceed() throws InterruptedException {
+		apiServer.enqueue(new MockResponse().setResponseCode(503));
+		apiServer.enqueue(new MockResponse().setResponseCode(429));
+		apiServer.enqueue(new MockResponse().setResponseCode(200));
+		AtomicInteger acknowledged = new AtomicInteger();
+		retryQueue.add(task("{\"nationalId\":\"81\"}").whenAcknowledged(acknowledged::incrementAndGet));
+
+		assertEquals(0, retryQueue.redrive());
+		assertEquals(1, acknowledged.get());
+		assertEquals(3, apiServer.getRequestCount());
+		assertEquals(0, retryQueue.size());
+		assertFalse(deadLetterFile.exists());
+	}
+
+	@Test
+	void requestsStillFailingGoToTheDeadLetterFile() throws InterruptedException, IOException {
+		for (int i = 0; i < 3; i++) {
+			apiServer.enqueue(new MockResponse().setResponseCode(500));
+		}
+		AtomicInteger acknowledged = new AtomicInteger();
+		retryQueue.add(task("{\"nationalId\":\"81\"}").whenAcknowledged(acknowledged::incrementAndGet));
+
+		assertEquals(1, retryQueue.redrive());
+		assertEquals(0, acknowledged.get());
+		assertEquals(3, apiServer.getRequestCount());
+		List<String> deadLetters = Files.readAllLines(deadLetterFile.toPath());
+		assertEquals(1, deadLetters.size());
+		assertTrue(deadLetters.get(0).contains("\"run\":"));
+		assertTrue(deadLetters.get(0).contains("\"method\":\"POST\""));
+		assertTrue(deadLetters.get(0).contains("\"attempts\":3"));
+		assertTrue(deadLetters.get(0).contains("\"status\":500"));
+		assertTrue(deadLetters.get(0).contains("nationalId"));
+	}
+
+	@Test
+	void fullDeadLetterFileIsRolledOver() throws InterruptedException, IOException {
+		ReflectionTestUtils.setField(retryQueue, "maxAttempts", 1);
+		ReflectionTestUtils.setField(retryQueue, "deadLetterMaxSize", 1L);
+		for (int run = 0; run < 2; run++) {
+			apiServer.enqueue(new MockResponse().setResponseCode(500));
+			retryQueue.add(task("{\"run\":" + run + "}"));
+			assertEquals(1, retryQueue.redrive());
+		}
+
+		File backup = new File(deadLetterFile.getPath() + ".1");
+		assertTrue(Files.readAllLines(backup.toPath()).get(0).contains("\\\"run\\\":0"));
+		assertTrue(Files.readAllLines(deadLetterFile.toPath()).get(0).contains("\\\"run\\\":1"));
+	}
+
+	@Test
+	void failedRequestsOfAnInterruptedUploadAreCleared() throws InterruptedException {
+		retryQueue.add(task("{}"));
+		retryQueue.clear();
+
+		assertEquals(0, retryQueue.size());
+		assertEquals(0, retryQueue.redrive());
+		assertEquals(0, apiServer.getRequestCount());
+	}
+
+	private Create task(String json) {
+		return new Create(new OkHttpClient(), apiServer.url("/api/ps").toString(), json);
+	}
+}
@@ -0,0 +1,51 @@
+package fr.ans.psc.pscload.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StreamingDiffTests {
+
+	@Test
+	void changesAreHandedOverInKeyOrder() throws IOException {
+		List<String> original = Arrays.asList("a=1", "b=1", "d=1", "e=1", "g=1");
+		List<String> revised = Arrays.asList("b=1", "c=1", "d=2", "e=1", "f=1", "h=1");
+		List<String> changes = new ArrayList<>();
+
+		StreamingDiff.merge(source(original), source(revised), key(), new StreamingDiff.Handler<>() {
+			@Override
+			public void onDelete(String left) {
+				changes.add("delete " + left);
+			}
+
+			@Override
+			public void onCreate(String right) {
+				changes.add("create " + right);
+			}
+
+			@Override
+			public void onUpdate(String left, String right) {
+				changes.add("update " + left + " " + right);
+			}
+		});
+
+		assertEquals(Arrays.asList("delete a=1", "create c=1", "update d=1 d=2", "create f=1", "delete g=1", "create h=1"),
+				changes);
+	}
+
+	private static Function<String, String> key() {
+		return entity -> entity.substring(0, entity.indexOf('='));
+	}
+
+	private static StreamingDiff.Source<String> source(List<String> entities) {
+		Iterator<String> iterator = entities.iterator();
+		return () -> iterator.hasNext() ? iterator.next() : null;
+	}
+}
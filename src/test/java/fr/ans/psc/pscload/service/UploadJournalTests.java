@@ -0,0 +1,66 @@
+package fr.ans.psc.pscload.service;
+
+import fr.ans.psc.pscload.metrics.CustomMetrics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UploadJournalTests {
+
+	@TempDir
+	File folder;
+
+	@Test
+	void lineCutByACrashIsTruncated() throws IOException {
+		File file = new File(folder, "202101010000.jnl");
+		Files.writeString(file.toPath(), "CREATE|PS|81\nUPDATE|PS|8", StandardCharsets.UTF_8);
+		UploadJournal journal = journal(1000);
+
+		assertEquals(1, journal.open(file));
+		assertTrue(journal.isDone(CustomMetrics.OPERATION.CREATE, CustomMetrics.ENTITY_TYPE.PS, "81"));
+		assertFalse(journal.isDone(CustomMetrics.OPERATION.UPDATE, CustomMetrics.ENTITY_TYPE.PS, "8"));
+		journal.record(CustomMetrics.OPERATION.DELETE, CustomMetrics.ENTITY_TYPE.PS, "82");
+		journal.close();
+
+		assertEquals("CREATE|PS|81\nDELETE|PS|82\n", Files.readString(file.toPath(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void recordedOperationsAreDoneOnResume() throws IOException {
+		File file = new File(folder, "202101010000.jnl");
+		UploadJournal journal = journal(2);
+		journal.open(file);
+		journal.record(CustomMetrics.OPERATION.CREATE, CustomMetrics.ENTITY_TYPE.PS, "81");
+		journal.record(CustomMetrics.OPERATION.UPDATE, CustomMetrics.ENTITY_TYPE.STRUCTURE, "R1");
+		journal.record(CustomMetrics.OPERATION.DELETE, CustomMetrics.ENTITY_TYPE.PS, "82");
+		journal.close();
+		assertFalse(journal.isDone(CustomMetrics.OPERATION.CREATE, CustomMetrics.ENTITY_TYPE.PS, "81"));
+
+		UploadJournal resumed = journal(2);
+		assertEquals(3, resumed.open(file));
+		assertTrue(resumed.isDone(CustomMetrics.OPERATION.CREATE, CustomMetrics.ENTITY_TYPE.PS, "81"));
+		assertTrue(resumed.isDone(CustomMetrics.OPERATION.UPDATE, CustomMetrics.ENTITY_TYPE.STRUCTURE, "R1"));
+		assertTrue(resumed.isDone(CustomMetrics.OPERATION.DELETE, CustomMetrics.ENTITY_TYPE.PS, "82"));
+		assertFalse(resumed.isDone(CustomMetrics.OPERATION.UPDATE, CustomMetrics.ENTITY_TYPE.PS, "81"));
+
+		resumed.delete();
+		assertFalse(file.exists());
+	}
+
+	private static UploadJournal journal(int syncBatch) {
+		UploadJournal journal = new UploadJournal();
+		ReflectionTestUtils.setField(journal, "enabled", true);
+		ReflectionTestUtils.setField(journal, "syncIntervalMs", 1000L);
+		ReflectionTestUtils.setField(journal, "syncBatch", syncBatch);
+		return journal;
+	}
+}
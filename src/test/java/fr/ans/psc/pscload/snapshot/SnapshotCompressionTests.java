@@ -0,0 +1,36 @@
+package fr.ans.psc.pscload.snapshot;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class SnapshotCompressionTests {
+
+	@Test
+	void compressedStreamsAreDetectedAndReadBack() throws IOException {
+		byte[] content = new byte[300_000];
+		Random random = new Random(1);
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) ('a' + random.nextInt(4));
+		}
+		// uncompressed kryo snapshots start with the id of HashMap
+		content[0] = 0x0b;
+
+		for (SnapshotCompression compression : SnapshotCompression.values()) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (OutputStream out = compression.compress(bytes, 1)) {
+				out.write(content);
+			}
+			try (InputStream in = SnapshotCompression.decompress(new ByteArrayInputStream(bytes.toByteArray()))) {
+				assertArrayEquals(content, in.readAllBytes(), compression.name());
+			}
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package fr.ans.psc.pscload.snapshot;
+
+import fr.ans.psc.pscload.component.JsonFormatter;
+import fr.ans.psc.pscload.mapper.FingerprintIndex;
+import fr.ans.psc.pscload.metrics.CustomMetrics;
+import fr.ans.psc.pscload.model.Professionnel;
+import fr.ans.psc.pscload.model.Structure;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.BiFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnapshotStoreTests {
+
+	private final JsonFormatter jsonFormatter = new JsonFormatter();
+
+	@Test
+	void storedSnapshotsReadBackAsTheirMaps() {
+		Map<String, Professionnel> psMap = new HashMap<>();
+		Map<String, Structure> structureMap = new HashMap<>();
+		fill(psMap, structureMap, 2000, new Random(1));
+
+		for (SnapshotStore.Type type : SnapshotStore.Type.values()) {
+			Snapshot snapshot = store(type).store(psMap, structureMap);
+
+			assertEquals(psMap, snapshot.getPsMap(), type.name());
+			assertEquals(structureMap, snapshot.getStructureMap(), type.name());
+			assertEquals(psMap.keySet(), new HashSet<>(snapshot.getPsMap().keySet()), type.name());
+			psMap.forEach((nationalId, ps) -> assertEquals(jsonFormatter.jsonFromObject(ps),
+					jsonFormatter.jsonFromObject(snapshot.getPsMap().get(nationalId)), type.name()));
+			assertNull(snapshot.getPsMap().get("unknown"), type.name());
+			assertFalse(snapshot.getStructureMap().containsKey("unknown"), type.name());
+		}
+	}
+
+	@Test
+	void snapshotFileReadsBackItsMapsAndFingerprints() throws IOException {
+		Map<String, Professionnel> psMap = new HashMap<>();
+		Map<String, Structure> structureMap = new HashMap<>();
+		fill(psMap, structureMap, 2000, new Random(1));
+		FingerprintIndex fingerprintIndex = FingerprintIndex.of(psMap);
+		File file = File.createTempFile("snapshot", ".ser");
+		file.deleteOnExit();
+
+		SnapshotFile.write(psMap, structureMap, fingerprintIndex, file);
+		assertTrue(SnapshotFile.isSnapshotFile(file));
+		SnapshotFile snapshot = SnapshotFile.open(file);
+
+		assertEquals(psMap, snapshot.getPsMap());
+		assertEquals(structureMap, snapshot.getStructureMap());
+		psMap.forEach((nationalId, ps) -> assertEquals(jsonFormatter.jsonFromObject(ps),
+				jsonFormatter.jsonFromObject(snapshot.getPsMap().get(nationalId))));
+		psMap.keySet().forEach(nationalId -> assertTrue(fingerprintIndex.sameContent(nationalId, snapshot.getFingerprintIndex())));
+		assertNull(snapshot.getPsMap().get("unknown"));
+		assertEquals(psMap.size(), snapshot.countUploads().get(CustomMetrics.ID_TYPE.fromValue("8"), CustomMetrics.OPERATION.UPLOAD));
+	}
+
+	private static SnapshotStore store(SnapshotStore.Type type) {
+		SnapshotStore store = new SnapshotStore();
+		ReflectionTestUtils.setField(store, "type", type.name().toLowerCase());
+		return store;
+	}
+
+	private static void fill(Map<String, Professionnel> psMap, Map<String, Structure> structureMap, int psCount, Random random) {
+		BiFunction<String, Integer, String> value = (prefix, cardinality) -> prefix + random.nextInt(cardinality);
+		for (int i = 0; i < psCount * 2; i++) {
+			String[] items = new String[50];
+			for (int item = 0; item < items.length; item++) {
+				items[item] = random.nextInt(4) == 0 ? "" : value.apply("v", 8);
+			}
+			items[0] = "8";
+			items[1] = String.valueOf(i % psCount);
+			items[2] = "8" + items[1];
+			items[3] = value.apply("NOM", 1000);
+			items[13] = value.apply("", 3);
+			items[18] = "S";
+			items[19] = value.apply("SM", 4);
+			items[28] = value.apply("R", psCount / 2 + 1);
+
+			Professionnel row = new Professionnel(items);
+			Professionnel mapped = psMap.putIfAbsent(row.getNationalId(), row);
+			if (mapped != null) {
+				mapped.getProfessions().stream()
+						.filter(exPro -> exPro.getProfessionId().equals(row.getProfessions().get(0).getProfessionId()))
+						.findAny()
+						.ifPresentOrElse(exPro -> {
+							exPro.getExpertises().addAll(row.getProfessions().get(0).getExpertises());
+							exPro.getWorkSituations().get(0).getStructures().addAll(
+									row.getProfessions().get(0).getWorkSituations().get(0).getStructures());
+						}, () -> mapped.getProfessions().add(row.getProfessions().get(0)));
+			}
+			structureMap.putIfAbsent(items[28], new Structure(items));
+		}
+	}
+}